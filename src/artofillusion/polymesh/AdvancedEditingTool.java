@@ -140,6 +140,32 @@ public abstract class AdvancedEditingTool extends EditingTool
     
     /* Utility methods */
 
+    /* Find the vertices the methods below may move: those within the tension
+       distance of the selection. */
+    protected int [] findMovedVertices(int selectDist[])
+    {
+        int count = 0;
+        for (int i = 0; i < selectDist.length; i++)
+            if (selectDist[i] > -1)
+                count++;
+        int moved[] = new int [count];
+        count = 0;
+        for (int i = 0; i < selectDist.length; i++)
+            if (selectDist[i] > -1)
+                moved[count++] = i;
+        return moved;
+    }
+
+    /* Set the vertex positions of a mesh, telling a PolyMesh which vertices moved
+       so that it only updates the caches depending on them. */
+    protected void setVertexPositions(Mesh mesh, Vec3 v[], int moved[])
+    {
+        if (mesh instanceof PolyMesh)
+            ((PolyMesh) mesh).setVertexPositions(v, moved);
+        else
+            mesh.setVertexPositions(v);
+    }
+
     protected Vec3 [] findDraggedPositions(Vec3 dragVec, Vec3 vert[], MeshViewer view, int selectDist[])
     {
         int maxDistance = view.getController().getTensionDistance();
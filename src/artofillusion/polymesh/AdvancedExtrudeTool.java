@@ -34,6 +34,7 @@ import buoy.widget.Widget;
 public class AdvancedExtrudeTool extends AdvancedEditingTool
 {
     private Vec3 baseVertPos[];
+    private int movedVert[];
     private UndoRecord undo;
     private HashMap manip3dHashMap;
     private boolean selected[], separateFaces;
@@ -110,6 +111,7 @@ public class AdvancedExtrudeTool extends AdvancedEditingTool
     {
         PolyMesh mesh = (PolyMesh) controller.getObject().object;
         baseVertPos = mesh.getVertexPositions();
+        movedVert = findMovedVertices(controller.getSelectionDistance());
         origMesh = (PolyMesh) mesh.duplicate();
         selected = controller.getSelection();
         int selectMode = controller.getSelectionMode();
@@ -131,6 +133,7 @@ public class AdvancedExtrudeTool extends AdvancedEditingTool
         }
         origMesh = null;
         baseVertPos = null;
+        movedVert = null;
         theWindow.setHelpText(Translate.text("polymesh:advancedExtrudeTool.helpText"));
         controller.objectChanged();
         theWindow.updateImage();
@@ -140,7 +143,7 @@ public class AdvancedExtrudeTool extends AdvancedEditingTool
     {
         Mesh mesh = (Mesh) controller.getObject().object;
         Vec3[] v = findScaledPositions(baseVertPos, e.getScaleMatrix(), (MeshViewer) e.getView());
-        mesh.setVertexPositions(v);
+        setVertexPositions(mesh, v, movedVert);
         controller.objectChanged();
         theWindow.updateImage();
     }
@@ -152,7 +155,7 @@ public class AdvancedExtrudeTool extends AdvancedEditingTool
         v = findRotatedPositions(baseVertPos, e.getMatrix(), (MeshViewer)e.getView());
         if (v != null)
         {
-            mesh.setVertexPositions(v);
+            setVertexPositions(mesh, v, movedVert);
             controller.objectChanged();
             theWindow.updateImage();
         }
@@ -164,6 +167,7 @@ public class AdvancedExtrudeTool extends AdvancedEditingTool
         undo = new UndoRecord(theWindow, false, UndoRecord.COPY_OBJECT, new Object [] {mesh, origMesh});
         theWindow.setUndoRecord(undo);
         baseVertPos = null;
+        movedVert = null;
         origMesh = null;
         theWindow.setHelpText(Translate.text("polymesh:advancedExtrudeTool.helpText"));
         theWindow.updateImage();
@@ -202,7 +206,7 @@ public class AdvancedExtrudeTool extends AdvancedEditingTool
         else
         {
             Vec3[] v = findDraggedPositions(drag, baseVertPos, mv, controller.getSelectionDistance());
-            mesh.setVertexPositions(v);
+            setVertexPositions(mesh, v, movedVert);
         }
         controller.objectChanged();
         theWindow.updateImage();
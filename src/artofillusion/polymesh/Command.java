@@ -35,4 +35,21 @@ public interface Command {
      *
      */
     public void redo();
+
+    /**
+     * Returns an estimate of the memory taken by the command data, in bytes
+     * (see PMUndoRedoStack.setMemoryBudget()). Commands which only keep a
+     * few values need not override it.
+     */
+    public default long getMemorySize() {
+        return 0;
+    }
+
+    /**
+     * Called when the command is no longer the next one to undo or redo, so
+     * that it can compress its data (see PMUndoRedoStack). The data must be
+     * usable again when the command is undone or redone.
+     */
+    public default void compress() {
+    }
 }
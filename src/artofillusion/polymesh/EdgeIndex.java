@@ -0,0 +1,159 @@
+/*
+ *  Copyright (C) 2026 by the Art of Illusion PolyMesh contributors
+ *  This program is free software; you can redistribute it and/or modify it under the
+ *  terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 2 of the License, or (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ *  PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package artofillusion.polymesh;
+
+import java.util.Arrays;
+
+/**
+ * A hash table mapping an unordered pair of vertex indices to a half edge index.
+ * Keys and values are stored in primitive arrays (open addressing, linear probing)
+ * so that indexing the edges of large meshes does not create any per entry object.
+ *
+ * The pair (v1, v2) and the pair (v2, v1) are the same key.
+ */
+public class EdgeIndex {
+
+    private static final long EMPTY = -1L;
+
+    private long[] keys;
+    private int[] values;
+    private int size;
+    private int mask;
+
+    /**
+     * Creates an edge index
+     *
+     * @param expected The expected number of vertex pairs
+     */
+    public EdgeIndex(int expected) {
+        int capacity = 16;
+        while (capacity < expected * 2 && capacity < (1 << 30))
+            capacity <<= 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        values = new int[capacity];
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    private static long key(int v1, int v2) {
+        if (v1 > v2) {
+            int tmp = v1;
+            v1 = v2;
+            v2 = tmp;
+        }
+        return (((long) v1) << 32) | (v2 & 0xffffffffL);
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * Returns the half edge stored for a pair of vertices
+     *
+     * @param v1 First vertex
+     * @param v2 Second vertex
+     * @return   The half edge index, -1 if the pair is not in the index
+     */
+    public int get(int v1, int v2) {
+        long k = key(v1, v2);
+        int i = slot(k);
+        while (keys[i] != EMPTY) {
+            if (keys[i] == k)
+                return values[i];
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Stores the half edge for a pair of vertices, replacing any previous value
+     *
+     * @param v1   First vertex
+     * @param v2   Second vertex
+     * @param edge The half edge index
+     */
+    public void put(int v1, int v2, int edge) {
+        long k = key(v1, v2);
+        int i = slot(k);
+        while (keys[i] != EMPTY) {
+            if (keys[i] == k) {
+                values[i] = edge;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = k;
+        values[i] = edge;
+        if (++size * 2 > keys.length)
+            rehash(keys.length * 2);
+    }
+
+    /**
+     * Removes a pair of vertices from the index
+     *
+     * @param v1 First vertex
+     * @param v2 Second vertex
+     */
+    public void remove(int v1, int v2) {
+        long k = key(v1, v2);
+        int i = slot(k);
+        while (keys[i] != k) {
+            if (keys[i] == EMPTY)
+                return;
+            i = (i + 1) & mask;
+        }
+        // backward shift deletion keeps probe sequences unbroken
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (keys[j] == EMPTY)
+                break;
+            int home = slot(keys[j]);
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        keys[i] = EMPTY;
+        --size;
+    }
+
+    /**
+     * Returns the number of vertex pairs in the index
+     */
+    public int size() {
+        return size;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY)
+                continue;
+            int j = slot(oldKeys[i]);
+            while (keys[j] != EMPTY)
+                j = (j + 1) & mask;
+            keys[j] = oldKeys[i];
+            values[j] = oldValues[i];
+            ++size;
+        }
+    }
+}
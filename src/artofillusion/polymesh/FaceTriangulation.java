@@ -0,0 +1,318 @@
+/*
+ *  Copyright (C) 2026 by the Art of Illusion PolyMesh contributors
+ *  This program is free software; you can redistribute it and/or modify it under the
+ *  terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 2 of the License, or (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ *  PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package artofillusion.polymesh;
+
+import java.util.Arrays;
+
+import artofillusion.math.Vec3;
+
+/**
+ * Triangulation pattern of a polygonal face, stored as corner indices so that
+ * it can be kept while the face vertices move.
+ *
+ * Reflex corners are cut away by ear clipping. Only the reflex corners can lie
+ * inside an ear, so each ear test checks the current reflex corners, which
+ * takes O(n.r) for a face with n corners, r of them reflex. The convex polygon
+ * left once there is no reflex corner is split along its best diagonal if it
+ * is a quad, or fanned around its center if it has more than four corners.
+ *
+ * The pattern stays valid as long as none of its triangles is flipped: the
+ * triangles then cover the face without overlapping.
+ */
+public class FaceTriangulation {
+
+    private final int[] cycle;
+    private final int[] corners;
+    private final int[] centerCorners;
+
+    /**
+     * Triangulates a face
+     *
+     * @param cycle The face vertices, in order
+     * @param r     The position of each face vertex
+     */
+    public FaceTriangulation(int[] cycle, Vec3[] r) {
+        this.cycle = cycle.clone();
+        int n = r.length;
+        double[] norm = getNormal(r);
+        double[] x = new double[n];
+        double[] y = new double[n];
+        project(r, norm, x, y);
+        int[] prev = new int[n];
+        int[] next = new int[n];
+        for (int i = 0; i < n; i++) {
+            prev[i] = (i == 0 ? n - 1 : i - 1);
+            next[i] = (i == n - 1 ? 0 : i + 1);
+        }
+
+        // reflex corners are kept in a list, with the position of each corner
+        // in the list so that it can be removed in constant time
+
+        int[] reflex = new int[n];
+        int[] reflexPos = new int[n];
+        int reflexCount = 0;
+        Arrays.fill(reflexPos, -1);
+        for (int i = 0; i < n; i++)
+            if (cross(x, y, prev[i], i, next[i]) < 0) {
+                reflexPos[i] = reflexCount;
+                reflex[reflexCount++] = i;
+            }
+        int[] tri = new int[6 * n];
+        int count = 0;
+        boolean[] deleted = new boolean[n];
+        int remaining = n;
+        int i = 0;
+        int misses = 0;
+        while (reflexCount > 0 && remaining > 3) {
+            // when no ear is found all around the face, which only happens for
+            // degenerate or self intersecting faces, a convex corner is cut anyway,
+            // then any corner
+
+            boolean skip;
+            if (misses <= remaining)
+                skip = reflexPos[i] != -1 || !isEar(x, y, prev[i], i, next[i], reflex, reflexCount);
+            else
+                skip = reflexPos[i] != -1 && misses <= 2 * remaining;
+            if (skip) {
+                i = next[i];
+                ++misses;
+                continue;
+            }
+
+            // cut the ear at i
+
+            int p = prev[i];
+            int q = next[i];
+            tri[count++] = p;
+            tri[count++] = i;
+            tri[count++] = q;
+            next[p] = q;
+            prev[q] = p;
+            deleted[i] = true;
+            --remaining;
+            if (reflexPos[i] != -1)
+                reflexCount = removeReflex(i, reflex, reflexPos, reflexCount);
+            if (reflexPos[p] != -1 && cross(x, y, prev[p], p, q) >= 0)
+                reflexCount = removeReflex(p, reflex, reflexPos, reflexCount);
+            if (reflexPos[q] != -1 && cross(x, y, p, q, next[q]) >= 0)
+                reflexCount = removeReflex(q, reflex, reflexPos, reflexCount);
+            misses = 0;
+            i = p;
+        }
+
+        // the corners left form a convex polygon
+
+        int first = 0;
+        while (deleted[first])
+            ++first;
+        if (remaining == 3) {
+            tri[count++] = prev[first];
+            tri[count++] = first;
+            tri[count++] = next[first];
+            centerCorners = null;
+        } else if (remaining == 4) {
+            int p = prev[first];
+            int q = next[first];
+            int q2 = next[q];
+            double product = 0.0;
+            product += norm[0] * (r[p].x + r[q].x - r[q2].x - r[first].x);
+            product += norm[1] * (r[p].y + r[q].y - r[q2].y - r[first].y);
+            product += norm[2] * (r[p].z + r[q].z - r[q2].z - r[first].z);
+            if (product >= 0) {
+                tri[count++] = p;
+                tri[count++] = first;
+                tri[count++] = q;
+                tri[count++] = q;
+                tri[count++] = q2;
+                tri[count++] = p;
+            } else {
+                tri[count++] = q2;
+                tri[count++] = p;
+                tri[count++] = first;
+                tri[count++] = first;
+                tri[count++] = q;
+                tri[count++] = q2;
+            }
+            centerCorners = null;
+        } else {
+            centerCorners = new int[remaining];
+            int k = 0;
+            for (int j = 0; j < n; j++)
+                if (!deleted[j]) {
+                    centerCorners[k++] = j;
+                    tri[count++] = prev[j];
+                    tri[count++] = j;
+                    tri[count++] = n;
+                }
+        }
+        corners = Arrays.copyOf(tri, count);
+    }
+
+    /**
+     * Returns the triangles, as three corner indices per triangle. Index n, n
+     * being the number of face vertices, stands for the face center (see
+     * getCenterCorners()).
+     */
+    public int[] getCorners() {
+        return corners;
+    }
+
+    /**
+     * Returns the corners whose average is the face center, or null if the
+     * triangles do not use the face center
+     */
+    public int[] getCenterCorners() {
+        return centerCorners;
+    }
+
+    /**
+     * Says if this triangulation can be used for a face
+     *
+     * @param cycle The face vertices, in order
+     * @param r     The position of each face vertex
+     * @return      True if the face has the same vertices and no triangle
+     *              is flipped
+     */
+    public boolean isValid(int[] cycle, Vec3[] r) {
+        if (!Arrays.equals(this.cycle, cycle))
+            return false;
+        double[] norm = getNormal(r);
+        double cx = 0.0;
+        double cy = 0.0;
+        double cz = 0.0;
+        if (centerCorners != null) {
+            for (int i = 0; i < centerCorners.length; i++) {
+                Vec3 p = r[centerCorners[i]];
+                cx += p.x;
+                cy += p.y;
+                cz += p.z;
+            }
+            cx /= centerCorners.length;
+            cy /= centerCorners.length;
+            cz /= centerCorners.length;
+        }
+        int n = r.length;
+        for (int i = 0; i < corners.length; i += 3) {
+            Vec3 a = r[corners[i]];
+            Vec3 b = r[corners[i + 1]];
+            double ax = b.x - a.x;
+            double ay = b.y - a.y;
+            double az = b.z - a.z;
+            double bx, by, bz;
+            if (corners[i + 2] == n) {
+                bx = cx - b.x;
+                by = cy - b.y;
+                bz = cz - b.z;
+            } else {
+                Vec3 c = r[corners[i + 2]];
+                bx = c.x - b.x;
+                by = c.y - b.y;
+                bz = c.z - b.z;
+            }
+            double product = (ay * bz - az * by) * norm[0] + (az * bx - ax * bz) * norm[1]
+                    + (ax * by - ay * bx) * norm[2];
+            if (product < 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Computes the face normal by Newell's method. The normal is not normalized.
+     */
+    private static double[] getNormal(Vec3[] r) {
+        double nx = 0.0;
+        double ny = 0.0;
+        double nz = 0.0;
+        for (int i = 0; i < r.length; i++) {
+            Vec3 a = r[i];
+            Vec3 b = r[i == r.length - 1 ? 0 : i + 1];
+            nx += (a.y - b.y) * (a.z + b.z);
+            ny += (a.z - b.z) * (a.x + b.x);
+            nz += (a.x - b.x) * (a.y + b.y);
+        }
+        return new double[] { nx, ny, nz };
+    }
+
+    /**
+     * Projects the face vertices on the plane perpendicular to the normal, in a
+     * basis where counterclockwise corners are those turning the same way as
+     * the face
+     */
+    private static void project(Vec3[] r, double[] norm, double[] x, double[] y) {
+        double len = Math.sqrt(norm[0] * norm[0] + norm[1] * norm[1] + norm[2] * norm[2]);
+        double nx = 0.0;
+        double ny = 0.0;
+        double nz = 1.0;
+        if (len > 0) {
+            nx = norm[0] / len;
+            ny = norm[1] / len;
+            nz = norm[2] / len;
+        }
+
+        // u is perpendicular to the normal, w = n x u
+
+        double ux, uy, uz;
+        if (Math.abs(nx) < 0.9) {
+            ux = 0.0;
+            uy = nz;
+            uz = -ny;
+        } else {
+            ux = -nz;
+            uy = 0.0;
+            uz = nx;
+        }
+        len = Math.sqrt(ux * ux + uy * uy + uz * uz);
+        ux /= len;
+        uy /= len;
+        uz /= len;
+        double wx = ny * uz - nz * uy;
+        double wy = nz * ux - nx * uz;
+        double wz = nx * uy - ny * ux;
+        for (int i = 0; i < r.length; i++) {
+            x[i] = r[i].x * ux + r[i].y * uy + r[i].z * uz;
+            y[i] = r[i].x * wx + r[i].y * wy + r[i].z * wz;
+        }
+    }
+
+    /**
+     * Returns the cross product of b - a and c - b. It is positive if the
+     * corner at b is convex.
+     */
+    private static double cross(double[] x, double[] y, int a, int b, int c) {
+        return (x[b] - x[a]) * (y[c] - y[b]) - (y[b] - y[a]) * (x[c] - x[b]);
+    }
+
+    /**
+     * Says if no reflex corner lies in triangle a, b, c
+     */
+    private static boolean isEar(double[] x, double[] y, int a, int b, int c, int[] reflex, int reflexCount) {
+        if (cross(x, y, a, b, c) < 0)
+            return false;
+        for (int i = 0; i < reflexCount; i++) {
+            int p = reflex[i];
+            if (p == a || p == c)
+                continue;
+            if (cross(x, y, a, b, p) >= 0 && cross(x, y, b, c, p) >= 0 && cross(x, y, c, a, p) >= 0)
+                return false;
+        }
+        return true;
+    }
+
+    private static int removeReflex(int v, int[] reflex, int[] reflexPos, int reflexCount) {
+        int pos = reflexPos[v];
+        int last = reflex[--reflexCount];
+        reflex[pos] = last;
+        reflexPos[last] = pos;
+        reflexPos[v] = -1;
+        return reflexCount;
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ *  Copyright (C) 2026 by the Art of Illusion PolyMesh contributors
+ *  This program is free software; you can redistribute it and/or modify it under the
+ *  terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 2 of the License, or (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ *  PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package artofillusion.polymesh;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Differences between an older and a newer version of a mesh, from which the
+ * older version can be rebuilt out of the newer one. Undo records keep such
+ * differences instead of a copy of the whole mesh (see MeshUndoHistory).
+ *
+ * The mesh elements are seen as lists of records made of a few int and double
+ * fields. For each list, the older records which differ from the newer ones
+ * are stored, as well as the older records past the end of the newer list.
+ * Records added at the end of a list only take the older list size.
+ *
+ * The differences can only be applied to the newer version they were computed
+ * against. A hash of each newer list is kept to check it.
+ *
+ * Differences kept for a while can be compressed: they are then deflated, and
+ * expanded when they are used (see Command.compress()).
+ */
+public class MeshDelta {
+
+    /**
+     * A list of mesh elements seen as records
+     */
+    abstract static class Records {
+        final int size;
+        final int intCount;
+        final int doubleCount;
+
+        /**
+         * @param size        Number of records
+         * @param intCount    Number of int fields of each record
+         * @param doubleCount Number of double fields of each record
+         */
+        Records(int size, int intCount, int doubleCount) {
+            this.size = size;
+            this.intCount = intCount;
+            this.doubleCount = doubleCount;
+        }
+
+        /**
+         * Reads the fields of a record
+         */
+        abstract void get(int i, int[] ints, double[] doubles);
+    }
+
+    /**
+     * Receives the records of the older version (see restore())
+     */
+    interface RecordSink {
+        void set(int i, int[] ints, double[] doubles);
+    }
+
+    private static class RecordList {
+        int intCount, doubleCount;
+        int oldSize, newSize;
+        long hash; //hash of the newer records
+        int[] changed; //indices of the changed records, below both sizes
+        int[] ints; //fields of the changed records, then of the removed ones
+        double[] doubles;
+    }
+
+    private final int[] sizes; //size of each list in the older version
+    private RecordList[] lists; //null while compressed
+    private byte[] packed; //the lists, deflated by compress()
+
+    /**
+     * Computes the differences between two versions of a mesh
+     *
+     * @param before The element lists of the older version
+     * @param after  The same lists in the newer version
+     */
+    public MeshDelta(Records[] before, Records[] after) {
+        lists = new RecordList[after.length];
+        sizes = new int[lists.length];
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = compare(before[i], after[i]);
+            sizes[i] = lists[i].oldSize;
+        }
+    }
+
+    private static RecordList[] readLists(DataInputStream in, int listCount) throws IOException {
+        RecordList[] lists = new RecordList[listCount];
+        for (int i = 0; i < lists.length; i++) {
+            RecordList l = new RecordList();
+            l.intCount = in.readInt();
+            l.doubleCount = in.readInt();
+            l.oldSize = in.readInt();
+            l.newSize = in.readInt();
+            l.hash = in.readLong();
+            l.changed = new int[in.readInt()];
+            for (int j = 0; j < l.changed.length; j++)
+                l.changed[j] = in.readInt();
+            int count = l.changed.length + Math.max(l.oldSize - l.newSize, 0);
+            l.ints = new int[count * l.intCount];
+            for (int j = 0; j < l.ints.length; j++)
+                l.ints[j] = in.readInt();
+            l.doubles = new double[count * l.doubleCount];
+            for (int j = 0; j < l.doubles.length; j++)
+                l.doubles[j] = in.readDouble();
+            lists[i] = l;
+        }
+        return lists;
+    }
+
+    private static RecordList compare(Records before, Records after) {
+        RecordList l = new RecordList();
+        int ni = l.intCount = after.intCount;
+        int nd = l.doubleCount = after.doubleCount;
+        l.oldSize = before.size;
+        l.newSize = after.size;
+        int[] bi = new int[ni];
+        int[] ai = new int[ni];
+        double[] bd = new double[nd];
+        double[] ad = new double[nd];
+        int[] changed = new int[16];
+        int[] ints = new int[16 * ni];
+        double[] doubles = new double[16 * nd];
+        int count = 0;
+        long hash = 0;
+        for (int i = 0; i < l.newSize; i++) {
+            after.get(i, ai, ad);
+            hash = hash(hash, ai, ad);
+            if (i >= l.oldSize)
+                continue;
+            before.get(i, bi, bd);
+            if (equals(bi, ai, bd, ad))
+                continue;
+            if (count == changed.length) {
+                changed = Arrays.copyOf(changed, 2 * count);
+                ints = Arrays.copyOf(ints, 2 * count * ni);
+                doubles = Arrays.copyOf(doubles, 2 * count * nd);
+            }
+            changed[count] = i;
+            System.arraycopy(bi, 0, ints, count * ni, ni);
+            System.arraycopy(bd, 0, doubles, count * nd, nd);
+            ++count;
+        }
+        l.hash = hash;
+        l.changed = Arrays.copyOf(changed, count);
+        int removed = Math.max(l.oldSize - l.newSize, 0);
+        l.ints = Arrays.copyOf(ints, (count + removed) * ni);
+        l.doubles = Arrays.copyOf(doubles, (count + removed) * nd);
+        for (int i = 0; i < removed; i++) {
+            before.get(l.newSize + i, bi, bd);
+            System.arraycopy(bi, 0, l.ints, (count + i) * ni, ni);
+            System.arraycopy(bd, 0, l.doubles, (count + i) * nd, nd);
+        }
+        return l;
+    }
+
+    /**
+     * Compares two records. Doubles are compared bit for bit, so that the
+     * older values are restored exactly.
+     */
+    private static boolean equals(int[] i1, int[] i2, double[] d1, double[] d2) {
+        for (int i = 0; i < i1.length; i++)
+            if (i1[i] != i2[i])
+                return false;
+        for (int i = 0; i < d1.length; i++)
+            if (Double.doubleToRawLongBits(d1[i]) != Double.doubleToRawLongBits(d2[i]))
+                return false;
+        return true;
+    }
+
+    private static long hash(long hash, int[] ints, double[] doubles) {
+        for (int i = 0; i < ints.length; i++)
+            hash = 31 * hash + ints[i];
+        for (int i = 0; i < doubles.length; i++)
+            hash = 31 * hash + Double.doubleToRawLongBits(doubles[i]);
+        return hash;
+    }
+
+    /**
+     * Returns the size of an element list in the older version
+     */
+    public int getSize(int list) {
+        return sizes[list];
+    }
+
+    /**
+     * Checks that element lists are the newer version the differences were
+     * computed against.
+     *
+     * @exception IOException if compressed differences cannot be expanded
+     */
+    synchronized boolean matches(Records[] after) throws IOException {
+        expand();
+        if (after.length != lists.length)
+            return false;
+        for (int i = 0; i < lists.length; i++) {
+            RecordList l = lists[i];
+            Records r = after[i];
+            if (r.size != l.newSize || r.intCount != l.intCount || r.doubleCount != l.doubleCount)
+                return false;
+            int[] ints = new int[l.intCount];
+            double[] doubles = new double[l.doubleCount];
+            long hash = 0;
+            for (int j = 0; j < r.size; j++) {
+                r.get(j, ints, doubles);
+                hash = hash(hash, ints, doubles);
+            }
+            if (hash != l.hash)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Rebuilds the older version of an element list. Each record is handed to
+     * the sink, in order.
+     *
+     * @param list  Index of the list
+     * @param after The newer version of the list (see matches())
+     * @param sink  Receives the older records
+     * @exception IOException if compressed differences cannot be expanded
+     */
+    synchronized void restore(int list, Records after, RecordSink sink) throws IOException {
+        expand();
+        RecordList l = lists[list];
+        int ni = l.intCount;
+        int nd = l.doubleCount;
+        int[] ints = new int[ni];
+        double[] doubles = new double[nd];
+        int next = 0;
+        for (int i = 0; i < l.oldSize; i++) {
+            int k;
+            if (next < l.changed.length && l.changed[next] == i)
+                k = next++;
+            else if (i >= l.newSize)
+                k = l.changed.length + i - l.newSize;
+            else {
+                after.get(i, ints, doubles);
+                sink.set(i, ints, doubles);
+                continue;
+            }
+            System.arraycopy(l.ints, k * ni, ints, 0, ni);
+            System.arraycopy(l.doubles, k * nd, doubles, 0, nd);
+            sink.set(i, ints, doubles);
+        }
+    }
+
+    /**
+     * Compresses the differences. They are expanded again when they are next
+     * checked or applied.
+     */
+    public synchronized void compress() {
+        if (lists == null)
+            return;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes, deflater));
+            writeLists(out);
+            out.close();
+        } catch (IOException ex) {
+            return;
+        } finally {
+            deflater.end();
+        }
+        packed = bytes.toByteArray();
+        lists = null;
+    }
+
+    /**
+     * Expands compressed differences. If they cannot be read, they stay
+     * compressed.
+     */
+    private void expand() throws IOException {
+        if (packed == null)
+            return;
+        DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(packed)));
+        try {
+            lists = readLists(in, sizes.length);
+        } finally {
+            in.close();
+        }
+        packed = null;
+    }
+
+    public synchronized boolean isCompressed() {
+        return packed != null;
+    }
+
+    /**
+     * Returns an estimate of the memory used by the differences, in bytes
+     */
+    public synchronized long getMemorySize() {
+        if (packed != null)
+            return packed.length;
+        long bytes = 0;
+        for (int i = 0; i < lists.length; i++)
+            bytes += 4L * (lists[i].changed.length + lists[i].ints.length) + 8L * lists[i].doubles.length;
+        return bytes;
+    }
+
+    private void writeLists(DataOutputStream out) throws IOException {
+        for (int i = 0; i < lists.length; i++) {
+            RecordList l = lists[i];
+            out.writeInt(l.intCount);
+            out.writeInt(l.doubleCount);
+            out.writeInt(l.oldSize);
+            out.writeInt(l.newSize);
+            out.writeLong(l.hash);
+            out.writeInt(l.changed.length);
+            for (int j = 0; j < l.changed.length; j++)
+                out.writeInt(l.changed[j]);
+            for (int j = 0; j < l.ints.length; j++)
+                out.writeInt(l.ints[j]);
+            for (int j = 0; j < l.doubles.length; j++)
+                out.writeDouble(l.doubles[j]);
+        }
+    }
+}
@@ -30,6 +30,7 @@ import artofillusion.ui.Translate;
 public class MeshStandardTool extends AdvancedEditingTool
 {
     private Vec3 baseVertPos[];
+    private int movedVert[];
     private UndoRecord undo;
     private static Image icon, selectedIcon;
     /** hash maps are used to store manipulators for views */
@@ -125,13 +126,15 @@ public class MeshStandardTool extends AdvancedEditingTool
         if (undo == null)
             undo = new UndoRecord(theWindow, false, UndoRecord.COPY_VERTEX_POSITIONS, new Object [] {mesh, mesh.getVertexPositions()});
         baseVertPos = mesh.getVertexPositions();
+        movedVert = findMovedVertices(controller.getSelectionDistance());
     }
 
     private void doAbortChangingMesh()
     {
         Mesh mesh = (Mesh) controller.getObject().object;
-        mesh.setVertexPositions(baseVertPos);
+        setVertexPositions(mesh, baseVertPos, movedVert);
         baseVertPos = null;
+        movedVert = null;
         theWindow.setHelpText(Translate.text("polymesh:meshStandardTool.helpText"));
         controller.objectChanged();
         theWindow.updateImage();
@@ -141,7 +144,7 @@ public class MeshStandardTool extends AdvancedEditingTool
     {
         Mesh mesh = (Mesh) controller.getObject().object;
         Vec3[] v = findScaledPositions(baseVertPos, e.getScaleMatrix(), (MeshViewer) e.getView());
-        mesh.setVertexPositions(v);
+        setVertexPositions(mesh, v, movedVert);
         controller.objectChanged();
         theWindow.updateImage();
     }
@@ -153,7 +156,7 @@ public class MeshStandardTool extends AdvancedEditingTool
         v = findRotatedPositions(baseVertPos, e.getMatrix(), (MeshViewer)e.getView());
         if (v != null)
         {
-            mesh.setVertexPositions(v);
+            setVertexPositions(mesh, v, movedVert);
             controller.objectChanged();
             theWindow.updateImage();
         }
@@ -167,6 +170,7 @@ public class MeshStandardTool extends AdvancedEditingTool
             undo = null;
         }
         baseVertPos = null;
+        movedVert = null;
         theWindow.setHelpText(Translate.text("polymesh:meshStandardTool.helpText"));
         controller.objectChanged();
         theWindow.updateImage();
@@ -180,7 +184,7 @@ public class MeshStandardTool extends AdvancedEditingTool
 
         drag = e.getDrag();
         v = findDraggedPositions(drag, baseVertPos, mv, controller.getSelectionDistance());
-        mesh.setVertexPositions(v);
+        setVertexPositions(mesh, v, movedVert);
         controller.objectChanged();
         theWindow.updateImage();
     }
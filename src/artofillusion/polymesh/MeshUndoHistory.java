@@ -0,0 +1,230 @@
+/*
+ *  Copyright (C) 2026 by the Art of Illusion PolyMesh contributors
+ *  This program is free software; you can redistribute it and/or modify it under the
+ *  terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 2 of the License, or (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ *  PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package artofillusion.polymesh;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * The undo history of a mesh editor. A command which changed the mesh is kept
+ * as the differences between the mesh before and after it (see MeshDelta),
+ * so the history takes memory in proportion to what the commands changed.
+ * Other commands, such as the undo records of the editing tools, are kept as
+ * they are.
+ *
+ * Differences can only be applied to the mesh they were computed against,
+ * while the mesh may have been changed in between by an edit which recorded
+ * no undo. The history thus keeps a copy of the mesh as the last command
+ * added, undone or redone left it. The copy shares the mesh arrays until the
+ * mesh is modified (see PolyMesh.duplicate()), so it costs nothing as long as
+ * every edit is recorded. When the mesh no longer matches the differences of
+ * the last mesh command, the command keeps that copy and applies its
+ * differences to it instead of the mesh.
+ *
+ * The commands are kept on a PMUndoRedoStack: the oldest ones are dropped as
+ * a whole when there are more of them than the undo levels, or when they take
+ * more memory than the budget, and the differences of the commands which are
+ * not the next to undo or redo are compressed. Each editor has its own
+ * history, with its own budget.
+ *
+ * Compressed differences are expanded when they are used. Should that fail,
+ * the methods of the history throw an IOException and leave the mesh and the
+ * history as they were.
+ */
+public class MeshUndoHistory {
+
+    /**
+     * Estimated memory of a Wvertex with its position, of a Wedge and of a
+     * Wface, in bytes
+     */
+    static final int VERTEX_BYTES = 88, EDGE_BYTES = 40, FACE_BYTES = 24;
+
+    private final PMUndoRedoStack stack;
+    private PolyMesh mesh; //the mesh being edited, see undo() and redo()
+    private PolyMesh lastState; //the mesh as the last command added, undone or redone left it
+    private MeshCommand lastCommand; //that command, if it changed the mesh
+
+    /**
+     * @param levels       Number of undo levels
+     * @param memoryBudget Memory the commands may take, in bytes
+     */
+    public MeshUndoHistory(int levels, long memoryBudget) {
+        stack = new PMUndoRedoStack(levels);
+        stack.setMemoryBudget(memoryBudget);
+    }
+
+    /**
+     * Adds a command which changed a mesh
+     *
+     * @param mesh   The mesh, as changed by the command
+     * @param before A copy of the mesh made before the command
+     * @return The command added to the history
+     * @exception IOException if the differences of the last command cannot
+     *                        be expanded
+     */
+    public Command addMeshCommand(PolyMesh mesh, PolyMesh before) throws IOException {
+        settle(before);
+        MeshCommand cmd = new MeshCommand(mesh, before);
+        stack.addCommand(cmd);
+        lastCommand = cmd;
+        lastState = (PolyMesh) mesh.duplicate();
+        return cmd;
+    }
+
+    /**
+     * Adds a command which has already been executed
+     *
+     * @param mesh The mesh, as left by the command
+     * @param cmd  The command
+     * @exception IOException if the differences of the last command cannot
+     *                        be expanded
+     */
+    public void addCommand(PolyMesh mesh, Command cmd) throws IOException {
+        settle(mesh);
+        stack.addCommand(cmd);
+        lastCommand = null;
+        lastState = (PolyMesh) mesh.duplicate();
+    }
+
+    /**
+     * Tells if a command is the last one added or redone
+     */
+    public boolean isLastCommand(Command cmd) {
+        return stack.getUndoCommand() == cmd && !stack.canRedo();
+    }
+
+    public boolean canUndo() {
+        return stack.canUndo();
+    }
+
+    public boolean canRedo() {
+        return stack.canRedo();
+    }
+
+    /**
+     * Undoes the last command. The mesh may be another object than the one
+     * the command changed, when the editor has replaced it.
+     *
+     * @param mesh The mesh being edited
+     * @exception IOException if the differences of a command cannot be
+     *                        expanded
+     */
+    public void undo(PolyMesh mesh) throws IOException {
+        if (stack.canUndo())
+            run(mesh, false);
+    }
+
+    /**
+     * Redoes the last undone command, see undo()
+     *
+     * @param mesh The mesh being edited
+     * @exception IOException if the differences of a command cannot be
+     *                        expanded
+     */
+    public void redo(PolyMesh mesh) throws IOException {
+        if (stack.canRedo())
+            run(mesh, true);
+    }
+
+    private void run(PolyMesh mesh, boolean redo) throws IOException {
+        settle(mesh);
+        this.mesh = mesh;
+        MeshCommand last = lastCommand;
+        lastCommand = null;
+        try {
+            if (redo)
+                stack.redo();
+            else
+                stack.undo();
+        } catch (UncheckedIOException ex) {
+            lastCommand = last;
+            throw ex.getCause();
+        }
+        lastState = (PolyMesh) mesh.duplicate();
+    }
+
+    /**
+     * Called before the history changes. If the mesh no longer is as the last
+     * mesh command left it, that command keeps the copy of the mesh it left.
+     *
+     * @param mesh The mesh before the change
+     */
+    private void settle(PolyMesh mesh) throws IOException {
+        if (lastCommand != null && lastCommand.base == null && !mesh.matches(lastCommand.delta))
+            lastCommand.base = lastState;
+    }
+
+    /**
+     * A command which changed a mesh. Undoing or redoing it swaps the mesh
+     * being edited with the version its differences rebuild, and keeps the
+     * differences with the version it leaves.
+     */
+    private class MeshCommand implements Command {
+        private MeshDelta delta; //rebuilds the version of the mesh the next undo or redo goes back to
+        private PolyMesh settings; //settings of that version, see PolyMesh.getSettingsCopy()
+        private PolyMesh base; //the mesh the differences were computed against, when the mesh has changed since
+
+        MeshCommand(PolyMesh mesh, PolyMesh before) {
+            delta = PolyMesh.getDelta(before, mesh);
+            settings = before.getSettingsCopy();
+        }
+
+        @Override
+        public void execute() {
+            redo();
+        }
+
+        @Override
+        public void undo() {
+            swap();
+        }
+
+        @Override
+        public void redo() {
+            swap();
+        }
+
+        /**
+         * @exception UncheckedIOException if the differences cannot be
+         *                                 expanded. Nothing is changed then.
+         */
+        private void swap() {
+            try {
+                PolyMesh from = mesh;
+                if (!mesh.matches(delta))
+                    from = (base != null ? base : lastState);
+                PolyMesh current = (PolyMesh) mesh.duplicate();
+                mesh.restore(delta, from, settings);
+                delta = PolyMesh.getDelta(current, mesh);
+                settings = current.getSettingsCopy();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            base = null;
+            lastCommand = this;
+        }
+
+        @Override
+        public void compress() {
+            delta.compress();
+        }
+
+        @Override
+        public long getMemorySize() {
+            long size = delta.getMemorySize();
+            if (base != null)
+                size += (long) base.getSharedVertices().length * VERTEX_BYTES
+                        + (long) base.getSharedEdges().length * EDGE_BYTES
+                        + (long) base.getSharedFaces().length * FACE_BYTES;
+            return size;
+        }
+    }
+}
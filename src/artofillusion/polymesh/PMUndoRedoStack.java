@@ -10,21 +10,42 @@
 
 package artofillusion.polymesh;
 
+import java.util.ArrayList;
+
+import artofillusion.math.Vec2;
+
 /**
- * This class implements a stack of fixed size accepting Commands which will be
- * executed for undo/redo operations
+ * This class implements a stack of Commands which will be executed for
+ * undo/redo operations. The stack is limited both in number of commands and
+ * in memory: the oldest commands are dropped when there are more undo levels
+ * than the stack size, or when the commands take more memory than the budget
+ * (see Command.getMemorySize()). The last command is kept whatever its size.
+ * Only the next commands to undo and to redo are kept as they are, the other
+ * ones are compressed (see Command.compress()).
  * 
  * @author Francois Guillet
  * 
  */
 public class PMUndoRedoStack {
     
-    private Command[] commands;
-    private int pointer;
+    /**
+     * Default memory budget of a stack, in bytes
+     */
+    public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+    /**
+     * Estimated memory of a Vec2 and its reference, in bytes
+     */
+    static final int VEC2_BYTES = 40;
+
+    private ArrayList<Command> commands; //undoable commands, then redoable ones
+    private int pointer; //number of undoable commands
+    private int size;
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
     
     public PMUndoRedoStack(int size) {
-	commands = new Command[size+1];
-	pointer = 0;
+	commands = new ArrayList<Command>();
+	this.size = size;
     }
     
     /**
@@ -32,22 +53,29 @@ public class PMUndoRedoStack {
      * @param cmd The command to add
      */
     public void addCommand(Command cmd) {
-	if (commands[pointer] != null) {
-	    pointer = (pointer + 1) % commands.length;
-	}
-	if (commands[(pointer + 1) % commands.length] != null) {
-	    //stack is full, clearing bottom command
-	    commands[(pointer + 1) % commands.length] = null;
-	}
-	commands[pointer] = cmd;
 	clearRedoStack();
+	commands.add(cmd);
+	++pointer;
+	compress(pointer - 2);
+	trim();
     }
     
     private void clearRedoStack() {
-	int index = (pointer + 1) % commands.length;
-	while (commands[index] != null) {
-	    commands[index] = null;
-	    index = (pointer + 1) % commands.length;
+	while (commands.size() > pointer)
+	    commands.remove(commands.size() - 1);
+    }
+
+    /**
+     * Drops the oldest commands while there are more undo levels than the
+     * stack size, or while the commands take more memory than the budget
+     */
+    private void trim() {
+	long memory = 0;
+	for (int i = 0; i < commands.size(); i++)
+	    memory += commands.get(i).getMemorySize();
+	while (pointer > size || (pointer > 1 && memory > memoryBudget)) {
+	    memory -= commands.remove(0).getMemorySize();
+	    --pointer;
 	}
     }
 
@@ -56,7 +84,7 @@ public class PMUndoRedoStack {
      * @return
      */
     public boolean canUndo() {
-	return (commands[pointer] != null);
+	return (pointer > 0);
     }
     
     /**
@@ -64,34 +92,77 @@ public class PMUndoRedoStack {
      * @return
      */
     public boolean canRedo() {
-	return (commands[(pointer + 1) % commands.length] != null);
+	return (pointer < commands.size());
     }
     
+    /**
+     * Returns the command the next undo operation would undo, null if there is
+     * none
+     */
+    public Command getUndoCommand() {
+	return (pointer > 0 ? commands.get(pointer - 1) : null);
+    }
+
+    /**
+     * Undoes the last command. If the command throws an exception, it stays
+     * the next command to undo.
+     */
     public void undo() {
-	if (commands[pointer] == null) {
+	if (pointer == 0) {
 	    return;
 	}
-	commands[pointer].undo();
+	commands.get(pointer - 1).undo();
 	--pointer;
-	if (pointer < 0) {
-	    pointer += commands.length;
-	}
+	compress(pointer + 1);
     }
     
     public void redo() {
-	if (commands[(pointer + 1) % commands.length] == null) {
+	if (pointer == commands.size()) {
 	    return;
 	}
-	pointer = (pointer + 1) % commands.length;
-	commands[pointer].redo();
+	commands.get(pointer).redo();
+	++pointer;
+	compress(pointer - 2);
+    }
+
+    private void compress(int index) {
+	if (index >= 0 && index < commands.size())
+	    commands.get(index).compress();
     }
     
     /**
-     * Sets the size of the undo and redo stacks
+     * Sets the size of the undo and redo stacks. The oldest commands are
+     * dropped if there are more undo levels than the new size.
      * @param newSize The new size for undo/redo stacks
      */
     public void setSize(int newSize) {
-	commands = new Command[newSize+1];
-	pointer = 0;
+	size = newSize;
+	trim();
+    }
+
+    /**
+     * Sets the memory the commands may take
+     * @param bytes The memory budget, in bytes
+     */
+    public void setMemoryBudget(long bytes) {
+	memoryBudget = bytes;
+	trim();
+    }
+
+    public long getMemoryBudget() {
+	return memoryBudget;
+    }
+
+    /**
+     * Estimates the memory taken by arrays of positions, for
+     * Command.getMemorySize()
+     */
+    static long getMemorySize(Vec2[][] pos) {
+	if (pos == null)
+	    return 0;
+	long count = 0;
+	for (int i = 0; i < pos.length; i++)
+	    count += pos[i].length;
+	return count * VEC2_BYTES;
     }
 }
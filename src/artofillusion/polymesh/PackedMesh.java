@@ -0,0 +1,355 @@
+/*
+ *  Copyright (C) 2026 by the Art of Illusion PolyMesh contributors
+ *  This program is free software; you can redistribute it and/or modify it under the
+ *  terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 2 of the License, or (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ *  PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package artofillusion.polymesh;
+
+import artofillusion.math.Vec3;
+import artofillusion.polymesh.PolyMesh.Wedge;
+import artofillusion.polymesh.PolyMesh.Wface;
+import artofillusion.polymesh.PolyMesh.Wvertex;
+
+/**
+ * Structure of arrays copy of a winged edge mesh. Vertex positions are packed
+ * into a single double array and the vertex, edge and face records into int
+ * arrays, so that traversals over large meshes read contiguous primitive
+ * memory instead of chasing one object per element.
+ *
+ * This is a read only view kept next to the mesh objects, which remain the
+ * mesh storage: it adds to the memory used by the mesh rather than saving any.
+ *
+ * Edge and face numbering is the same as in the PolyMesh the data was packed from.
+ */
+public class PackedMesh {
+
+    /**
+     * Vertex positions, x y z for each vertex
+     */
+    public final double[] coords;
+
+    /**
+     * Half edge starting at each vertex
+     */
+    public final int[] vertexEdge;
+
+    /**
+     * Vertex type (see Wvertex)
+     */
+    public final short[] vertexType;
+
+    /**
+     * Vertex each half edge points to
+     */
+    public final int[] edgeVertex;
+
+    /**
+     * Other half of each half edge
+     */
+    public final int[] edgeHedge;
+
+    /**
+     * Face bordered by each half edge, -1 for a boundary
+     */
+    public final int[] edgeFace;
+
+    /**
+     * Next half edge around the face
+     */
+    public final int[] edgeNext;
+
+    /**
+     * Edge smoothness
+     */
+    public final float[] edgeSmoothness;
+
+    /**
+     * A half edge bordering each face
+     */
+    public final int[] faceEdge;
+
+    private Wvertex[] packedVertices;
+    private Wedge[] packedEdges;
+    private Wface[] packedFaces;
+
+    // compressed sparse row adjacency, built on first use
+
+    private int[] faceVertexStart;
+    private int[] faceVertexList;
+    private int[] vertexEdgeStart;
+    private int[] vertexEdgeList;
+
+    /**
+     * Packs the vertices, edges and faces of a mesh
+     *
+     * @param v Mesh vertices
+     * @param e Mesh edges
+     * @param f Mesh faces
+     */
+    public PackedMesh(Wvertex[] v, Wedge[] e, Wface[] f) {
+        coords = new double[v.length * 3];
+        vertexEdge = new int[v.length];
+        vertexType = new short[v.length];
+        edgeVertex = new int[e.length];
+        edgeHedge = new int[e.length];
+        edgeFace = new int[e.length];
+        edgeNext = new int[e.length];
+        edgeSmoothness = new float[e.length];
+        faceEdge = new int[f.length];
+        for (int i = 0; i < v.length; i++) {
+            vertexEdge[i] = v[i].edge;
+            vertexType[i] = v[i].type;
+        }
+        for (int i = 0; i < e.length; i++) {
+            edgeVertex[i] = e[i].vertex;
+            edgeHedge[i] = e[i].hedge;
+            edgeFace[i] = e[i].face;
+            edgeNext[i] = e[i].next;
+            edgeSmoothness[i] = e[i].smoothness;
+        }
+        for (int i = 0; i < f.length; i++)
+            faceEdge[i] = f[i].edge;
+        setPositions(v);
+        packedVertices = v;
+        packedEdges = e;
+        packedFaces = f;
+    }
+
+    /**
+     * Tells if this packed data was made from the given arrays. A mesh which
+     * replaced any of its arrays must be packed again.
+     */
+    public boolean isPackedFrom(Wvertex[] v, Wedge[] e, Wface[] f) {
+        return v == packedVertices && e == packedEdges && f == packedFaces;
+    }
+
+    /**
+     * Copies the vertex positions into the coordinates array
+     *
+     * @param v Mesh vertices, in the same order as when packed
+     */
+    public void setPositions(Wvertex[] v) {
+        for (int i = 0, j = 0; i < v.length; i++, j += 3) {
+            Vec3 r = v[i].r;
+            coords[j] = r.x;
+            coords[j + 1] = r.y;
+            coords[j + 2] = r.z;
+        }
+    }
+
+    /**
+     * Refreshes the positions of some vertices
+     *
+     * @param v       Mesh vertices, in the same order as when packed
+     * @param indices Indices of the vertices to refresh
+     * @param count   Number of indices
+     */
+    public void setPositions(Wvertex[] v, int[] indices, int count) {
+        for (int i = 0; i < count; i++) {
+            int j = 3 * indices[i];
+            Vec3 r = v[indices[i]].r;
+            coords[j] = r.x;
+            coords[j + 1] = r.y;
+            coords[j + 2] = r.z;
+        }
+    }
+
+    public int getVertexCount() {
+        return vertexEdge.length;
+    }
+
+    public int getEdgeCount() {
+        return edgeVertex.length;
+    }
+
+    public int getFaceCount() {
+        return faceEdge.length;
+    }
+
+    /**
+     * Returns the number of vertices around a face, -1 if the face is not closed
+     */
+    public int getFaceVertexCount(int f) {
+        int e = faceEdge[f];
+        int start = edgeVertex[e];
+        int count = 1;
+        while (edgeVertex[edgeNext[e]] != start) {
+            if (++count > edgeNext.length)
+                return -1;
+            e = edgeNext[e];
+        }
+        return count;
+    }
+
+    /**
+     * Finds the vertices around a face, in the same order as PolyMesh.getFaceVertices()
+     *
+     * @param f Face index
+     * @return  Array of vertex indices, null if the face is not closed
+     */
+    public int[] getFaceVertices(int f) {
+        int count = getFaceVertexCount(f);
+        if (count < 0)
+            return null;
+        int[] fv = new int[count];
+        int e = faceEdge[f];
+        for (int i = 0; i < count; i++) {
+            fv[i] = edgeVertex[e];
+            e = edgeNext[e];
+        }
+        return fv;
+    }
+
+    /**
+     * Finds the edges leaving a vertex, in the same order as PolyMesh.getVertexEdges()
+     *
+     * @param v Vertex index
+     * @return  Array of half edge indices, null if the ring is broken
+     */
+    public int[] getVertexEdges(int v) {
+        int start = vertexEdge[v];
+        int e = start;
+        int count = 0;
+        do {
+            if (++count > edgeNext.length)
+                return null;
+            e = edgeNext[edgeHedge[e]];
+        } while (e != start);
+        int[] ve = new int[count];
+        e = start;
+        for (int i = 0; i < count; i++) {
+            ve[i] = e;
+            e = edgeNext[edgeHedge[e]];
+        }
+        return ve;
+    }
+
+    /**
+     * Returns the offsets of each face in the face vertices table
+     * (see getFaceVertexList()). The vertices of face f are stored from
+     * index start[f] included to start[f + 1] excluded.
+     */
+    public synchronized int[] getFaceVertexStart() {
+        if (faceVertexStart == null)
+            buildFaceVertices();
+        return faceVertexStart;
+    }
+
+    /**
+     * Returns the vertices of all faces, face after face, in the same order
+     * as getFaceVertices(). A face which is not closed has no vertex.
+     */
+    public synchronized int[] getFaceVertexList() {
+        if (faceVertexStart == null)
+            buildFaceVertices();
+        return faceVertexList;
+    }
+
+    /**
+     * Returns the offsets of each vertex in the vertex edges table
+     * (see getVertexEdgeList()). The edges leaving vertex v are stored from
+     * index start[v] included to start[v + 1] excluded.
+     */
+    public synchronized int[] getVertexEdgeStart() {
+        if (vertexEdgeStart == null)
+            buildVertexEdges();
+        return vertexEdgeStart;
+    }
+
+    /**
+     * Returns the edges leaving all vertices, vertex after vertex, in the
+     * same order as getVertexEdges(). A vertex with a broken ring has no edge.
+     */
+    public synchronized int[] getVertexEdgeList() {
+        if (vertexEdgeStart == null)
+            buildVertexEdges();
+        return vertexEdgeList;
+    }
+
+    private void buildFaceVertices() {
+        int[] start = new int[faceEdge.length + 1];
+        for (int i = 0; i < faceEdge.length; i++)
+            start[i + 1] = start[i] + Math.max(getFaceVertexCount(i), 0);
+        int[] list = new int[start[faceEdge.length]];
+        for (int i = 0; i < faceEdge.length; i++) {
+            int e = faceEdge[i];
+            for (int j = start[i]; j < start[i + 1]; j++) {
+                list[j] = edgeVertex[e];
+                e = edgeNext[e];
+            }
+        }
+        faceVertexList = list;
+        faceVertexStart = start;
+    }
+
+    private void buildVertexEdges() {
+        int[] start = new int[vertexEdge.length + 1];
+        for (int i = 0; i < vertexEdge.length; i++) {
+            int count = 0;
+            int e = vertexEdge[i];
+            do {
+                if (++count > edgeNext.length) {
+                    count = 0;
+                    break;
+                }
+                e = edgeNext[edgeHedge[e]];
+            } while (e != vertexEdge[i]);
+            start[i + 1] = start[i] + count;
+        }
+        int[] list = new int[start[vertexEdge.length]];
+        for (int i = 0; i < vertexEdge.length; i++) {
+            int e = vertexEdge[i];
+            for (int j = start[i]; j < start[i + 1]; j++) {
+                list[j] = e;
+                e = edgeNext[edgeHedge[e]];
+            }
+        }
+        vertexEdgeList = list;
+        vertexEdgeStart = start;
+    }
+
+    /**
+     * Builds winged edge vertices from the packed data
+     *
+     * @param mesh The mesh the vertices will belong to
+     */
+    public Wvertex[] toVertices(PolyMesh mesh) {
+        Wvertex[] v = new Wvertex[vertexEdge.length];
+        for (int i = 0, j = 0; i < v.length; i++, j += 3) {
+            v[i] = mesh.new Wvertex(new Vec3(coords[j], coords[j + 1], coords[j + 2]), vertexEdge[i]);
+            v[i].type = vertexType[i];
+        }
+        return v;
+    }
+
+    /**
+     * Builds winged edge half edges from the packed data
+     *
+     * @param mesh The mesh the edges will belong to
+     */
+    public Wedge[] toEdges(PolyMesh mesh) {
+        Wedge[] e = new Wedge[edgeVertex.length];
+        for (int i = 0; i < e.length; i++) {
+            e[i] = mesh.new Wedge(edgeVertex[i], edgeHedge[i], edgeFace[i], edgeNext[i]);
+            e[i].smoothness = edgeSmoothness[i];
+        }
+        return e;
+    }
+
+    /**
+     * Builds winged edge faces from the packed data
+     *
+     * @param mesh The mesh the faces will belong to
+     */
+    public Wface[] toFaces(PolyMesh mesh) {
+        Wface[] f = new Wface[faceEdge.length];
+        for (int i = 0; i < f.length; i++)
+            f[i] = mesh.new Wface(faceEdge[i]);
+        return f;
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ *  Copyright (C) 2026 by the Art of Illusion PolyMesh contributors
+ *  This program is free software; you can redistribute it and/or modify it under the
+ *  terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 2 of the License, or (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ *  PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package artofillusion.polymesh;
+
+import artofillusion.math.Vec3;
+import artofillusion.polymesh.QuadMesh.QuadEdge;
+import artofillusion.polymesh.QuadMesh.QuadFace;
+import artofillusion.polymesh.QuadMesh.QuadVertex;
+
+/**
+ * Structure of arrays copy of a quad mesh. Vertex positions are packed into a
+ * single double array and the edge and face records into int arrays, which
+ * takes a fraction of the memory of one object per element and lets large
+ * subdivided meshes be traversed through contiguous primitive memory.
+ *
+ * The edges around each vertex are stored in a compressed sparse row table,
+ * in the order of QuadMesh.getVertexOrderedEdges(), built on first use.
+ *
+ * Vertex, edge and face numbering is the same as in the QuadMesh the data was
+ * packed from. Subdivision marks and skeleton bindings are not kept.
+ */
+public class PackedQuadMesh {
+
+    /**
+     * Vertex positions, x y z for each vertex
+     */
+    public final double[] coords;
+
+    /**
+     * Vertex type (see QuadVertex)
+     */
+    public final short[] vertexType;
+
+    /**
+     * First edge of each vertex
+     */
+    public final int[] vertexEdge;
+
+    /**
+     * Vertices of each edge, v1 v2 for each edge
+     */
+    public final int[] edgeVertices;
+
+    /**
+     * Faces of each edge, f1 f2 for each edge. f2 is -1 for a boundary edge.
+     */
+    public final int[] edgeFaces;
+
+    /**
+     * Edge smoothness
+     */
+    public final float[] edgeSmoothness;
+
+    /**
+     * Vertices of each face, v1 v2 v3 v4 for each face
+     */
+    public final int[] faceVertices;
+
+    /**
+     * Edges of each face, e1 e2 e3 e4 for each face
+     */
+    public final int[] faceEdges;
+
+    private int[] ringStart;
+    private int[] ringEdges;
+
+    /**
+     * Packs the vertices, edges and faces of a quad mesh
+     *
+     * @param v Mesh vertices
+     * @param e Mesh edges
+     * @param f Mesh faces
+     */
+    public PackedQuadMesh(QuadVertex[] v, QuadEdge[] e, QuadFace[] f) {
+        coords = new double[v.length * 3];
+        vertexType = new short[v.length];
+        vertexEdge = new int[v.length];
+        edgeVertices = new int[e.length * 2];
+        edgeFaces = new int[e.length * 2];
+        edgeSmoothness = new float[e.length];
+        faceVertices = new int[f.length * 4];
+        faceEdges = new int[f.length * 4];
+        for (int i = 0, j = 0; i < v.length; i++, j += 3) {
+            Vec3 r = v[i].r;
+            coords[j] = r.x;
+            coords[j + 1] = r.y;
+            coords[j + 2] = r.z;
+            vertexType[i] = v[i].type;
+            vertexEdge[i] = v[i].firstEdge;
+        }
+        for (int i = 0; i < e.length; i++) {
+            edgeVertices[2 * i] = e[i].v1;
+            edgeVertices[2 * i + 1] = e[i].v2;
+            edgeFaces[2 * i] = e[i].f1;
+            edgeFaces[2 * i + 1] = e[i].f2;
+            edgeSmoothness[i] = e[i].smoothness;
+        }
+        for (int i = 0; i < f.length; i++) {
+            QuadFace face = f[i];
+            faceVertices[4 * i] = face.v1;
+            faceVertices[4 * i + 1] = face.v2;
+            faceVertices[4 * i + 2] = face.v3;
+            faceVertices[4 * i + 3] = face.v4;
+            faceEdges[4 * i] = face.e1;
+            faceEdges[4 * i + 1] = face.e2;
+            faceEdges[4 * i + 2] = face.e3;
+            faceEdges[4 * i + 3] = face.e4;
+        }
+    }
+
+    private PackedQuadMesh(PackedQuadMesh mesh) {
+        coords = mesh.coords.clone();
+        vertexType = mesh.vertexType;
+        vertexEdge = mesh.vertexEdge;
+        edgeVertices = mesh.edgeVertices;
+        edgeFaces = mesh.edgeFaces;
+        edgeSmoothness = mesh.edgeSmoothness;
+        faceVertices = mesh.faceVertices;
+        faceEdges = mesh.faceEdges;
+        synchronized (mesh) {
+            ringStart = mesh.ringStart;
+            ringEdges = mesh.ringEdges;
+        }
+    }
+
+    /**
+     * Returns a copy of this mesh. The topology arrays are shared, since they
+     * are never modified, and the positions are copied.
+     */
+    public PackedQuadMesh duplicate() {
+        return new PackedQuadMesh(this);
+    }
+
+    public int getVertexCount() {
+        return vertexType.length;
+    }
+
+    public int getEdgeCount() {
+        return edgeSmoothness.length;
+    }
+
+    public int getFaceCount() {
+        return faceVertices.length / 4;
+    }
+
+    /**
+     * Returns the offsets of each vertex in the vertex edges table (see
+     * getRingEdges()). The edges around vertex v are stored from index
+     * start[v] included to start[v + 1] excluded.
+     */
+    public synchronized int[] getRingStart() {
+        if (ringStart == null)
+            buildRings();
+        return ringStart;
+    }
+
+    /**
+     * Returns the edges around all vertices, vertex after vertex, ordered as
+     * in QuadMesh.getVertexOrderedEdges()
+     */
+    public synchronized int[] getRingEdges() {
+        if (ringStart == null)
+            buildRings();
+        return ringEdges;
+    }
+
+    /**
+     * Builds quad mesh faces from the packed data. All faces are marked final.
+     */
+    public QuadFace[] toFaces() {
+        QuadFace[] f = new QuadFace[getFaceCount()];
+        for (int i = 0; i < f.length; i++) {
+            f[i] = new QuadFace(faceVertices[4 * i], faceVertices[4 * i + 1], faceVertices[4 * i + 2],
+                    faceVertices[4 * i + 3], faceEdges[4 * i], faceEdges[4 * i + 1], faceEdges[4 * i + 2],
+                    faceEdges[4 * i + 3]);
+            f[i].mark = QuadFace.FINAL;
+        }
+        return f;
+    }
+
+    /**
+     * Builds quad mesh edges from the packed data
+     */
+    public QuadEdge[] toEdges() {
+        QuadEdge[] e = new QuadEdge[getEdgeCount()];
+        for (int i = 0; i < e.length; i++) {
+            e[i] = new QuadEdge(edgeVertices[2 * i], edgeVertices[2 * i + 1], edgeFaces[2 * i], edgeFaces[2 * i + 1]);
+            e[i].smoothness = edgeSmoothness[i];
+        }
+        return e;
+    }
+
+    /**
+     * Builds quad mesh vertices from the packed data
+     */
+    public QuadVertex[] toVertices() {
+        QuadVertex[] v = new QuadVertex[getVertexCount()];
+        for (int i = 0, j = 0; i < v.length; i++, j += 3) {
+            v[i] = new QuadVertex(new Vec3(coords[j], coords[j + 1], coords[j + 2]));
+            v[i].firstEdge = vertexEdge[i];
+            v[i].type = vertexType[i];
+        }
+        return v;
+    }
+
+    private void buildRings() {
+        int count = getVertexCount();
+        int[] start = new int[count + 1];
+        for (int i = 0; i < count; i++)
+            start[i + 1] = start[i] + findRing(i, null, 0);
+        int[] list = new int[start[count]];
+        for (int i = 0; i < count; i++)
+            findRing(i, list, start[i]);
+        ringEdges = list;
+        ringStart = start;
+    }
+
+    /**
+     * Walks the edges around a vertex from its first edge, going round through
+     * the faces. For a boundary vertex, the edges on one side of the first edge
+     * are reversed, then the other side is walked.
+     *
+     * @param v      Vertex index
+     * @param list   Array where the edges are stored, or null to count them only
+     * @param offset Index where the first edge is stored
+     * @return       The number of edges around the vertex
+     */
+    private int findRing(int v, int[] list, int offset) {
+        int start = vertexEdge[v];
+        if (start < 0)
+            return 0;
+        int max = getEdgeCount() + 1;
+        int e = start;
+        int count = 0;
+        boolean closed = false;
+        if (list != null)
+            list[offset] = e;
+        ++count;
+        while (count <= max) {
+            int f = (edgeVertices[2 * e] == v ? edgeFaces[2 * e] : edgeFaces[2 * e + 1]);
+            if (f == -1)
+                break;
+            e = previousEdge(f, e);
+            if (e == start) {
+                closed = true;
+                break;
+            }
+            if (list != null)
+                list[offset + count] = e;
+            ++count;
+        }
+        if (closed)
+            return count;
+        if (list != null) {
+            for (int i = 0, j = count - 1; i < j; i++, j--) {
+                int tmp = list[offset + i];
+                list[offset + i] = list[offset + j];
+                list[offset + j] = tmp;
+            }
+        }
+        e = start;
+        while (count <= max) {
+            int f = (edgeVertices[2 * e] == v ? edgeFaces[2 * e + 1] : edgeFaces[2 * e]);
+            if (f == -1)
+                break;
+            e = nextEdge(f, e);
+            if (e == start)
+                break;
+            if (list != null)
+                list[offset + count] = e;
+            ++count;
+        }
+        return count;
+    }
+
+    private int previousEdge(int f, int e) {
+        int k = 4 * f;
+        if (faceEdges[k] == e)
+            return faceEdges[k + 3];
+        if (faceEdges[k + 1] == e)
+            return faceEdges[k];
+        if (faceEdges[k + 2] == e)
+            return faceEdges[k + 1];
+        return faceEdges[k + 2];
+    }
+
+    private int nextEdge(int f, int e) {
+        int k = 4 * f;
+        if (faceEdges[k] == e)
+            return faceEdges[k + 1];
+        if (faceEdges[k + 1] == e)
+            return faceEdges[k + 2];
+        if (faceEdges[k + 2] == e)
+            return faceEdges[k + 3];
+        return faceEdges[k];
+    }
+}
@@ -18,12 +18,16 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InvalidObjectException;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Vector;
+import java.util.concurrent.Future;
 import java.util.prefs.Preferences;
 
 import artofillusion.MeshViewer;
+import artofillusion.Camera;
 import artofillusion.ObjectViewer;
 import artofillusion.Property;
 import artofillusion.RenderingMesh;
@@ -39,7 +43,9 @@ import artofillusion.animation.MeshGesture;
 import artofillusion.animation.Skeleton;
 import artofillusion.math.BoundingBox;
 import artofillusion.math.CoordinateSystem;
+import artofillusion.math.Mat4;
 import artofillusion.math.RGBColor;
+import artofillusion.math.Vec2;
 import artofillusion.math.Vec3;
 import artofillusion.object.FacetedMesh;
 import artofillusion.object.Mesh;
@@ -79,34 +85,60 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 
     private BoundingBox bounds; //the bounds enclosing the mesh
     private int smoothingMethod;
-    private RenderingMesh cachedMesh;
+    private volatile RenderingMesh cachedMesh;
     private WireframeMesh cachedWire;
     private Vec3[] cachedNormals; //vertices normals
     private Vec3[] cachedEdgeNormals;
     private Vec3[] cachedFaceNormals;
+    private double[] normalPositions; //vertex positions the cached normals were computed for
+    private boolean normalsMoved; //vertices may have moved since, see updateNormals()
     private Wvertex[] vertices;
     private Wedge[] edges;
     private Wface[] faces;
+    private ArrayShare vertexShare; //set while the vertices array is shared with other meshes, see unshareVertices()
+    private ArrayShare edgeShare;
+    private ArrayShare faceShare;
+    private boolean verticesOut; //the vertices array has been handed out by getVertices(), see shareArrays()
+    private boolean edgesOut;
+    private boolean facesOut;
+    private PackedMesh packedMesh; //cached primitive arrays copy of the mesh, in addition to the arrays above, see getPackedMesh()
+    private final MovedVertices packedMoved = new MovedVertices(); //packedMesh coordinates out of date
+    private SubdivisionStencils stencils; //stencils of the interactive smoothed mesh
+    private QuadMesh stencilMesh; //interactive smoothed mesh the stencils were recorded for
+    private final MovedVertices stencilMoved = new MovedVertices(); //vertices moved since the stencils were updated
+    private boolean coarseMesh; //cachedMesh is shown while the interactive mesh is smoothed in background
+    private Future<?> smoothingTask; //background smoothing, see smoothInteractive()
+    private final Object smoothingLock = new Object();
+    private int smoothingVersion; //increased each time the mesh changes, guarded by smoothingLock
+    private QuadMesh readyMesh; //result of the background smoothing, guarded by smoothingLock
+    private SubdivisionStencils readyStencils;
+    private double readyTol;
+    private int readyLevel;
+    private static boolean backgroundSmoothing = true;
+    private static double viewEdgeLength; //projected edge length of view dependent smoothing, 0 when off
+    private volatile int renderLevelCap = -1; //level the last smoothing for rendering was capped at, -1 if it was not
+    private static final int VIEW_DEPENDENT_MAX_LEVEL = 5; //maximum smoothing level of view dependent smoothing
+    private Mat4 viewTransform; //object to screen transform the interactive mesh is smoothed for
+    private static final int BACKGROUND_SMOOTHING_FACES = 200000; //smoothed faces above which the mesh is smoothed in background
     private boolean closed;
     private Skeleton skeleton;
 
-    // lists used to store triangulation information persistent data, must de declared as fields
-
-    private List<Integer> v1;
-    private List<Integer> v2;
-    private List<Integer> v3;
-    private List<Vec3> vert;
-    private List<VertexParamInfo> vertInfo;
-    private List<Integer> faceInfo;
+    private volatile Triangulation triangulation; //triangles of the last convertToTriangleMesh() call
+    private volatile FaceTriangulation[] faceTriangulations; //triangulation of each face, kept while valid
     private short mirrorState; //live mirrors
-    private PolyMesh mirroredMesh;
+    private volatile PolyMesh mirroredMesh;
     private boolean controlledSmoothing;
     private double minAngle, maxAngle; //data for auto smoothness
     private float minSmoothness, maxSmoothness;
     private boolean[] seams; //true if an edge is a seam
-    private int[] polyedge; //see getPolyEdge()
+    private volatile int[] polyedge; //see getPolyEdge()
     private TriangleMesh triangleMesh; //the triangulated mesh
     private int interactiveSmoothLevel; //smoothnes levels applied before display (interactive) or triangular smoothing (rendering)
+    private int interactiveLevelLimit; //maximum interactive level while the editor is over its frame budget, 0 for none
+    private boolean limitSurface; //smoothed meshes are displayed and rendered on their limit surface
+    private boolean featureAdaptive; //the last smoothing level only refines around features
+    private int frameBudget; //frame time in milliseconds the editor lowers the smoothing level for while dragging, 0 for none
+    private long renderMemoryBudget; //memory of a smoothing for rendering, negative for half the heap
     private boolean[] subdivideFaces;
     private int[] projectedEdges; //original edges in the case of a smoothed mesh
     private QuadMesh subdividedMesh; //the subdivided mesh when smoothed
@@ -426,6 +458,10 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
         minSmoothness = 1.0f;
         maxSmoothness = 0.0f;
         interactiveSmoothLevel = 1;
+        limitSurface = false;
+        featureAdaptive = false;
+        frameBudget = 0;
+        renderMemoryBudget = -1;
         loadFromDisplayPropertiesPreferences();    
     }
     
@@ -1070,6 +1106,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
         for (int i = 0; i < f.length; i++)
             count += f[i].length;
         edges = new Wedge[count * 2];
+        EdgeIndex index = new EdgeIndex(count);
         count = 0;
         int next, ed, prevEdge, zeroEdge;
         for (int i = 0; i < f.length; i++) {
@@ -1078,7 +1115,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
                 next = j + 1;
                 if (next == f[i].length)
                     next = 0;
-                ed = getEdge(f[i][next], f[i][j]);
+                ed = index.get(f[i][next], f[i][j]);
                 if (ed != -1) {
                     edges[edges[ed].hedge].face = i;
                     if (prevEdge != -1)
@@ -1091,6 +1128,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
                             -1, -1);
                     if (prevEdge != -1)
                         edges[prevEdge].next = count;
+                    index.put(f[i][next], f[i][j], count);
                     prevEdge = count++;
                 }
                 if (vertices[f[i][j]] == null)
@@ -1102,17 +1140,28 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
             }
             faces[i] = new Wface(prevEdge);
         }
+
+        // boundary loops: each boundary half edge is followed by a boundary
+        // half edge leaving the vertex it points to
+
+        int[] boundaryOut = new int[vertices.length];
+        int[] nextOut = new int[edges.length];
+        for (int i = 0; i < boundaryOut.length; i++)
+            boundaryOut[i] = -1;
+        for (int i = edges.length - 1; i >= 0; i--) {
+            if (edges[i] != null && edges[i].face == -1) {
+                int from = edges[edges[i].hedge].vertex;
+                nextOut[i] = boundaryOut[from];
+                boundaryOut[from] = i;
+            }
+        }
         int n;
         for (int i = 0; i < edges.length; i++) {
             if (edges[i] != null && edges[i].face == -1 && edges[i].next == -1) {
                 n = edges[i].vertex;
-                for (int j = 0; j < edges.length; j++) {
-                    if (edges[j] != null && edges[edges[j].hedge].vertex == n
-                            && edges[edges[j].hedge].face == -1
-                            && edges[edges[j].hedge].next == -1) {
-                        edges[i].next = edges[j].hedge;
-                        break;
-                    }
+                if (boundaryOut[n] != -1) {
+                    edges[i].next = boundaryOut[n];
+                    boundaryOut[n] = nextOut[boundaryOut[n]];
                 }
             }
         }
@@ -1173,16 +1222,31 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
     public void copyObject(Object3D obj) {
         PolyMesh mesh = (PolyMesh) obj;
 
+        shareArrays(mesh);
+        copySettings(mesh);
+    }
+
+    /**
+     * Copies what another mesh holds besides its vertices, edges and faces:
+     * skeleton, texture, smoothing and mirror settings, UV mapping data and
+     * display colors. The caches built from the elements are cleared.
+     */
+
+    private void copySettings(PolyMesh mesh) {
         texParam = null;
-        vertices = new Wvertex[mesh.vertices.length];
-        edges = new Wedge[mesh.edges.length];
-        faces = new Wface[mesh.faces.length];
-        for (int i = 0; i < mesh.vertices.length; i++)
-            vertices[i] = new Wvertex(mesh.vertices[i]);
-        for (int i = 0; i < mesh.edges.length; i++)
-            edges[i] = new Wedge(mesh.edges[i]);
-        for (int i = 0; i < mesh.faces.length; i++)
-            faces[i] = new Wface(mesh.faces[i]);
+        packedMesh = null;
+        stencils = null;
+        stencilMesh = null;
+        cancelSmoothing();
+        cachedMesh = null;
+        cachedWire = null;
+        cachedNormals = null;
+        cachedEdgeNormals = null;
+        cachedFaceNormals = null;
+        normalPositions = null;
+        normalsMoved = false;
+        bounds = null;
+        projectedEdges = null;
         if (skeleton == null)
             skeleton = mesh.skeleton.duplicate();
         else
@@ -1190,20 +1254,17 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
         setSmoothingMethod(mesh.getSmoothingMethod());
         mirrorState = mesh.getMirrorState();
         closed = mesh.closed;
-        copyTextureAndMaterial(obj);
-        cachedMesh = null;
-        cachedWire = null;
-        cachedNormals = null;
-        cachedEdgeNormals = null;
-        cachedFaceNormals = null;
-        bounds = null;
+        copyTextureAndMaterial(mesh);
         controlledSmoothing = mesh.controlledSmoothing;
         minAngle = mesh.minAngle;
         maxAngle = mesh.maxAngle;
         minSmoothness = mesh.minSmoothness;
         maxSmoothness = mesh.maxSmoothness;
         interactiveSmoothLevel = mesh.interactiveSmoothLevel;
-        projectedEdges = null;
+        limitSurface = mesh.limitSurface;
+        featureAdaptive = mesh.featureAdaptive;
+        frameBudget = mesh.frameBudget;
+        renderMemoryBudget = mesh.renderMemoryBudget;
         if (mesh.mappingData != null) {
             mappingData = mesh.mappingData.duplicate();
             mappingVerts = mesh.mappingVerts;
@@ -1252,7 +1313,9 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
     }
 
     /**
-     * Create a new object which is an exact duplicate of this one.
+     * Create a new object which is an exact duplicate of this one. The
+     * duplicate shares the vertices, edges and faces of this mesh until one of
+     * the two meshes is modified (see shareArrays()).
      * 
      * @return A duplicate of the winged mesh object
      */
@@ -1264,6 +1327,290 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
         return mesh;
     }
 
+    /**
+     * Makes this mesh use the vertices, edges and faces arrays of another mesh.
+     * The arrays are shared until they are modified: a mesh copies an array
+     * before its first change to it, unless no other mesh uses the array any
+     * more. Methods which modify the mesh elements, or hand them out, call
+     * unshareVertices(), unshareEdges() or unshareFaces() first. Code which
+     * only reads them uses getSharedVertices(), getSharedEdges() and
+     * getSharedFaces(), which do not copy.
+     *
+     * An array handed out by getVertices(), getEdges(), getFaces() or taken
+     * by setMeshTopology() may still be written to by the caller, which
+     * would change every mesh using it. Such an array is thus copied at once
+     * instead of being shared.
+     * 
+     * @param mesh The mesh to share the arrays of
+     */
+
+    private void shareArrays(PolyMesh mesh) {
+        if (mesh == this)
+            return;
+        releaseArrays();
+        synchronized (mesh) {
+            if (mesh.verticesOut)
+                vertices = copyVertices(mesh.vertices);
+            else {
+                vertexShare = mesh.vertexShare = ArrayShare.join(mesh.vertexShare, mesh, this);
+                vertices = mesh.vertices;
+            }
+            if (mesh.edgesOut)
+                edges = copyEdges(mesh.edges);
+            else {
+                edgeShare = mesh.edgeShare = ArrayShare.join(mesh.edgeShare, mesh, this);
+                edges = mesh.edges;
+            }
+            if (mesh.facesOut)
+                faces = copyFaces(mesh.faces);
+            else {
+                faceShare = mesh.faceShare = ArrayShare.join(mesh.faceShare, mesh, this);
+                faces = mesh.faces;
+            }
+        }
+    }
+
+    /**
+     * Stops sharing the arrays with other meshes, without copying them. Used
+     * when the arrays are about to be replaced.
+     */
+
+    private void releaseArrays() {
+        if (vertexShare != null)
+            vertexShare.leave(this);
+        if (edgeShare != null)
+            edgeShare.leave(this);
+        if (faceShare != null)
+            faceShare.leave(this);
+        vertexShare = edgeShare = faceShare = null;
+        verticesOut = edgesOut = facesOut = false;
+    }
+
+    /**
+     * Copies the vertices, edges and faces arrays that are shared with other
+     * meshes
+     */
+
+    private void unshareArrays() {
+        unshareVertices();
+        unshareEdges();
+        unshareFaces();
+    }
+
+    /**
+     * Copies the vertices if they are shared with another mesh. This must be
+     * called before any vertex is modified.
+     */
+
+    private void unshareVertices() {
+        ArrayShare share = vertexShare;
+        if (share == null)
+            return;
+        synchronized (share) {
+            if (share.leave(this))
+                vertices = copyVertices(vertices);
+        }
+        vertexShare = null;
+    }
+
+    /**
+     * Copies the edges if they are shared with another mesh. This must be
+     * called before any edge is modified.
+     */
+
+    private void unshareEdges() {
+        ArrayShare share = edgeShare;
+        if (share == null)
+            return;
+        synchronized (share) {
+            if (share.leave(this))
+                edges = copyEdges(edges);
+        }
+        edgeShare = null;
+    }
+
+    /**
+     * Copies the faces if they are shared with another mesh. This must be
+     * called before any face is modified.
+     */
+
+    private void unshareFaces() {
+        ArrayShare share = faceShare;
+        if (share == null)
+            return;
+        synchronized (share) {
+            if (share.leave(this))
+                faces = copyFaces(faces);
+        }
+        faceShare = null;
+    }
+
+    private Wvertex[] copyVertices(Wvertex[] vertices) {
+        Wvertex[] v = new Wvertex[vertices.length];
+        for (int i = 0; i < v.length; i++)
+            v[i] = new Wvertex(vertices[i]);
+        return v;
+    }
+
+    private Wedge[] copyEdges(Wedge[] edges) {
+        Wedge[] e = new Wedge[edges.length];
+        for (int i = 0; i < e.length; i++)
+            e[i] = new Wedge(edges[i]);
+        return e;
+    }
+
+    private Wface[] copyFaces(Wface[] faces) {
+        Wface[] f = new Wface[faces.length];
+        for (int i = 0; i < f.length; i++)
+            f[i] = new Wface(faces[i]);
+        return f;
+    }
+
+    /**
+     * Computes the differences from which the vertices, edges and faces of an
+     * earlier version of a mesh can be rebuilt out of a later version (see
+     * restore())
+     *
+     * @param earlier The earlier version of the mesh
+     * @param later   The later version
+     */
+
+    static MeshDelta getDelta(PolyMesh earlier, PolyMesh later) {
+        return new MeshDelta(earlier.getElementRecords(), later.getElementRecords());
+    }
+
+    /**
+     * Tells if this mesh is the later version differences were computed
+     * against (see getDelta())
+     *
+     * @exception IOException if the differences cannot be expanded (see
+     *                        MeshDelta.compress())
+     */
+
+    boolean matches(MeshDelta delta) throws IOException {
+        return delta.matches(getElementRecords());
+    }
+
+    /**
+     * Returns an empty mesh holding the settings of this one (see
+     * copySettings()), for restore()
+     */
+
+    PolyMesh getSettingsCopy() {
+        PolyMesh mesh = new PolyMesh();
+        mesh.vertices = new Wvertex[0];
+        mesh.edges = new Wedge[0];
+        mesh.faces = new Wface[0];
+        mesh.copySettings(this);
+        return mesh;
+    }
+
+    /**
+     * Turns this mesh into an earlier version of a mesh. Nothing is changed
+     * if the later version does not match the differences.
+     *
+     * @param delta    The differences between the two versions (see getDelta())
+     * @param later    The later version. It may be this mesh.
+     * @param settings The settings of the earlier version (see getSettingsCopy())
+     * @exception IllegalArgumentException if the later version does not match
+     *                                     the differences
+     * @exception IOException if the differences cannot be expanded (see
+     *                        MeshDelta.compress())
+     */
+
+    void restore(MeshDelta delta, PolyMesh later, PolyMesh settings) throws IOException {
+        MeshDelta.Records[] records = later.getElementRecords();
+        if (!delta.matches(records))
+            throw new IllegalArgumentException("The mesh does not match the differences");
+        int half = delta.getSize(1);
+        Wvertex[] v = new Wvertex[delta.getSize(0)];
+        Wedge[] e = new Wedge[half + delta.getSize(2)];
+        Wface[] f = new Wface[delta.getSize(3)];
+        delta.restore(0, records[0], (i, ints, doubles) -> {
+            v[i] = new Wvertex(new Vec3(doubles[0], doubles[1], doubles[2]), decodeEdge(ints[0], half));
+            v[i].ikJoint = ints[1];
+            v[i].type = (short) ints[2];
+            v[i].ikWeight = doubles[3];
+        });
+        MeshDelta.RecordSink edgeSink = (i, ints, doubles) -> {
+            e[i] = new Wedge(ints[0], decodeEdge(ints[1], half), ints[2], decodeEdge(ints[3], half));
+            e[i].smoothness = Float.intBitsToFloat(ints[4]);
+        };
+        delta.restore(1, records[1], edgeSink);
+        delta.restore(2, records[2], (i, ints, doubles) -> edgeSink.set(half + i, ints, doubles));
+        delta.restore(3, records[3], (i, ints, doubles) -> f[i] = new Wface(decodeEdge(ints[0], half)));
+        releaseArrays();
+        vertices = v;
+        edges = e;
+        faces = f;
+        copySettings(settings);
+    }
+
+    /**
+     * Returns the mesh elements seen as records, to compute or apply a
+     * MeshDelta: the vertices, the first and second edge halves, then the
+     * faces. Edge indices are coded relative to the edge halves (see
+     * encodeEdge()), so that the records of the existing elements do not
+     * change when edges are added.
+     */
+
+    private MeshDelta.Records[] getElementRecords() {
+        Wvertex[] v = vertices;
+        Wedge[] e = edges;
+        Wface[] f = faces;
+        int half = e.length / 2;
+        return new MeshDelta.Records[] { new MeshDelta.Records(v.length, 3, 4) {
+            @Override
+            void get(int i, int[] ints, double[] doubles) {
+                Wvertex vert = v[i];
+                ints[0] = encodeEdge(vert.edge, half);
+                ints[1] = vert.ikJoint;
+                ints[2] = vert.type;
+                doubles[0] = vert.r.x;
+                doubles[1] = vert.r.y;
+                doubles[2] = vert.r.z;
+                doubles[3] = vert.ikWeight;
+            }
+        }, getEdgeRecords(e, 0, half), getEdgeRecords(e, half, e.length - half), new MeshDelta.Records(f.length, 1, 0) {
+            @Override
+            void get(int i, int[] ints, double[] doubles) {
+                ints[0] = encodeEdge(f[i].edge, half);
+            }
+        } };
+    }
+
+    private static MeshDelta.Records getEdgeRecords(Wedge[] e, int offset, int count) {
+        int half = e.length / 2;
+        return new MeshDelta.Records(count, 5, 0) {
+            @Override
+            void get(int i, int[] ints, double[] doubles) {
+                Wedge ed = e[offset + i];
+                ints[0] = ed.vertex;
+                ints[1] = encodeEdge(ed.hedge, half);
+                ints[2] = ed.face;
+                ints[3] = encodeEdge(ed.next, half);
+                ints[4] = Float.floatToRawIntBits(ed.smoothness);
+            }
+        };
+    }
+
+    /**
+     * Codes an edge index as its index in its edge half, times two, plus one
+     * for the second half. Negative values are kept as they are.
+     */
+
+    private static int encodeEdge(int edge, int half) {
+        if (edge < 0)
+            return edge;
+        return edge < half ? 2 * edge : 2 * (edge - half) + 1;
+    }
+
+    private static int decodeEdge(int code, int half) {
+        if (code < 0)
+            return code;
+        return (code & 1) == 0 ? code >> 1 : half + (code >> 1);
+    }
+
     /**
      * Returns a wireframe mesh for the PolyMesh object
      * 
@@ -1279,9 +1626,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
         if (cachedWire != null)
             return cachedWire;
         if (mirrorState != NO_MIRROR) {
-            if (mirroredMesh == null)
-                getMirroredMesh();
-            cachedWire = mirroredMesh.getWireframeMesh();
+            cachedWire = getMirroredMesh().getWireframeMesh();
             return cachedWire;
         }
         point = new Vec3[vertices.length];
@@ -1308,17 +1653,19 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
     @Override
     public RenderingMesh getRenderingMesh(double tol, boolean interactive,
             ObjectInfo info) {
-        if (interactive && cachedMesh != null)
+        if (interactive && cachedMesh != null && !(coarseMesh && isSmoothingReady()))
             return cachedMesh;
         RenderingMesh rend = null;
         if (mirrorState != NO_MIRROR) {
-            if (mirroredMesh == null)
-                getMirroredMesh();
-            rend = mirroredMesh.getRenderingMesh(tol, interactive, info);
-            closed = mirroredMesh.isClosed();
-            subdividedMesh = mirroredMesh.getSubdividedMesh();
-            if (interactive)
+            PolyMesh mirror = getMirroredMesh();
+            rend = mirror.getRenderingMesh(tol, interactive, info);
+            closed = mirror.isClosed();
+            subdividedMesh = mirror.getSubdividedMesh();
+            if (interactive) {
                 cachedMesh = rend;
+                coarseMesh = mirror.coarseMesh;
+            } else
+                renderLevelCap = mirror.getRenderLevelCap();
             return rend;
         }
         closed = true;
@@ -1330,117 +1677,151 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
         }
         if (smoothingMethod == Mesh.APPROXIMATING) {
             if (interactive) {
-                QuadMesh qmesh = smoothWholeMesh(tol, true, interactiveSmoothLevel, false);
+                QuadMesh qmesh = smoothInteractive(tol);
+                qmesh.setLimitSurface(limitSurface);
                 cachedMesh = qmesh.getRenderingMesh();
                 subdividedMesh = qmesh;
                 return cachedMesh;
             } else {
-                QuadMesh qmesh = smoothWholeMesh(tol, false, Integer.MAX_VALUE, false);
-                cachedMesh = qmesh.getRenderingMesh();
+                QuadMesh qmesh = getSharedSmoothedMesh(tol);
+                renderLevelCap = qmesh.getCappedLevel();
+                cachedMesh = qmesh.getRenderingMesh(getTextureMapping(), getMaterialMapping());
                 return cachedMesh;
             }
         }
         TextureMapping texMapping = getTextureMapping();
-        vert = new Vector<>();
-        v1 = new Vector<>();
-        v2 = new Vector<>();
-        v3 = new Vector<>();
-        vertInfo = new Vector<>();
-        faceInfo = new Vector<>();
-        for (int i = 0; i < vertices.length; ++i) {
-            vert.add(vertices[i].r);
-            vertInfo.add(new VertexParamInfo(new int[] { i }, new double[] { 1.0 }));
-        }
-        for (int i = 0; i < faces.length; ++i) {
-            int[] vf = getFaceVertices(faces[i]);
-            if (vf.length == 3) {
-                v1.add(vf[0]);
-                v2.add(vf[1]);
-                v3.add(vf[2]);
-                faceInfo.add(i);
+        PackedMesh pm = getPackedMesh();
+        Triangulation triangulation = triangulateMesh(pm);
+        Vec3[] vertArray = getTriangulationVertices(triangulation);
+        RenderingTriangle[] tri = new RenderingTriangle[triangulation.getTriangleCount()];
+        for (int i = 0; i < tri.length; ++i)
+            tri[i] = texMapping.mapTriangle(triangulation.getVertex(i, 0), triangulation.getVertex(i, 1),
+                    triangulation.getVertex(i, 2), 0, 0, 0, vertArray);
+        rend = new RenderingMesh(vertArray, new Vec3[] { null }, tri, texMapping, getMaterialMapping());
+        ParameterValue oldParamVal[] = getParameterValues();
+        ParameterValue[] uniform = QuadMesh.findUniformParameters(oldParamVal);
+        if (uniform != null)
+            oldParamVal = QuadMesh.toConstants(oldParamVal, uniform);
+        if (oldParamVal != null)
+            rend.setParameters(getTriangulationParameterValues(oldParamVal, triangulation, pm));
+        if (interactive)
+            cachedMesh = rend;
+        return rend;
+    }
 
-            } else if (vf.length > 3) {
-                triangulate(vf, i, false);
-            }
+    /**
+     * Triangulates all faces of the mesh
+     *
+     * @param pm Packed data of the mesh
+     */
+
+    private Triangulation triangulateMesh(PackedMesh pm) {
+        Triangulation triangulation = new Triangulation(vertices.length);
+        int[] start = pm.getFaceVertexStart();
+        int[] fvl = pm.getFaceVertexList();
+        for (int i = 0; i < faces.length; ++i) {
+            int n = start[i + 1] - start[i];
+            if (n == 3)
+                triangulation.addTriangle(fvl[start[i]], fvl[start[i] + 1], fvl[start[i] + 2], i);
+            else if (n > 3)
+                triangulate(Arrays.copyOfRange(fvl, start[i], start[i + 1]), i, triangulation);
         }
-        Vec3[] vertArray = new Vec3[vert.size()];
-        for (int i = 0; i < vertArray.length; ++i)
-            vertArray[i] = vert.get(i);
+        return triangulation;
+    }
 
-            RenderingTriangle[] tri = new RenderingTriangle[v1.size()];
-            for (int i = 0; i < v1.size(); ++i)
-                tri[i] = texMapping.mapTriangle(v1.get(i), v2.get(i), v3.get(i), 0, 0, 0, vertArray);
-            rend = new RenderingMesh(vertArray, new Vec3[] { null }, tri, texMapping, getMaterialMapping());
-            ParameterValue oldParamVal[] = getParameterValues();
-            if (oldParamVal != null) {
-                ParameterValue newParamVal[] = new ParameterValue[oldParamVal.length];
-                for (int i = 0; i < oldParamVal.length; i++) {
-                    if (oldParamVal[i] instanceof VertexParameterValue) {
-                        double oldval[] = ((VertexParameterValue) oldParamVal[i]).getValue();
-                        double newval[] = new double[vert.size()];
-                        for (int j = 0; j < vert.size(); ++j) {
-                            int[] vf = vertInfo.get(j).vert;
-                            double[] coef = vertInfo.get(j).coef;
-                            for (int k = 0; k < vf.length; ++k)
-                                newval[j] += coef[k] * oldval[vf[k]];
-                        }
-                        newParamVal[i] = new VertexParameterValue(newval);
-
-                    } else if (oldParamVal[i] instanceof FaceParameterValue) {
-                        double oldval[] = ((FaceParameterValue) oldParamVal[i]).getValue();
-                        double newval[] = new double[faceInfo.size()];
-                        for (int j = 0; j < newval.length; ++j)
-                            newval[j] = oldval[faceInfo.get(j)];
-                        newParamVal[i] = new FaceParameterValue(newval);
-                    } else if (oldParamVal[i] instanceof FaceVertexParameterValue) {
-                        FaceVertexParameterValue fvpv = (FaceVertexParameterValue) oldParamVal[i];
-                        double newval[][] = new double[v1.size()][3];
-                        for (int j = 0; j < v1.size(); ++j) {
-                            for (int k = 0; k < 3; k++) {
-                                int vertex = -1;
-                                switch (k) {
-                                case 0:
-                                    vertex = v1.get(j);
-                                    break;
-                                case 1:
-                                    vertex = v2.get(j);
-                                    break;
-                                case 2:
-                                    vertex = v3.get(j);
-                                    break;
-                                }
-                                int pmeFace = faceInfo.get(j);
-                                int[] fv = getFaceVertices(faces[pmeFace]);
-                                int[] vf = vertInfo.get(vertex).vert;
-                                double[] coef = vertInfo.get(vertex).coef;
-                                for (int l = 0; l < vf.length; ++l) {
-                                    int vv = -1;
-                                    for (int m = 0; m < fv.length; ++m) {
-                                        if (fv[m] == vf[l]) {
-                                            vv = m;
-                                            break;
-                                        }
-                                    }
-                                    if (vv == -1) {
-                                        System.out.println("pb per face per vertex : point doesn't belong to face");
-                                        vv = 0;
-                                    }
-                                    newval[j][k] += coef[l]
-                                            * fvpv.getValue(pmeFace, vv);
-                                }
+    /**
+     * Returns the positions of the vertices of a triangulation of the mesh
+     */
 
-                            }
-                        }
-                        newParamVal[i] = new FaceVertexParameterValue(newval);
-                    } else
-                        newParamVal[i] = oldParamVal[i].duplicate();
+    private Vec3[] getTriangulationVertices(Triangulation triangulation) {
+        Vec3[] v = new Vec3[triangulation.getVertexCount()];
+        for (int i = 0; i < vertices.length; ++i)
+            v[i] = vertices[i].r;
+        for (int i = vertices.length; i < v.length; ++i)
+            v[i] = triangulation.getAddedPosition(i);
+        return v;
+    }
+
+    /**
+     * Computes the texture parameter values of a triangulation of the mesh
+     *
+     * @param oldParamVal Parameter values of the mesh
+     * @param pm          Packed data of the mesh
+     * @return            Values for the vertices, triangles or triangle corners
+     */
+
+    private ParameterValue[] getTriangulationParameterValues(ParameterValue[] oldParamVal, Triangulation triangulation,
+            PackedMesh pm) {
+        ParameterValue newParamVal[] = new ParameterValue[oldParamVal.length];
+        for (int i = 0; i < oldParamVal.length; i++) {
+            if (oldParamVal[i] instanceof VertexParameterValue) {
+                double oldval[] = ((VertexParameterValue) oldParamVal[i]).getValue();
+                newParamVal[i] = new VertexParameterValue(triangulation.interpolate(oldval));
+            } else if (oldParamVal[i] instanceof FaceParameterValue) {
+                double oldval[] = ((FaceParameterValue) oldParamVal[i]).getValue();
+                double newval[] = new double[triangulation.getTriangleCount()];
+                for (int j = 0; j < newval.length; ++j)
+                    newval[j] = oldval[triangulation.getFace(j)];
+                newParamVal[i] = new FaceParameterValue(newval);
+            } else if (oldParamVal[i] instanceof FaceVertexParameterValue) {
+                FaceVertexParameterValue fvpv = (FaceVertexParameterValue) oldParamVal[i];
+                newParamVal[i] = new FaceVertexParameterValue(getTriangleFaceVertexValues(fvpv, triangulation, pm));
+            } else
+                newParamVal[i] = oldParamVal[i].duplicate();
+        }
+        return newParamVal;
+    }
+
+    /**
+     * Computes per face per vertex parameter values for the triangles of a
+     * triangulation. Each triangle vertex is a weighted sum of vertices of the
+     * face the triangle comes from (see triangulate()). The position of these
+     * vertices in the face is read from a vertex to position map of the current
+     * face.
+     *
+     * @param fvpv Per face per vertex values of the mesh
+     * @param pm   Packed data of the mesh
+     * @return     Values for each corner of each triangle
+     */
+
+    private double[][] getTriangleFaceVertexValues(FaceVertexParameterValue fvpv, Triangulation triangulation,
+            PackedMesh pm) {
+        int[] start = pm.getFaceVertexStart();
+        int[] fvl = pm.getFaceVertexList();
+        int[] position = new int[vertices.length];
+        int[] positionFace = new int[vertices.length];
+        Arrays.fill(positionFace, -1);
+        double newval[][] = new double[triangulation.getTriangleCount()][3];
+        int current = -1;
+        for (int j = 0; j < newval.length; ++j) {
+            int pmeFace = triangulation.getFace(j);
+            if (pmeFace != current) {
+                current = pmeFace;
+                for (int m = start[pmeFace + 1] - 1; m >= start[pmeFace]; m--) {
+                    position[fvl[m]] = m - start[pmeFace];
+                    positionFace[fvl[m]] = pmeFace;
+                }
+            }
+            for (int k = 0; k < 3; k++) {
+                int vertex = triangulation.getVertex(j, k);
+                if (vertex < vertices.length) {
+                    newval[j][k] = fvpv.getValue(pmeFace, getFacePosition(vertex, pmeFace, position, positionFace));
+                    continue;
                 }
-                rend.setParameters(newParamVal);
+                int[] vf = triangulation.getSourceVertices(vertex);
+                double[] coef = triangulation.getSourceWeights(vertex);
+                for (int l = 0; l < vf.length; ++l)
+                    newval[j][k] += coef[l] * fvpv.getValue(pmeFace, getFacePosition(vf[l], pmeFace, position, positionFace));
             }
-        
-        if (interactive)
-            cachedMesh = rend;
-        return rend;
+        }
+        return newval;
+    }
+
+    private static int getFacePosition(int vertex, int face, int[] position, int[] positionFace) {
+        if (positionFace[vertex] == face)
+            return position[vertex];
+        System.out.println("pb per face per vertex : point doesn't belong to face");
+        return 0;
     }
 
     /**
@@ -1719,6 +2100,26 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
         return ed;
     }
 
+    /**
+     * Finds the edges leaving a vertex, in the same order as getVertexEdges(Wvertex),
+     * without allocating an array. The edges are stored in the vertex edges array of
+     * the scratch arrays.
+     *
+     * @return The number of edges around the vertex
+     */
+    private int getVertexEdges(Wvertex v, SubdivisionScratch scratch) {
+        int[] ve = scratch.getVertexEdges(16);
+        int e = v.edge;
+        int count = 0;
+        do {
+            if (count == ve.length)
+                ve = scratch.getVertexEdges(count + 1);
+            ve[count++] = e;
+            e = edges[edges[e].hedge].next;
+        } while (e != v.edge && count <= edges.length);
+        return count;
+    }
+
     /**
      * Finds the previous edge for a given edge
      * 
@@ -1773,6 +2174,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public boolean[] triangulateFaces(boolean[] selected) {
+        unshareArrays();
         int vert1;
         int vert2;
         int vert3;
@@ -1794,34 +2196,28 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
         // first let's record any per face per vertex texture parameter
 
         facesTextureIndexMap = recordFacesTexture(selected);
-        vert = new Vector<>();
-        for (int i = 0; i < vertices.length; ++i)
-            vert.add(vertices[i].r);
         for (int i = 0; i < selected.length; i++) {
             if (selected[i]) {
                 vf = getFaceVertices(faces[i]);
                 if (vf.length == 3)
                     continue;
-                v1 = new Vector<>();
-                v2 = new Vector<>();
-                v3 = new Vector<>();
-                vertInfo = new Vector<>();
-                faceInfo = new Vector<>();
-                triangulate(vf, i, false);
-                Wvertex[] newVertices = new Wvertex[vert.size()];
-                Wedge[] newEdges = new Wedge[v1.size() * 6 + edges.length];
-                Wface[] newFaces = new Wface[faces.length - 1 + v1.size()];
+                Triangulation triangulation = new Triangulation(vertices.length);
+                triangulate(vf, i, triangulation);
+                int triangleCount = triangulation.getTriangleCount();
+                Wvertex[] newVertices = new Wvertex[triangulation.getVertexCount()];
+                Wedge[] newEdges = new Wedge[triangleCount * 6 + edges.length];
+                Wface[] newFaces = new Wface[faces.length - 1 + triangleCount];
                 translateMesh(newVertices, newEdges, newFaces);
                 edgeCount = edges.length / 2;
                 faceCount = faces.length;
-                for (int j = vertices.length; j < vert.size(); ++j) {
-                    newVertices[j] = new Wvertex(vert.get(j), -1);
+                for (int j = vertices.length; j < newVertices.length; ++j) {
+                    newVertices[j] = new Wvertex(triangulation.getAddedPosition(j), -1);
                     vertTable.add(edges[faces[i].edge].vertex);
                 }
-                for (int j = 0; j < v1.size(); ++j) {
-                    vert1 = v1.get(j);
-                    vert2 = v2.get(j);
-                    vert3 = v3.get(j);
+                for (int j = 0; j < triangleCount; ++j) {
+                    vert1 = triangulation.getVertex(j, 0);
+                    vert2 = triangulation.getVertex(j, 1);
+                    vert3 = triangulation.getVertex(j, 2);
                     face = -1;
                     e1 = findNewEdge(vert1, vert2, newVertices, newEdges);
                     if (e1 >= 0) {
@@ -1865,7 +2261,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
                         newEdges[e3].smoothness = 1.0f;
                         newEdges[e3 + newEdges.length / 2].smoothness = 1.0f;
                     }
-                    if (j == v1.size() - 1) {
+                    if (j == triangleCount - 1) {
                         newEdges[e1].next = e2;
                         newEdges[e2].next = e3;
                         newEdges[e3].next = e1;
@@ -2044,322 +2440,97 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
     /**
      * Given a face represented by an array of vertices indexes, this function
      * yields the triangulated mesh for the face (ear cutting algorithm). This
-     * method is also used to compute face areas.
+     * method is also used to compute face areas. The triangulation of faces with
+     * more than four vertices is kept and used again as long as the face has the
+     * same vertices and none of its triangles is flipped.
      * 
      * @param vf       Array of vertices indexes
      * @param face     Face index
-     * @param areaOnly Set this flag to true if you only want to compute face area
+     * @param out      Triangulation the triangles are added to, null if you only
+     *                 want to compute face area
      * @return         Face area.
      */
 
-    private double triangulate(int[] vf, int face, boolean areaOnly) {
-        int fe[] = null;
-        if (!areaOnly)
-            fe = getFaceEdges(faces[face]);
-        boolean deleted[] = new boolean[vf.length];
-        int start = -1;
-        int prev;
-        int pi, pnext, pprev, ppprev;
-        int next;
-        Vec3 norm = new Vec3();
-        Vec3 v = new Vec3();
-        double area = 0.0;
-        Vec3 tmp;
-        int i1;
-        int i2;
-        int i3;
-
-        for (int i = 0; i < vf.length; ++i)
-            v.add(vertices[vf[i]].r);
-        v.scale(1.0 / (vf.length * 1.0));
-        for (int i = 0; i < vf.length; ++i) {
-            next = getNext(i, deleted);
-            norm.add(vertices[vf[i]].r.minus(v).cross(
-                    vertices[vf[next]].r.minus(v)));
-        }
-        for (int i = 0; i < vf.length; ++i) {
-            prev = getPrev(i, deleted);
-            next = getNext(i, deleted);
-            Vec3 crossVec = vertices[vf[i]].r.minus(vertices[vf[prev]].r)
-                    .cross(vertices[vf[next]].r.minus(vertices[vf[i]].r));
-            double product = crossVec.dot(norm);
-            if (product >= 0) {
-                start = i;
-                break;
+    private double triangulate(int[] vf, int face, Triangulation out) {
+        if (vf.length == 3) {
+            if (out != null)
+                out.addTriangle(vf[2], vf[0], vf[1], face);
+            return getTriangleArea(vertices[vf[2]].r, vertices[vf[0]].r, vertices[vf[1]].r);
+        }
+        FaceTriangulation ft = getFaceTriangulation(vf, face, out != null);
+        int[] corners = ft.getCorners();
+        int[] centerCorners = ft.getCenterCorners();
+        Vec3 v = null;
+        int center = -1;
+        if (centerCorners != null) {
+            v = new Vec3();
+            for (int i = 0; i < centerCorners.length; ++i)
+                v.add(vertices[vf[centerCorners[i]]].r);
+            v.scale(1.0 / (centerCorners.length * 1.0));
+            if (out != null) {
+                int[] vv = new int[centerCorners.length];
+                double[] coef = new double[centerCorners.length];
+                for (int i = 0; i < centerCorners.length; ++i) {
+                    vv[i] = vf[centerCorners[i]];
+                    coef[i] = 1.0 / ((double) centerCorners.length);
+                }
+                center = out.addVertex(v, vv, coef);
             }
         }
-        int i = start + 1;
-        int count = 0;
-
-        // as ear cutting occurs, deleted (cut) vertices are stored in deleted array
-
-        while (count < getDelLength(deleted) && getDelLength(deleted) > 3) {
-
-            // first, find a proper starting point with negative dot product of neighbor segments
-
-            if (i >= vf.length)
-                i -= vf.length;
-            prev = getPrev(i, deleted);
-            next = getNext(i, deleted);
-            Vec3 crossVec = vertices[vf[next]].r.minus(vertices[vf[i]].r)
-                    .cross(vertices[vf[prev]].r.minus(vertices[vf[i]].r));
-            double product = crossVec.dot(norm);
-            if (product >= 0) {
-                ++count;
-                ++i;
-            }
-            // OK
-            else {
-                // ear cutting : we can start here
-                count = 0;
-                pi = prev;
-                pnext = i;
-                pprev = getPrev(pi, deleted);
-                ppprev = getPrev(pprev, deleted);
-                crossVec = vertices[vf[pnext]].r.minus(vertices[vf[pi]].r)
-                        .cross(vertices[vf[pprev]].r.minus(vertices[vf[pi]].r));
-                product = crossVec.dot(norm);
-                if (product >= 0) {
-                    if (ppprev != pprev && ppprev != pi && ppprev != pnext) {
-                        if (ptInTriangle(vertices[vf[pprev]].r,
-                                vertices[vf[pi]].r, vertices[vf[pnext]].r,
-                                vertices[vf[ppprev]].r)) {
-                            next = pnext;
-                            i = pi;
-                            prev = pprev;
-                            if (i == start)
-                                --start;
-                        }
-                    }
-                } else {
-                    next = pnext;
-                    i = pi;
-                    prev = pprev;
-                    if (i == start)
-                        --start;
-                }
-                i1 = vf[getPrev(prev, deleted)];
-                i2 = vf[prev];
-                i3 = vf[i];
-                if (!areaOnly)
-                    v1.add(i1);
-                if (!areaOnly)
-                    v2.add(i2);
-                if (!areaOnly)
-                    v3.add(i3);
-                if (faceInfo != null)
-                    faceInfo.add(face);
-                tmp = vertices[i1].r.cross(vertices[i2].r);
-                tmp.add(vertices[i2].r.cross(vertices[i3].r));
-                tmp.add(vertices[i3].r.cross(vertices[i1].r));
-                area += tmp.length() / 2;
-                deleted[prev] = true;
-            }
-        }
-        count = 0;
-        v = new Vec3();
-        for (i = 0; i < vf.length; ++i) {
-            if (!deleted[i]) {
-                v.add(vertices[vf[i]].r);
-                ++count;
-            }
-        }
-
-        // array v now contains the vertices for truly convex face
-
-        if (count == 3) {
-
-            // simple triangle
-
-            for (i = 0; i < vf.length; ++i) {
-                if (!deleted[i]) {
-                    i1 = vf[prev = getPrev(i, deleted)];
-                    i2 = vf[i];
-                    i3 = vf[next = getNext(i, deleted)];
-                    if (!areaOnly)
-                        v1.add(i1);
-                    if (!areaOnly)
-                        v2.add(i2);
-                    if (!areaOnly)
-                        v3.add(i3);
-                    if (faceInfo != null)
-                        faceInfo.add(face);
-                    tmp = vertices[i1].r.cross(vertices[i2].r);
-                    tmp.add(vertices[i2].r.cross(vertices[i3].r));
-                    tmp.add(vertices[i3].r.cross(vertices[i1].r));
-                    area += tmp.length() / 2;
-                    break;
-                }
-            }
-        } else if (count == 4) {
-
-            // quad
-            // let's find out where to best place the diagonal
-
-            for (i = 0; i < vf.length; ++i) {
-                if (!deleted[i]) {
-                    prev = getPrev(i, deleted);
-                    next = getNext(i, deleted);
-                    int next2 = getNext(next, deleted);
-                    Vec3 mid1 = vertices[vf[prev]].r.plus(vertices[vf[next]].r);
-                    Vec3 mid2 = vertices[vf[next2]].r.plus(vertices[vf[i]].r);
-                    double product = norm.dot(mid1.minus(mid2));
-                    if (product >= 0) // convex face
-                    {
-                        i1 = vf[prev];
-                        i2 = vf[i];
-                        i3 = vf[next];
-                        if (!areaOnly)
-                            v1.add(i1);
-                        if (!areaOnly)
-                            v2.add(i2);
-                        if (!areaOnly)
-                            v3.add(i3);
-                        if (faceInfo != null)
-                            faceInfo.add(face);
-                        tmp = vertices[i1].r.cross(vertices[i2].r);
-                        tmp.add(vertices[i2].r.cross(vertices[i3].r));
-                        tmp.add(vertices[i3].r.cross(vertices[i1].r));
-                        area += tmp.length() / 2;
-                        i1 = vf[next];
-                        i2 = vf[next2];
-                        i3 = vf[prev];
-                        if (!areaOnly)
-                            v1.add(i1);
-                        if (!areaOnly)
-                            v2.add(i2);
-                        if (!areaOnly)
-                            v3.add(i3);
-                        if (faceInfo != null)
-                            faceInfo.add(face);
-                        tmp = vertices[i1].r.cross(vertices[i2].r);
-                        tmp.add(vertices[i2].r.cross(vertices[i3].r));
-                        tmp.add(vertices[i3].r.cross(vertices[i1].r));
-                        area += tmp.length() / 2;
-                    } else {
-                        i1 = vf[next2];
-                        i2 = vf[prev];
-                        i3 = vf[i];
-                        if (!areaOnly)
-                            v1.add(i1);
-                        if (!areaOnly)
-                            v2.add(i2);
-                        if (!areaOnly)
-                            v3.add(i3);
-                        if (faceInfo != null)
-                            faceInfo.add(face);
-                        tmp = vertices[i1].r.cross(vertices[i2].r);
-                        tmp.add(vertices[i2].r.cross(vertices[i3].r));
-                        tmp.add(vertices[i3].r.cross(vertices[i1].r));
-                        area += tmp.length() / 2;
-                        i1 = vf[i];
-                        i2 = vf[next];
-                        i3 = vf[next2];
-                        if (!areaOnly)
-                            v1.add(i1);
-                        if (!areaOnly)
-                            v2.add(i2);
-                        if (!areaOnly)
-                            v3.add(i3);
-                        if (faceInfo != null)
-                            faceInfo.add(face);
-                        tmp = vertices[i1].r.cross(vertices[i2].r);
-                        tmp.add(vertices[i2].r.cross(vertices[i3].r));
-                        tmp.add(vertices[i3].r.cross(vertices[i1].r));
-                        area += tmp.length() / 2;
-
-                    }
-                    break;
-                }
+        double area = 0.0;
+        for (int i = 0; i < corners.length; i += 3) {
+            int i1 = vf[corners[i]];
+            int i2 = vf[corners[i + 1]];
+            if (corners[i + 2] == vf.length) {
+                if (out != null)
+                    out.addTriangle(i1, i2, center, face);
+                area += getTriangleArea(vertices[i1].r, vertices[i2].r, v);
+            } else {
+                int i3 = vf[corners[i + 2]];
+                if (out != null)
+                    out.addTriangle(i1, i2, i3, face);
+                area += getTriangleArea(vertices[i1].r, vertices[i2].r, vertices[i3].r);
             }
-        } else if (count > 4) {
-
-            // more than square
-
-            v.scale(1.0 / (count * 1.0));
-            if (!areaOnly) {
-                vert.add(v);
-                count = 0;
-                for (i = 0; i < vf.length; ++i)
-                    if (!deleted[i])
-                        ++count;
-                int[] vv = new int[count];
-                double[] coef = new double[count];
-                coef[0] = 1.0 / ((double) count);
-                count = 0;
-                for (i = 0; i < vf.length; ++i)
-                    if (!deleted[i]) {
-                        vv[count] = vf[i];
-                        coef[count++] = coef[0];
-                    }
-                if (vertInfo != null)
-                    vertInfo.add(new VertexParamInfo(vv, coef));
-            }
-            for (i = 0; i < vf.length; ++i)
-                if (!deleted[i]) {
-                    {
-                        i1 = vf[getPrev(i, deleted)];
-                        i2 = vf[i];
-                        if (!areaOnly)
-                            v1.add(i1);
-                        if (!areaOnly)
-                            v2.add(i2);
-                        if (!areaOnly)
-                            v3.add(vert.size() - 1);
-                        if (faceInfo != null)
-                            faceInfo.add(face);
-                        tmp = vertices[i1].r.cross(vertices[i2].r);
-                        tmp.add(vertices[i2].r.cross(v));
-                        tmp.add(v.cross(vertices[i1].r));
-                        area += tmp.length() / 2;
-                    }
-                }
         }
         return area;
     }
 
     /**
-     * Says if the projection of pt onto triangle v1, v2, v3 is in triangle or
-     * not.
-     * 
-     * @param v1
-     * @param v2
-     * @param v3
-     * @param pt
-     * @return true if the projection of p is inside the triangle
+     * Returns the triangulation pattern of a face, from the face triangulation
+     * cache if it is still valid.
+     *
+     * @param vf    Array of vertices indexes
+     * @param face  Face index
+     * @param cache True if the face is a face of the mesh, whose triangulation
+     *              can be cached
      */
 
-    private boolean ptInTriangle(Vec3 v1, Vec3 v2, Vec3 v3, Vec3 pt) {
-        Vec3 vv1 = v2.minus(v1);
-        vv1.normalize();
-        Vec3 vv2 = v3.minus(v2);
-        vv2.normalize();
-        Vec3 norm = vv1.cross(vv2);
-        norm.normalize();
-        if (norm.length() < 1e-8)
-            return false;
-        double t, u, v, tmp;
-        Vec3 p, s, q;
-        vv1 = v2.minus(v1);
-        vv2 = v3.minus(v1);
-        p = norm.cross(vv2);
-        tmp = p.dot(vv1);
-
-        if (tmp < 1e-8 && tmp > -1e-8)
-            return false;
-        tmp = 1.0 / tmp;
-        s = pt.minus(v1);
-        u = tmp * s.dot(p);
-        if (u < -0.00001 || u > 1.00001)
-            return false;
-
-        q = s.cross(vv1);
-        v = tmp * norm.dot(q);
-        if (v < -0.00001 || v > 1.00001)
-            return false;
+    private FaceTriangulation getFaceTriangulation(int[] vf, int face, boolean cache) {
+        Vec3[] r = new Vec3[vf.length];
+        for (int i = 0; i < vf.length; ++i)
+            r[i] = vertices[vf[i]].r;
+        if (!cache || vf.length <= 4)
+            return new FaceTriangulation(vf, r);
+        FaceTriangulation[] cached = faceTriangulations;
+        if (cached == null || cached.length != faces.length)
+            faceTriangulations = cached = new FaceTriangulation[faces.length];
+        if (face >= cached.length)
+            return new FaceTriangulation(vf, r);
+        FaceTriangulation ft = cached[face];
+        if (ft == null || !ft.isValid(vf, r))
+            cached[face] = ft = new FaceTriangulation(vf, r);
+        return ft;
+    }
 
-        return true;
+    /**
+     * Computes the area of a triangle
+     */
 
+    private static double getTriangleArea(Vec3 r1, Vec3 r2, Vec3 r3) {
+        Vec3 tmp = r1.cross(r2);
+        tmp.add(r2.cross(r3));
+        tmp.add(r3.cross(r1));
+        return tmp.length() / 2;
     }
 
 
@@ -2390,61 +2561,6 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
     }
 
 
-    /**
-     * Gets the previous vertex of polygon, given the fact that some vertices
-     * have been deleted
-     * 
-     * @param index   The index for which the previous vertex is looked for
-     * @param deleted A 'deleted' flag array for the vertices
-     * @return        The previous index
-     */
-
-    private int getPrev(int index, boolean[] deleted) {
-        int prev = index - 1;
-        if (prev < 0)
-            prev += deleted.length;
-        while (deleted[prev]) {
-            --prev;
-            if (prev < 0)
-                prev += deleted.length;
-        }
-        return prev;
-    }
-
-    /**
-     * Gets the next vertex of polygon, given the fact that some vertices have been deleted
-     * 
-     * @param index   The index for which the next vertex is looked for
-     * @param deleted A 'deleted' flag array for the vertices
-     * @return        The previous index
-     */
-
-    private int getNext(int index, boolean[] deleted) {
-        int next = index + 1;
-        if (next >= deleted.length)
-            next -= deleted.length;
-        while (deleted[next]) {
-            ++next;
-            if (next >= deleted.length)
-                next -= deleted.length;
-        }
-        return next;
-    }
-
-    /**
-     * Gets number of vertices which haven't been deleted through ear cutting
-     * 
-     * @return The number of vertices not yet deleted
-     */
-
-    private int getDelLength(boolean[] deleted) {
-        int count = 0;
-        for (int i = 0; i < deleted.length; i++)
-            if (!deleted[i])
-                ++count;
-        return count;
-    }
-
     /**
      * Get the list of vertices which define the mesh.
      * 
@@ -2453,6 +2569,8 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 
     @Override
     public MeshVertex[] getVertices() {
+        unshareVertices();
+        verticesOut = true;
         return vertices;
     }
 
@@ -2479,9 +2597,51 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 
     @Override
     public void setVertexPositions(Vec3 v[]) {
+        setVertexPositions(v, null);
+    }
+
+    /**
+     * Set the positions for all the vertices of the mesh, when it is known which
+     * vertices may have moved. The packed mesh and the interactive smoothed mesh
+     * are then updated from these vertices only.
+     *
+     * @param v     The new vertex positions
+     * @param moved Indices of the vertices which may have moved, or null if any
+     *              vertex may have moved
+     */
+
+    public void setVertexPositions(Vec3 v[], int[] moved) {
+        unshareVertices();
         for (int i = 0; i < v.length; i++)
             vertices[i].r = v[i];
+
+        // only positions changed: keep the topology caches
+
+        PackedMesh packed = packedMesh;
+        SubdivisionStencils st = stencils;
+        QuadMesh stMesh = stencilMesh;
+        Vec3[] normals = cachedNormals;
+        Vec3[] edgeNormals = cachedEdgeNormals;
+        Vec3[] faceNormals = cachedFaceNormals;
+        double[] normalPos = normalPositions;
         resetMesh();
+        if (!controlledSmoothing) {
+            packedMesh = packed;
+            packedMoved.add(moved, vertices.length);
+            stencils = st;
+            stencilMesh = stMesh;
+            stencilMoved.add(moved, vertices.length);
+
+            // the normals are updated around the moved vertices on next use
+
+            if (normalPos != null) {
+                cachedNormals = normals;
+                cachedEdgeNormals = edgeNormals;
+                cachedFaceNormals = faceNormals;
+                normalPositions = normalPos;
+                normalsMoved = true;
+            }
+        }
     }
 
     /**
@@ -2492,59 +2652,113 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 
     @Override
     public Vec3[] getNormals() {
+        if (normalsMoved)
+            updateNormals();
         if (cachedNormals != null)
             return cachedNormals;
 
         Vec3 norm[] = new Vec3[vertices.length];
-        Vec3 faceNormals[] = getFaceNormals();
+        PackedMesh pm = getPackedMesh();
+        int[] start = pm.getVertexEdgeStart();
+        int[] ve = pm.getVertexEdgeList();
+        int[] faceStart = pm.getFaceVertexStart();
+        int[] fv = pm.getFaceVertexList();
+
+        // Each vertex only writes its own normal, so vertices can be processed in parallel.
+
+        QuadMesh.forEachRange(vertices.length, (from, to) -> {
+            double[] faceNorm = new double[3];
+            for (int i = from; i < to; i++)
+                norm[i] = findVertexNormal(pm, start, ve, faceStart, fv, i, faceNorm);
+        });
+        recordNormalPositions();
+        return cachedNormals = norm;
+    }
+
+    /**
+     * Computes the normal of a vertex, the angle weighted average of the
+     * normals at the face corners of the vertex
+     *
+     * @param pm        Packed mesh data
+     * @param start     Vertex edges table offsets (see PackedMesh.getVertexEdgeStart())
+     * @param ve        Vertex edges table
+     * @param faceStart Face vertices table offsets (see PackedMesh.getFaceVertexStart())
+     * @param fv        Face vertices table
+     * @param i         Vertex index
+     * @param faceNorm  Temporary array of length 3
+     */
+
+    private static Vec3 findVertexNormal(PackedMesh pm, int[] start, int[] ve, int[] faceStart, int[] fv, int i,
+            double[] faceNorm) {
+        double[] p = pm.coords;
+        int[] ev = pm.edgeVertex;
+        int[] ef = pm.edgeFace;
+        Vec3 norm = new Vec3();
+        int first = start[i];
+        int last = start[i + 1] - 1;
+        int c = 3 * i;
         int pred;
-        Vec3 v1;
-        Vec3 v2;
-        Vec3 v3;
-        Vec3 normal;
         boolean added;
-        double area, angle;
-        for (int i = 0; i < vertices.length; i++) {
-            norm[i] = new Vec3();
-            int[] ve = getVertexEdges(vertices[i]);
-            if (ve.length > 1) {
-                added = false;
-                for (int j = 0; j < ve.length; ++j) {
-                    if (edges[ve[j]].face == -1)
+        double angle, len;
+        if (last < first)
+            return norm;
+        if (last > first) {
+            added = false;
+            double x = 0, y = 0, z = 0;
+            for (int j = first; j <= last; ++j) {
+                if (ef[ve[j]] == -1)
+                    continue;
+                pred = j - 1;
+                if (pred < first)
+                    pred = last;
+                int a = 3 * ev[ve[pred]];
+                int b = 3 * ev[ve[j]];
+                double x1 = p[a] - p[c], y1 = p[a + 1] - p[c + 1], z1 = p[a + 2] - p[c + 2];
+                double x2 = p[b] - p[c], y2 = p[b + 1] - p[c + 1], z2 = p[b + 2] - p[c + 2];
+                len = Math.sqrt(x1 * x1 + y1 * y1 + z1 * z1);
+                if (len > 0) {
+                    x1 /= len;
+                    y1 /= len;
+                    z1 /= len;
+                }
+                len = Math.sqrt(x2 * x2 + y2 * y2 + z2 * z2);
+                if (len > 0) {
+                    x2 /= len;
+                    y2 /= len;
+                    z2 /= len;
+                }
+                angle = Math.acos(x1 * x2 + y1 * y2 + z1 * z2);
+                double nx = y2 * z1 - z2 * y1;
+                double ny = z2 * x1 - x2 * z1;
+                double nz = x2 * y1 - y2 * x1;
+                len = Math.sqrt(nx * nx + ny * ny + nz * nz);
+                if (len > 0.001) {
+                    len = angle / len;
+                    x += nx * len;
+                    y += ny * len;
+                    z += nz * len;
+                    added = true;
+                }
+            }
+            if (!added) {
+                for (int j = first; j <= last; ++j) {
+                    if (ef[ve[j]] == -1)
                         continue;
-                    pred = j - 1;
-                    if (pred < 0)
-                        pred = ve.length - 1;
-                    v1 = vertices[edges[ve[pred]].vertex].r.minus(vertices[i].r);
-                    v2 = vertices[edges[ve[j]].vertex].r.minus(vertices[i].r);
-                    v1.normalize();
-                    v2.normalize();
-                    angle = Math.acos(v1.dot(v2));
-                    normal = v2.cross(v1);
-                    if (normal.length() > 0.001) {
-
-                        normal.normalize();
-                        if (v2.cross(v1).dot(normal) < 0)
-                            angle = 2 * Math.PI - angle;
-                        norm[i].add(normal.times(angle));
-                        added = true;
-                    }
-                }
-                if (!added) {
-                    for (int j = 0; j < ve.length; ++j) {
-                        if (edges[ve[j]].face == -1)
-                            continue;
-                        norm[i].add(faceNormals[edges[ve[j]].face]);
-                    }
+                    findFaceNormal(p, faceStart, fv, ef[ve[j]], faceNorm);
+                    x += faceNorm[0];
+                    y += faceNorm[1];
+                    z += faceNorm[2];
                 }
-                norm[i].normalize();
-            } else {
-                norm[i] = (vertices[edges[ve[0]].vertex].r
-                        .minus(vertices[edges[edges[ve[0]].hedge].vertex].r));
-                norm[i].normalize();
             }
+            norm.set(x, y, z);
+            norm.normalize();
+        } else {
+            int a = 3 * ev[ve[first]];
+            int b = 3 * ev[pm.edgeHedge[ve[first]]];
+            norm.set(p[a] - p[b], p[a + 1] - p[b + 1], p[a + 2] - p[b + 2]);
+            norm.normalize();
         }
-        return cachedNormals = norm;
+        return norm;
     }
 
     /**
@@ -2554,83 +2768,98 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public Vec3[] getEdgeNormals() {
+        if (normalsMoved)
+            updateNormals();
         if (cachedEdgeNormals != null)
             return cachedEdgeNormals;
 
         Vec3[] normals = getNormals();
         Vec3[] faceNormals = getFaceNormals();
         Vec3 norm[] = new Vec3[edges.length];
+        for (int i = 0; i < edges.length / 2; i++)
+            findEdgeNormals(i, normals, faceNormals, norm);
+        recordNormalPositions();
+        return cachedEdgeNormals = norm;
+    }
+
+    /**
+     * Computes the normals of an edge and of its half edge
+     *
+     * @param i           Edge index, lower than edges.length / 2
+     * @param normals     Vertex normals
+     * @param faceNormals Face normals
+     * @param norm        Edge normals, where the normals are stored
+     */
+
+    private void findEdgeNormals(int i, Vec3[] normals, Vec3[] faceNormals, Vec3[] norm) {
         Vec3 v;
         int vi;
         int hvi;
         int pvi;
         int phvi;
-        int nvi;
-        int nhvi;
-        Vec3 vn;
-        Vec3 hvn;
-        for (int i = 0; i < edges.length / 2; i++) {
-            vi = edges[i].vertex;
-            hvi = edges[edges[i].hedge].vertex;
-            pvi = edges[i].hedge;
-            while (edges[pvi].next != i)
-                pvi = edges[edges[pvi].next].hedge;
-            pvi = edges[edges[pvi].hedge].vertex;
-            phvi = i;
-            while (edges[phvi].next != edges[i].hedge)
-                phvi = edges[edges[phvi].next].hedge;
-            phvi = edges[edges[phvi].hedge].vertex;
-            nvi = edges[edges[i].next].vertex;
-            nhvi = edges[edges[edges[i].hedge].next].vertex;
-            if (edges[i].face != -1) {
-                vn = vertices[vi].r.minus(vertices[hvi].r).cross(
-                        vertices[nvi].r.minus(vertices[hvi].r));
-                if (vn.length() > 1e-6)
-                    vn.normalize();
-                else
-                    vn = faceNormals[edges[i].face];
-            } else
-                vn = new Vec3();
-            if (edges[edges[i].hedge].face != -1) {
-                hvn = vertices[phvi].r.minus(vertices[hvi].r).cross(
-                        vertices[vi].r.minus(vertices[hvi].r));
-                if (hvn.length() > 1e-6)
-                    hvn.normalize();
-                else
-                    hvn = faceNormals[edges[edges[i].hedge].face];
-            } else
-                hvn = new Vec3();
-            v = vn.plus(hvn);
-            if (v.length() < 1e-6)
-                v = normals[vi].plus(normals[hvi]);
-            v.normalize();
-            norm[i] = v;
-
-            if (edges[i].face != -1) {
-                vn = vertices[pvi].r.minus(vertices[vi].r).cross(
-                        vertices[hvi].r.minus(vertices[vi].r));
-                if (vn.length() > 1e-6)
-                    vn.normalize();
-                else
-                    vn = faceNormals[edges[i].face];
-            } else
-                vn = new Vec3();
-            if (edges[edges[i].hedge].face != -1) {
-                hvn = vertices[hvi].r.minus(vertices[vi].r).cross(
-                        vertices[nhvi].r.minus(vertices[vi].r));
-                if (hvn.length() > 1e-6)
-                    hvn.normalize();
-                else
-                    hvn = faceNormals[edges[edges[i].hedge].face];
-            } else
-                hvn = new Vec3();
-            v = vn.plus(hvn);
-            if (v.length() < 1e-6)
-                v = normals[vi].plus(normals[hvi]);
-            v.normalize();
-            norm[edges[i].hedge] = v;
-        }
-        return cachedEdgeNormals = norm;
+        int nvi;
+        int nhvi;
+        Vec3 vn;
+        Vec3 hvn;
+        vi = edges[i].vertex;
+        hvi = edges[edges[i].hedge].vertex;
+        pvi = edges[i].hedge;
+        while (edges[pvi].next != i)
+            pvi = edges[edges[pvi].next].hedge;
+        pvi = edges[edges[pvi].hedge].vertex;
+        phvi = i;
+        while (edges[phvi].next != edges[i].hedge)
+            phvi = edges[edges[phvi].next].hedge;
+        phvi = edges[edges[phvi].hedge].vertex;
+        nvi = edges[edges[i].next].vertex;
+        nhvi = edges[edges[edges[i].hedge].next].vertex;
+        if (edges[i].face != -1) {
+            vn = vertices[vi].r.minus(vertices[hvi].r).cross(
+                    vertices[nvi].r.minus(vertices[hvi].r));
+            if (vn.length() > 1e-6)
+                vn.normalize();
+            else
+                vn = faceNormals[edges[i].face];
+        } else
+            vn = new Vec3();
+        if (edges[edges[i].hedge].face != -1) {
+            hvn = vertices[phvi].r.minus(vertices[hvi].r).cross(
+                    vertices[vi].r.minus(vertices[hvi].r));
+            if (hvn.length() > 1e-6)
+                hvn.normalize();
+            else
+                hvn = faceNormals[edges[edges[i].hedge].face];
+        } else
+            hvn = new Vec3();
+        v = vn.plus(hvn);
+        if (v.length() < 1e-6)
+            v = normals[vi].plus(normals[hvi]);
+        v.normalize();
+        norm[i] = v;
+
+        if (edges[i].face != -1) {
+            vn = vertices[pvi].r.minus(vertices[vi].r).cross(
+                    vertices[hvi].r.minus(vertices[vi].r));
+            if (vn.length() > 1e-6)
+                vn.normalize();
+            else
+                vn = faceNormals[edges[i].face];
+        } else
+            vn = new Vec3();
+        if (edges[edges[i].hedge].face != -1) {
+            hvn = vertices[hvi].r.minus(vertices[vi].r).cross(
+                    vertices[nhvi].r.minus(vertices[vi].r));
+            if (hvn.length() > 1e-6)
+                hvn.normalize();
+            else
+                hvn = faceNormals[edges[edges[i].hedge].face];
+        } else
+            hvn = new Vec3();
+        v = vn.plus(hvn);
+        if (v.length() < 1e-6)
+            v = normals[vi].plus(normals[hvi]);
+        v.normalize();
+        norm[edges[i].hedge] = v;
     }
 
     public Vec3 getEdgePosition(int edge) {
@@ -2657,31 +2886,219 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public Vec3[] getFaceNormals() {
+        if (normalsMoved)
+            updateNormals();
         if (cachedFaceNormals != null)
             return cachedFaceNormals;
 
         Vec3 norm[] = new Vec3[faces.length];
-        int pred;
-        int next;
-        Vec3 v1;
-        Vec3 v2;
-        for (int i = 0; i < faces.length; i++) {
-            int[] vf = getFaceVertices(faces[i]);
-            norm[i] = new Vec3();
-            for (int j = 0; j < vf.length; ++j) {
-                pred = j - 1;
-                if (pred < 0)
-                    pred = vf.length - 1;
-                next = j + 1;
-                if (next >= vf.length)
-                    next = 0;
-                v1 = vertices[vf[j]].r.minus(vertices[vf[pred]].r);
-                v2 = vertices[vf[next]].r.minus(vertices[vf[j]].r);
-                norm[i].add(v1.cross(v2));
+        PackedMesh pm = getPackedMesh();
+        double[] p = pm.coords;
+        int[] start = pm.getFaceVertexStart();
+        int[] fv = pm.getFaceVertexList();
+        QuadMesh.forEachRange(faces.length, (from, to) -> {
+            double[] n = new double[3];
+            for (int i = from; i < to; i++) {
+                findFaceNormal(p, start, fv, i, n);
+                norm[i] = new Vec3(n[0], n[1], n[2]);
+            }
+        });
+        recordNormalPositions();
+        return cachedFaceNormals = norm;
+    }
+
+    /**
+     * Records the vertex positions the cached normals are computed for, when
+     * the first of them is computed
+     */
+
+    private void recordNormalPositions() {
+        if (normalPositions != null)
+            return;
+        double[] pos = new double[vertices.length * 3];
+        for (int i = 0, j = 0; i < vertices.length; i++, j += 3) {
+            pos[j] = vertices[i].r.x;
+            pos[j + 1] = vertices[i].r.y;
+            pos[j + 2] = vertices[i].r.z;
+        }
+        normalPositions = pos;
+    }
+
+    /**
+     * Updates the cached normals after vertices moved. Only the normals of the
+     * faces around the moved vertices, and the vertex and edge normals of these
+     * faces, are computed again. If too many vertices moved, the cached normals
+     * are dropped instead and will be computed from scratch.
+     */
+
+    private void updateNormals() {
+        normalsMoved = false;
+        double[] old = normalPositions;
+        if (old == null || old.length != vertices.length * 3) {
+            cachedNormals = null;
+            cachedEdgeNormals = null;
+            cachedFaceNormals = null;
+            normalPositions = null;
+            return;
+        }
+        int limit = Math.max(1, vertices.length / 8);
+        int[] moved = new int[16];
+        int count = 0;
+        for (int i = 0, j = 0; i < vertices.length && count <= limit; i++, j += 3) {
+            Vec3 r = vertices[i].r;
+            if (r.x != old[j] || r.y != old[j + 1] || r.z != old[j + 2]) {
+                if (count == moved.length)
+                    moved = Arrays.copyOf(moved, count * 2);
+                moved[count++] = i;
             }
-            norm[i].normalize();
         }
-        return cachedFaceNormals = norm;
+        if (count == 0)
+            return;
+        if (count > limit) {
+            cachedNormals = null;
+            cachedEdgeNormals = null;
+            cachedFaceNormals = null;
+            normalPositions = null;
+            return;
+        }
+        for (int k = 0; k < count; k++) {
+            int j = 3 * moved[k];
+            Vec3 r = vertices[moved[k]].r;
+            old[j] = r.x;
+            old[j + 1] = r.y;
+            old[j + 2] = r.z;
+        }
+
+        // faces around the moved vertices, and vertices of these faces
+
+        PackedMesh pm = getPackedMesh();
+        int[] ev = pm.edgeVertex;
+        int[] ef = pm.edgeFace;
+        int[] start = pm.getVertexEdgeStart();
+        int[] ve = pm.getVertexEdgeList();
+        int[] faceStart = pm.getFaceVertexStart();
+        int[] fv = pm.getFaceVertexList();
+        int[] movedFaces = new int[16];
+        int faceCount = 0;
+        for (int k = 0; k < count; k++) {
+            for (int j = start[moved[k]]; j < start[moved[k] + 1]; j++) {
+                if (ef[ve[j]] == -1)
+                    continue;
+                if (faceCount == movedFaces.length)
+                    movedFaces = Arrays.copyOf(movedFaces, faceCount * 2);
+                movedFaces[faceCount++] = ef[ve[j]];
+            }
+        }
+        faceCount = sortUnique(movedFaces, faceCount);
+        int[] ring = Arrays.copyOf(moved, count + 16);
+        int ringCount = count;
+        for (int k = 0; k < count; k++) {
+            for (int j = start[moved[k]]; j < start[moved[k] + 1]; j++) {
+                if (ringCount == ring.length)
+                    ring = Arrays.copyOf(ring, ringCount * 2);
+                ring[ringCount++] = ev[ve[j]];
+            }
+        }
+        for (int k = 0; k < faceCount; k++) {
+            for (int j = faceStart[movedFaces[k]]; j < faceStart[movedFaces[k] + 1]; j++) {
+                if (ringCount == ring.length)
+                    ring = Arrays.copyOf(ring, ringCount * 2);
+                ring[ringCount++] = fv[j];
+            }
+        }
+        ringCount = sortUnique(ring, ringCount);
+
+        // The arrays given out before are left as they are.
+
+        double[] n = new double[3];
+        if (cachedFaceNormals != null) {
+            Vec3[] norm = cachedFaceNormals.clone();
+            for (int k = 0; k < faceCount; k++) {
+                findFaceNormal(pm.coords, faceStart, fv, movedFaces[k], n);
+                norm[movedFaces[k]] = new Vec3(n[0], n[1], n[2]);
+            }
+            cachedFaceNormals = norm;
+        }
+        if (cachedNormals != null) {
+            Vec3[] norm = cachedNormals.clone();
+            for (int k = 0; k < ringCount; k++)
+                norm[ring[k]] = findVertexNormal(pm, start, ve, faceStart, fv, ring[k], n);
+            cachedNormals = norm;
+        }
+        if (cachedEdgeNormals != null) {
+            int half = edges.length / 2;
+            int[] ringEdges = new int[16];
+            int edgeCount = 0;
+            for (int k = 0; k < ringCount; k++) {
+                for (int j = start[ring[k]]; j < start[ring[k] + 1]; j++) {
+                    if (edgeCount == ringEdges.length)
+                        ringEdges = Arrays.copyOf(ringEdges, edgeCount * 2);
+                    ringEdges[edgeCount++] = (ve[j] < half ? ve[j] : edges[ve[j]].hedge);
+                }
+            }
+            edgeCount = sortUnique(ringEdges, edgeCount);
+            Vec3[] normals = getNormals();
+            Vec3[] faceNormals = getFaceNormals();
+            Vec3[] norm = cachedEdgeNormals.clone();
+            for (int k = 0; k < edgeCount; k++)
+                findEdgeNormals(ringEdges[k], normals, faceNormals, norm);
+            cachedEdgeNormals = norm;
+        }
+    }
+
+    /**
+     * Sorts the first values of an array and removes duplicates
+     *
+     * @return The number of distinct values, stored at the start of the array
+     */
+
+    private static int sortUnique(int[] values, int count) {
+        Arrays.sort(values, 0, count);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || values[i] != values[unique - 1])
+                values[unique++] = values[i];
+        }
+        return unique;
+    }
+
+    /**
+     * Computes the unit normal of a face from the cross products at each of
+     * its corners
+     *
+     * @param p      Vertex positions, x y z for each vertex
+     * @param start  Face vertices table offsets (see PackedMesh.getFaceVertexStart())
+     * @param fv     Face vertices table
+     * @param f      Face index
+     * @param norm   Where the normal is stored, x y z
+     */
+
+    private static void findFaceNormal(double[] p, int[] start, int[] fv, int f, double[] norm) {
+
+        // sum of the cross products at each face corner
+
+        int first = start[f];
+        int last = start[f + 1] - 1;
+        double nx = 0, ny = 0, nz = 0;
+        for (int j = first; j <= last; ++j) {
+            int prev = 3 * fv[j == first ? last : j - 1];
+            int cur = 3 * fv[j];
+            int next = 3 * fv[j == last ? first : j + 1];
+            double x1 = p[cur] - p[prev], y1 = p[cur + 1] - p[prev + 1], z1 = p[cur + 2] - p[prev + 2];
+            double x2 = p[next] - p[cur], y2 = p[next + 1] - p[cur + 1], z2 = p[next + 2] - p[cur + 2];
+            nx += y1 * z2 - z1 * y2;
+            ny += z1 * x2 - x1 * z2;
+            nz += x1 * y2 - y1 * x2;
+        }
+        double len = Math.sqrt(nx * nx + ny * ny + nz * nz);
+        if (len > 0) {
+            nx /= len;
+            ny /= len;
+            nz /= len;
+        }
+        norm[0] = nx;
+        norm[1] = ny;
+        norm[2] = nz;
     }
 
     /**
@@ -2690,6 +3107,8 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      * @return The edges value
      */
     public Wedge[] getEdges() {
+        unshareEdges();
+        edgesOut = true;
         return edges;
     }
 
@@ -2700,6 +3119,34 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public Wface[] getFaces() {
+        unshareFaces();
+        facesOut = true;
+        return faces;
+    }
+
+    /**
+     * Returns the mesh vertices for reading. Unlike getVertices(), this does
+     * not copy vertices shared with copies of this mesh (see shareArrays()), so
+     * neither the array nor the vertices may be modified.
+     */
+
+    Wvertex[] getSharedVertices() {
+        return vertices;
+    }
+
+    /**
+     * Returns the mesh edges for reading, see getSharedVertices()
+     */
+
+    Wedge[] getSharedEdges() {
+        return edges;
+    }
+
+    /**
+     * Returns the mesh faces for reading, see getSharedVertices()
+     */
+
+    Wface[] getSharedFaces() {
         return faces;
     }
 
@@ -2713,12 +3160,45 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public void setMeshTopology(Wvertex[] v, Wedge[] e, Wface[] f) {
+        releaseArrays();
         vertices = v;
         edges = e;
         faces = f;
+        verticesOut = edgesOut = facesOut = true;
         resetMesh();
     }
 
+    /**
+     * Sets the mesh vertices, edges and faces from packed arrays.
+     *
+     * @param packed The packed mesh data
+     */
+
+    public void setMeshTopology(PackedMesh packed) {
+        setMeshTopology(packed.toVertices(this), packed.toEdges(this), packed.toFaces(this));
+    }
+
+    /**
+     * Returns a structure of arrays view of this mesh. It is a cached copy, the
+     * mesh storage stays the Wvertex, Wedge and Wface arrays. The copy is kept
+     * until resetMesh() is called or the mesh arrays are replaced. When only
+     * the vertex positions change (see setVertexPositions()), the coordinates
+     * are refreshed on the next call.
+     *
+     * @return The packed mesh data
+     */
+
+    public synchronized PackedMesh getPackedMesh() {
+        if (packedMesh == null || !packedMesh.isPackedFrom(vertices, edges, faces))
+            packedMesh = new PackedMesh(vertices, edges, faces);
+        else if (packedMoved.count < 0)
+            packedMesh.setPositions(vertices);
+        else if (packedMoved.count > 0)
+            packedMesh.setPositions(vertices, packedMoved.index, packedMoved.count);
+        packedMoved.clear();
+        return packedMesh;
+    }
+
     /**
      * Get the skeleton for the object. If it does not have one, this should return null.
      * 
@@ -2793,6 +3273,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 
     @Override
     public void setSize(double xsize, double ysize, double zsize) {
+        unshareVertices();
         Vec3 size = getBounds().getSize();
         double xscale;
         double yscale;
@@ -2856,44 +3337,16 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
     public TriangleMesh convertToTriangleMesh(double tol) {
         
         if (smoothingMethod == Mesh.APPROXIMATING) {
-                QuadMesh qmesh = smoothWholeMesh(tol, true, Integer.MAX_VALUE, false);
+                QuadMesh qmesh = smoothWholeMesh(tol, true, Integer.MAX_VALUE, false, null, 0);
                 return qmesh.convertToTriangleMesh(tol);
         }
         
         TriangleMesh mesh;
-        vert = new Vector<>();
-        v1 = new Vector<>();
-        v2 = new Vector<>();
-        v3 = new Vector<>();
-        vertInfo = new Vector<>();
-        faceInfo = new Vector<>();
-        polyedge = null;
-
-        for (int i = 0; i < vertices.length; ++i) {
-            vert.add(vertices[i].r);
-            vertInfo.add(new VertexParamInfo(new int[] { i }, new double[] { 1.0 }));
-        }
-        for (int i = 0; i < faces.length; ++i) {
-            int[] vf = getFaceVertices(faces[i]);
-            if (vf.length == 3) {
-                v1.add(vf[0]);
-                v2.add(vf[1]);
-                v3.add(vf[2]);
-                if (faceInfo != null)
-                    faceInfo.add(i);
-            } else if (vf.length > 3) {
-                triangulate(vf, i, false);
-            }
-        }
-        int[][] tfaces = new int[v1.size()][3];
-        Vec3[] v = new Vec3[vert.size()];
-        for (int i = 0; i < v.length; ++i)
-            v[i] = vert.get(i);
-        for (int i = 0; i < v1.size(); ++i) {
-            tfaces[i][0] = v1.get(i);
-            tfaces[i][1] = v2.get(i);
-            tfaces[i][2] = v3.get(i);
-        }
+        PackedMesh pm = getPackedMesh();
+        Triangulation triangulation = triangulateMesh(pm);
+        int[][] tfaces = triangulation.getTriangles();
+        Vec3[] v = getTriangulationVertices(triangulation);
+        int[] polyedge = null;
         mesh = new TriangleMesh(v, tfaces);
         mesh.setSmoothingMethod(smoothingMethod);
         if (smoothingMethod != Mesh.NO_SMOOTHING) {
@@ -2976,72 +3429,10 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
         // Compute the trimesh texture parameters.
 
         ParameterValue oldParamVal[] = getParameterValues();
-        if (oldParamVal != null) {
-            ParameterValue newParamVal[] = new ParameterValue[oldParamVal.length];
-            for (int i = 0; i < oldParamVal.length; i++) {
-                if (oldParamVal[i] instanceof VertexParameterValue) {
-                    double oldval[] = ((VertexParameterValue) oldParamVal[i])
-                            .getValue();
-                    double newval[] = new double[vert.size()];
-                    for (int j = 0; j < vert.size(); ++j) {
-                        int[] vf = vertInfo.get(j).vert;
-                        double[] coef = vertInfo.get(j).coef;
-                        for (int k = 0; k < vf.length; ++k)
-                            newval[j] += coef[k] * oldval[vf[k]];
-                    }
-                    newParamVal[i] = new VertexParameterValue(newval);
-
-                } else if (oldParamVal[i] instanceof FaceParameterValue) {
-                    double oldval[] = ((FaceParameterValue) oldParamVal[i])
-                            .getValue();
-                    double newval[] = new double[faceInfo.size()];
-                    for (int j = 0; j < newval.length; ++j)
-                        newval[j] = oldval[faceInfo.get(j)];
-                    newParamVal[i] = new FaceParameterValue(newval);
-                } else if (oldParamVal[i] instanceof FaceVertexParameterValue) {
-                    FaceVertexParameterValue fvpv = (FaceVertexParameterValue) oldParamVal[i];
-                    double newval[][] = new double[v1.size()][3];
-                    for (int j = 0; j < v1.size(); ++j) {
-                        for (int k = 0; k < 3; k++) {
-                            int vertex = -1;
-                            switch (k) {
-                            case 0:
-                                vertex = v1.get(j);
-                                break;
-                            case 1:
-                                vertex = v1.get(j);
-                                break;
-                            case 2:
-                                vertex = v1.get(j);
-                                break;
-                            }
-                            int pmeFace = faceInfo.get(j);
-                            int[] fv = getFaceVertices(faces[pmeFace]);
-                            int[] vf = vertInfo.get(vertex).vert;
-                            double[] coef = vertInfo.get(vertex).coef;
-                            for (int l = 0; l < vf.length; ++l) {
-                                int vv = -1;
-                                for (int m = 0; m < fv.length; ++m) {
-                                    if (fv[m] == vf[l]) {
-                                        vv = m;
-                                        break;
-                                    }
-                                }
-                                if (vv == -1) {
-                                    System.out.println("pb per face per vertex : point doesn't belong to face");
-                                    vv = 0;
-                                }
-                                newval[j][k] += coef[l]* fvpv.getValue(pmeFace, vv);
-                            }
-
-                        }
-                    }
-                    newParamVal[i] = new FaceVertexParameterValue(newval);
-                } else
-                    newParamVal[i] = oldParamVal[i].duplicate();
-            }
-            mesh.setParameterValues(newParamVal);
-        }
+        if (oldParamVal != null)
+            mesh.setParameterValues(getTriangulationParameterValues(oldParamVal, triangulation, pm));
+        this.polyedge = polyedge;
+        this.triangulation = triangulation;
         return mesh;
     }
 
@@ -3053,13 +3444,10 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public int[] getTriangleFaceIndex() {
-        if (faceInfo == null || faceInfo.isEmpty())
+        Triangulation t = triangulation;
+        if (t == null || t.getTriangleCount() == 0)
             return null;
-        int[] fi = new int[faceInfo.size()];
-        for (int i = 0; i < fi.length; i++) {
-            fi[i] = faceInfo.get(i);
-        }
-        return fi;
+        return t.getFaces();
     }
 
     /**
@@ -3075,11 +3463,12 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public VertexParamInfo[] getTriangleVertexParamInfo() {
-        if (vertInfo == null || vertInfo.size() == 0)
+        Triangulation t = triangulation;
+        if (t == null || t.getVertexCount() == 0)
             return null;
-        VertexParamInfo[] vpi = new VertexParamInfo[vertInfo.size()];
+        VertexParamInfo[] vpi = new VertexParamInfo[t.getVertexCount()];
         for (int i = 0; i < vpi.length; i++) {
-            vpi[i] = (VertexParamInfo) vertInfo.get(i);
+            vpi[i] = new VertexParamInfo(t.getSourceVertices(i), t.getSourceWeights(i));
         }
         return vpi;
     }
@@ -3137,16 +3526,63 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
         return interactiveSmoothLevel;
     }
 
+    /**
+     * Limits the interactive smoothing level without changing the level set by
+     * the user, e.g. while dragging in an editor view (see setFrameBudget())
+     *
+     * @param limit Maximum level, 0 for no limit
+     */
+
+    public void setInteractiveLevelLimit(int limit) {
+        if (limit == interactiveLevelLimit)
+            return;
+        cachedMesh = null;
+        cachedWire = null;
+        interactiveLevelLimit = limit;
+        if (mirroredMesh != null)
+            mirroredMesh.setInteractiveLevelLimit(limit);
+    }
+
+    public int getInteractiveLevelLimit() {
+        return interactiveLevelLimit;
+    }
+
+    /**
+     * Sets the frame time budget of the mesh in the editor views. While
+     * dragging, the interactive smoothing level is lowered when a frame takes
+     * longer than the budget (see setInteractiveLevelLimit()). The level set by
+     * the user is restored when the mouse is idle.
+     *
+     * @param milliseconds Frame time budget, 0 to always use the level set by
+     *                     the user
+     */
+
+    public void setFrameBudget(int milliseconds) {
+        frameBudget = milliseconds;
+        if (frameBudget <= 0)
+            setInteractiveLevelLimit(0);
+    }
+
+    public int getFrameBudget() {
+        return frameBudget;
+    }
+
     /**
      * Resets cached data
      */
 
     public void resetMesh() {
+        packedMesh = null;
+        stencils = null;
+        stencilMesh = null;
+        cancelSmoothing();
         cachedMesh = null;
         cachedWire = null;
         cachedNormals = null;
         cachedEdgeNormals = null;
         cachedFaceNormals = null;
+        normalPositions = null;
+        normalsMoved = false;
         mirroredMesh = null;
         if (controlledSmoothing) {
             double dot;
@@ -3168,8 +3604,11 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
                                 * (minSmoothness - maxSmoothness)
                                 + maxSmoothness;
                 }
+                if (edges[i].smoothness != smoothness || edges[edges[i].hedge].smoothness != smoothness)
+                    unshareEdges();
                 edges[i].smoothness = edges[edges[i].hedge].smoothness = smoothness;
             }
+            packedMesh = null;
         }
         bounds = null;
         if (seams != null)
@@ -3190,6 +3629,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public void deleteVertices(int[] v) {
+        unshareArrays();
         boolean[] deletedVertices = new boolean[vertices.length];
         boolean[] deletedEdges = new boolean[edges.length];
         boolean[] deletedFaces = new boolean[faces.length];
@@ -3467,6 +3907,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public void deleteEdges(int[] e) {
+        unshareArrays();
         boolean[] deletedVertices = new boolean[vertices.length];
         boolean[] deletedEdges = new boolean[edges.length];
         boolean[] deletedFaces = new boolean[faces.length];
@@ -3526,6 +3967,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public void deleteFaces(boolean[] deletedFaces, boolean mirrorOp) {
+        unshareArrays();
         boolean[] deletedVertices = new boolean[vertices.length];
         boolean[] deletedEdges = new boolean[edges.length];
 
@@ -3555,6 +3997,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public boolean[] divideEdges(boolean[] sel, int nseg) {
+        unshareArrays();
         Wvertex[] newVertices;
         Wedge[] newEdges;
         double fraction;
@@ -3681,6 +4124,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public void divideAllEdgesByTwo() {
+        unshareArrays();
         Wvertex[] newVertices;
         Wedge[] newEdges;
         int[] toVert;
@@ -3792,6 +4236,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public boolean[] mergeEdges(int e1, int e2, boolean center) {
+        unshareArrays();
         // dumpMesh();
         if (edges[e1].face != -1)
             e1 = edges[e1].hedge;
@@ -3979,6 +4424,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public boolean[] mergeEdges(int e1, int e2, boolean[] sel, boolean center) {
+        unshareArrays();
         if (sel == null)
             return mergeEdges(e1, e2, center);
 
@@ -4306,6 +4752,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public void removeTwoEdgeBoundaries() {
+        unshareArrays();
         int[] edgeTable = new int[edges.length];
         boolean[] deleted = new boolean[edges.length];
         Wedge[] newEdges = null;
@@ -4452,6 +4899,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public boolean[] divideEdges(double[] fractions) {
+        unshareArrays();
         Wvertex[] newVertices;
         Wedge[] newEdges;
         double fraction;
@@ -4562,6 +5010,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public boolean[] divideEdges(boolean[] sel, double fraction) {
+        unshareArrays();
         if (fraction <= 0 || fraction >= 1)
             return new boolean[vertices.length];
         Wvertex[] newVertices;
@@ -4688,6 +5137,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public void connectVertices(boolean[] sel) {
+        unshareArrays();
         int count = 0;
         for (int i = 0; i < sel.length; ++i)
             if (sel[i])
@@ -4709,6 +5159,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public void connectVertices(int[] connect) {
+        unshareArrays();
         boolean add;
         boolean edgeShare;
         int i1;
@@ -4828,8 +5279,8 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
                     if (ll > 2)
                         continue;
                 }
-                area1 = triangulate(vf1, 0, true);
-                area2 = triangulate(vf2, 0, true);
+                area1 = triangulate(vf1, 0, null);
+                area2 = triangulate(vf2, 0, null);
                 if ((area1 < 1e-10) || (area2 < 1e-10))
                     continue;
 
@@ -5080,8 +5531,8 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 
     private boolean[] getSelectionFromMirror(PolyMesh mirroredMesh,
             boolean[] mirrorSel) {
-        MeshVertex[] mirrorVerts = mirroredMesh.getVertices();
-        Wedge[] mirrorEdges = mirroredMesh.getEdges();
+        MeshVertex[] mirrorVerts = mirroredMesh.getSharedVertices();
+        Wedge[] mirrorEdges = mirroredMesh.getSharedEdges();
         boolean[] sel = new boolean[edges.length / 2];
         Vec3 v1, v2;
         for (int i = 0; i < edges.length / 2; ++i) {
@@ -5115,8 +5566,8 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 
     private boolean[] getMirroredSelection(PolyMesh mirroredMesh,
             boolean[] selection) {
-        MeshVertex[] mirrorVerts = mirroredMesh.getVertices();
-        Wedge[] mirrorEdges = mirroredMesh.getEdges();
+        MeshVertex[] mirrorVerts = mirroredMesh.getSharedVertices();
+        Wedge[] mirrorEdges = mirroredMesh.getSharedEdges();
         boolean[] mirrorSel = new boolean[mirrorEdges.length / 2];
         Vec3 v1, v2;
         for (int i = 0; i < edges.length / 2; ++i) {
@@ -5317,7 +5768,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
             InvalidObjectException {
 
         short version = in.readShort();
-        if (version < 0 || version > 10)
+        if (version < 0 || version > 11)
             throw new InvalidObjectException("");
         if (version > 0)
             mirrorState = in.readShort();
@@ -5398,6 +5849,12 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
             selectedFaceRGBColor = ColorToRGB(selectedFaceColor);
             handleSize = in.readInt();
         }
+        if (version > 10) {
+            limitSurface = in.readBoolean();
+            featureAdaptive = in.readBoolean();
+            frameBudget = in.readInt();
+            renderMemoryBudget = in.readLong();
+        }
     }
 
     /**
@@ -5409,60 +5866,34 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public QuadMesh smoothWholeMesh(double tol, boolean calcProjectedEdges, int maxNs, boolean onePass) {
-        if (mirrorState == NO_MIRROR && !onePass) {
-            //first, check if this is a quad mesh
-            boolean quad = true;
-            for (int i = 0; i < faces.length; i++) {
-                if (getFaceVertCount(faces[i]) != 4) {
-                    quad = false;
-                    break;
-                }
-            }
-            quad = false;
-            if (quad) {
-                QuadMesh qmesh = getQuadMesh();
-                qmesh.smoothMesh(tol, calcProjectedEdges, maxNs);
-                projectedEdges = qmesh.getProjectedEdges();
-                return qmesh;
-            }
+        if (onePass)
+            unshareArrays();
+        QuadMesh qmesh = smoothWholeMesh(tol, calcProjectedEdges, maxNs, onePass, null, 0);
+        if (qmesh != null)
+            projectedEdges = qmesh.getProjectedEdges();
+        return qmesh;
+    }
+
+    /**
+     * Smooths the whole mesh, optionally for a given view. Unless onePass is
+     * set, the mesh is not modified: the projected edges are those of the
+     * returned mesh.
+     *
+     * @param view   Object to screen transform for view dependent smoothing, or null
+     * @param budget Memory the quad mesh subdivision may use, 0 for no limit
+     *               (see QuadMesh.setMemoryBudget())
+     */
+
+    private QuadMesh smoothWholeMesh(double tol, boolean calcProjectedEdges, int maxNs, boolean onePass, Mat4 view, long budget) {
+        if (!onePass && isQuadMesh() && !hasInnerMirrorEdges()) {
+            return smoothQuadMesh(tol, calcProjectedEdges, maxNs, view, null, budget);
         }
         if (!onePass) {
-            PolyMesh smoothedMesh = (PolyMesh)this.duplicate();
-            smoothedMesh.smoothWholeMesh(tol, calcProjectedEdges, maxNs, true);
-            int[] pe = null;
-            if (calcProjectedEdges) {
-                int ne = smoothedMesh.getEdges().length/2;
-                pe = new int[ne];
-                for (int i = 0; i < edges.length / 2; i++) {
-                    pe[i] = i;
-                    pe[i + edges.length / 2] = i;
-                }
-                for (int i = edges.length; i < ne; i++) {
-                    pe[i] = -1;
-                }
-            }
-            closed = smoothedMesh.isClosed();
-            QuadMesh qmesh = smoothedMesh.getQuadMesh();
-            int nfaces = smoothedMesh.getFaces().length;
-            QuadFace[] qfaces = qmesh.getFaces();
-            for (int i = 0; i < nfaces; i++) {
-                if (smoothedMesh.subdivideFaces[i]) {
-                    qfaces[i].mark = QuadFace.SUBDIVIDE;
-                } else {
-                    qfaces[i].mark = QuadFace.FINAL;
-                }
-            }
-            if (maxNs > 1) {
-                qmesh.smoothMesh(tol, calcProjectedEdges, 1, pe, maxNs);
-            } else  {
-                qmesh.setProjectedEdges(pe);
-            }
-            projectedEdges = qmesh.getProjectedEdges();
-            return qmesh;
+            return smoothGeneralMesh(tol, calcProjectedEdges, maxNs, view, budget);
         }
         int ns = 0;
         int originalVert = vertices.length;
-        Vec3[] normals = getNormals();
+        SubdivisionScratch scratch = SubdivisionScratch.get();
         int[] newProjectedEdges = null;
         if (calcProjectedEdges) {
             if (projectedEdges == null || projectedEdges.length != edges.length / 2) {
@@ -5477,17 +5908,24 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
         // first, edges selection
 
         int faceNum = faces.length;
-        Wedge e;
-        Vec3 pt;
-        Vec3[] facePos = new Vec3[faces.length];
+        double[] facePos = scratch.getFacePositions(faces.length);
         for (int i = 0; i < faces.length; ++i) {
-            int[] vf = getFaceVertices(faces[i]);
-            pt = new Vec3();
-            for (int j = 0; j < vf.length; ++j) {
-                pt.add(vertices[vf[j]].r);
-            }
-            pt.scale(1.0 / vf.length);
-            facePos[i] = pt;
+            int ed = faces[i].edge;
+            int start = edges[ed].vertex;
+            int n = 0;
+            double x = 0, y = 0, z = 0;
+            do {
+                Vec3 r = vertices[edges[ed].vertex].r;
+                x += r.x;
+                y += r.y;
+                z += r.z;
+                ++n;
+                ed = edges[ed].next;
+            } while (edges[ed].vertex != start && n < edges.length);
+            double scale = 1.0 / n;
+            facePos[3 * i] = x * scale;
+            facePos[3 * i + 1] = y * scale;
+            facePos[3 * i + 2] = z * scale;
         }
 
         // edge subdivision
@@ -5498,7 +5936,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 
         float[] edgeSmoothness = null;
         if (mirrorState != NO_MIRROR) {
-            edgeSmoothness = new float[edges.length];
+            edgeSmoothness = scratch.getEdgeSmoothness(edges.length);
             for (int i = 0; i < edges.length / 2; i++) {
                 edgeSmoothness[i] = edges[i].smoothness;
                 edgeSmoothness[edges[i].hedge] = edges[edges[i].hedge].smoothness;
@@ -5538,20 +5976,23 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 
         for (int i = 0; i < vertices.length; ++i)
             newVert[i] = new Wvertex(vertices[i]);
-        VertexParamInfo[] vertParamInfo = new VertexParamInfo[newVert.length
-                - vertices.length];
+
+        // the vertices around each face, which are averaged for texture parameters
+
+        int[] faceVertStart = scratch.getFaceVertexStart(faces.length + 1);
+        int[] faceVertList = scratch.getFaceVertexList(edges.length);
         int count = 0;
-        int index = 0;
         for (int i = 0; i < faces.length; ++i) {
-            int[] vf = getFaceVertices(faces[i]);
-            double[] coef = new double[vf.length];
-            for (int j = 0; j < vf.length; ++j)
-                coef[j] = 1.0 / ((double) vf.length);
-            count += vf.length;
-            newVert[addedVert + index] = new Wvertex(facePos[i], -1);
-            vertParamInfo[index] = new VertexParamInfo(vf, coef);
-            index++;
-        }
+            faceVertStart[i] = count;
+            int ed = faces[i].edge;
+            int start = edges[ed].vertex;
+            do {
+                faceVertList[count++] = edges[ed].vertex;
+                ed = edges[ed].next;
+            } while (edges[ed].vertex != start && count < edges.length);
+            newVert[addedVert + i] = new Wvertex(new Vec3(facePos[3 * i], facePos[3 * i + 1], facePos[3 * i + 2]), -1);
+        }
+        faceVertStart[faces.length] = count;
         count /= 2;
 
         // BTW, now we know how many more edges and faces
@@ -5567,16 +6008,14 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
         }
 
         Wface[] newFaces = new Wface[count + faces.length - faceNum];
-        boolean[] movedVert = null;
         subdivideFaces = null;
         if (tol > 0 ) {
             subdivideFaces = new boolean[newFaces.length];
-            movedVert = new boolean[newVert.length];
         }
 
         // Face table will help keep track, which is which, at texture parameter computation time
 
-        int[] paramFaceTable = new int[newFaces.length];
+        int[] paramFaceTable = scratch.getFaceTable(newFaces.length);
 
         for (int i = 0; i < edges.length / 2; ++i) {
             newEdges[i] = new Wedge(edges[i]);
@@ -5595,26 +6034,20 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 
         int face1;
         int face2;
-        Vec3 pt1;
-        Vec3 pt2;
-        double smoothness, dist;
+        double smoothness;
 
         // location of old vertices
 
         int n;
-        Vec3 pos, oldPos;
+        Vec3 oldPos;
         int v1;
         int v2;
         int sharp;
         double weight;
         double maxHard;
-        int[] hardEdge = new int[2];
-        int[] sharpEdge = new int[2];
-        double[] smoothEdgeValue = new double[10];
-        sharpEdge[1] = sharpEdge[0] = -1;
-        smoothEdgeValue[1] = smoothEdgeValue[0] = 1;
+        int hardEdge0 = -1, hardEdge1 = -1;
+        int sharpEdge0 = -1, sharpEdge1 = -1;
         int hardnum;
-        Vec3 sharpPt;
 
         // BLZ algorithm
 
@@ -5622,30 +6055,30 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 
             // adjacent polygons
 
-            int ve[] = getVertexEdges(vertices[i]);
-            if (ve.length > smoothEdgeValue.length) {
-                smoothEdgeValue = new double[ve.length];
-            }
+            n = getVertexEdges(vertices[i], scratch);
+            int ve[] = scratch.getVertexEdges(n);
             hardnum = 0;
-            n = ve.length;
             sharp = 0;
             weight = 0;
             oldPos = newVert[i].r;
-            pos = new Vec3();
+            double px = 0, py = 0, pz = 0;
             count = 0;
             maxHard = 0.0;
-            for (int j = 0; j < ve.length; ++j) {
-                smoothEdgeValue[j] = 0.0;
+            for (int j = 0; j < n; ++j) {
                 face1 = edges[ve[j]].face;
                 face2 = edges[edges[ve[j]].hedge].face;
+                Vec3 r = vertices[edges[edges[ve[j]].next].vertex].r;
                 if (face1 != -1) {
-                    pos.add(facePos[face1]);
-                    pos.subtract(vertices[edges[edges[ve[j]].next].vertex].r.times(1.0 / 4.0));
-                    pos.subtract(vertices[edges[edges[edges[getPreviousEdge(ve[j])].hedge].next].vertex].r.times(1.0 / 4.0));
-                    pos.subtract(vertices[i].r.times(1.0 / 4.0));
+                    Vec3 r2 = vertices[edges[edges[edges[getPreviousEdge(ve[j])].hedge].next].vertex].r;
+                    Vec3 r3 = vertices[i].r;
+                    px += facePos[3 * face1] - (r.x + r2.x + r3.x) / 4.0;
+                    py += facePos[3 * face1 + 1] - (r.y + r2.y + r3.y) / 4.0;
+                    pz += facePos[3 * face1 + 2] - (r.z + r2.z + r3.z) / 4.0;
                     ++count;
                 }
-                pos.add(vertices[edges[edges[ve[j]].next].vertex].r.times(3.0 / 2.0));
+                px += r.x * 1.5;
+                py += r.y * 1.5;
+                pz += r.z * 1.5;
                 if (mirrorState == NO_MIRROR)
                     smoothness = edges[ve[j]].smoothness;
                 else
@@ -5655,86 +6088,79 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
                 else
                     smoothness = QuadMesh.MAX_SMOOTHNESS; // boundary edges are treated as hard edges.
                 if (ns + 1 <= smoothness) {
-                    if (sharp < 2)
-                    {    sharpEdge[sharp] = ve[j];
-                    }
+                    if (sharp == 0)
+                        sharpEdge0 = ve[j];
+                    else if (sharp == 1)
+                        sharpEdge1 = ve[j];
                     ++sharp;
                 } else if (ns < smoothness) {
                     weight += smoothness - ns;
-                    smoothEdgeValue[j] = smoothness - ns;
-                    if (smoothEdgeValue[j] > maxHard) {
-                        maxHard = smoothEdgeValue[j];
+                    if (smoothness - ns > maxHard) {
+                        maxHard = smoothness - ns;
                     }
-                    if (hardnum < 2)
-                        hardEdge[hardnum] = ve[j];
+                    if (hardnum == 0)
+                        hardEdge0 = ve[j];
+                    else if (hardnum == 1)
+                        hardEdge1 = ve[j];
                     ++hardnum;
                 }
 
             }
-            pos.scale(1.0 / ((double) count * count));
-            pos.add(vertices[i].r.times(1.0 - 3.0 / (2.0 * count) - 1.0
-                    / (4.0 * count)));
+            double scale = 1.0 / ((double) count * count);
+            double keep = 1.0 - 3.0 / (2.0 * count) - 1.0 / (4.0 * count);
+            px = px * scale + vertices[i].r.x * keep;
+            py = py * scale + vertices[i].r.y * keep;
+            pz = pz * scale + vertices[i].r.z * keep;
             if (vertices[i].type != Wvertex.CORNER ) {
+
+                // the new position blends a smooth position (p) and a hard one (h)
+
+                double hx = oldPos.x, hy = oldPos.y, hz = oldPos.z;
+                double t = 0.0;
                 switch (sharp) {
                 case 0:
-                    if (hardnum <= 1) {
-                        newVert[i].r = pos;
-                    }
-                    else if (hardnum == 2) {
-                        weight /= 2;
-                        sharpPt = new Vec3(newVert[i].r.times(0.75));
-                        sharpPt.add(vertices[edges[edges[hardEdge[0]].next].vertex].r.times(0.125));
-                        sharpPt.add(vertices[edges[edges[hardEdge[1]].next].vertex].r.times(0.125));
-                        newVert[i].r = pos.times(1 - weight).plus(sharpPt.times(weight));
-                    } else {
-                        weight /= hardnum;
-                        newVert[i].r = pos.times(1 - weight).plus(
-                                newVert[i].r.times(weight));
+                    if (hardnum == 2) {
+                        t = weight / 2;
+                        Vec3 ra = vertices[edges[edges[hardEdge0].next].vertex].r;
+                        Vec3 rb = vertices[edges[edges[hardEdge1].next].vertex].r;
+                        hx = oldPos.x * 0.75 + ra.x * 0.125 + rb.x * 0.125;
+                        hy = oldPos.y * 0.75 + ra.y * 0.125 + rb.y * 0.125;
+                        hz = oldPos.z * 0.75 + ra.z * 0.125 + rb.z * 0.125;
+                    } else if (hardnum > 2) {
+                        t = weight / hardnum;
                     }
                     break;
                 case 1:
-                    if (hardnum == 0) {
-                        newVert[i].r = pos;
-                    }
-                    else if (hardnum == 1) {
-                        newVert[i].r = pos.times(1 - maxHard).plus(
-                                newVert[i].r.times(maxHard));
-                    } else {
-                        weight /= hardnum;
-                        newVert[i].r = pos.times(1 - weight).plus(
-                                newVert[i].r.times(weight));
+                    if (hardnum == 1) {
+                        t = maxHard;
+                    } else if (hardnum > 1) {
+                        t = weight / hardnum;
                     }
                     break;
                 case 2:
-                    sharpPt = new Vec3(newVert[i].r.times(0.75));
-                    sharpPt.add(vertices[edges[edges[sharpEdge[0]].next].vertex].r.times(0.125));
-                    sharpPt.add(vertices[edges[edges[sharpEdge[1]].next].vertex].r.times(0.125));
-                    if (hardnum == 0) {
-                        newVert[i].r = sharpPt;
-                    }
-                    else {
-                        weight /= hardnum;
-                        newVert[i].r = sharpPt.times(1 - weight).plus(
-                                newVert[i].r.times(weight));
+                    Vec3 ra = vertices[edges[edges[sharpEdge0].next].vertex].r;
+                    Vec3 rb = vertices[edges[edges[sharpEdge1].next].vertex].r;
+                    px = oldPos.x * 0.75 + ra.x * 0.125 + rb.x * 0.125;
+                    py = oldPos.y * 0.75 + ra.y * 0.125 + rb.y * 0.125;
+                    pz = oldPos.z * 0.75 + ra.z * 0.125 + rb.z * 0.125;
+                    if (hardnum > 0) {
+                        t = weight / hardnum;
                     }
                     break;
                 default:
-                    newVert[i].r = new Vec3(vertices[i].r);
+                    px = hx;
+                    py = hy;
+                    pz = hz;
                     break;
                 }
-                if (tol > 0 ) {
-                    dist = newVert[i].r.distance(oldPos);
-                    if (dist > tol) {
-                        movedVert[i] = true;
-                    }
-                }                
+                newVert[i].r = new Vec3(px * (1 - t) + hx * t, py * (1 - t) + hy * t, pz * (1 - t) + hz * t);
             }
         }
 
         // location of the new midpoints
 
         int v3, v4, v5, v6;
-        Vec3 v1r, v2r, v3r, v4r, v5r, v6r;
+        Vec3 v1r, v2r;
         int e1, e2, e1h, e2h;
         double gamma;
         for (int i = originalVert; i < addedVert; ++i) {
@@ -5751,10 +6177,6 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
             v6 = edges[edges[e2].next].vertex;
             v1r = vertices[v1].r;
             v2r = vertices[v2].r;
-            v3r = vertices[v3].r.minus(v1r).times(2).plus(v1r);
-            v4r = vertices[v4].r.minus(v1r).times(2).plus(v1r);
-            v5r = vertices[v5].r.minus(v2r).times(2).plus(v2r);
-            v6r = vertices[v6].r.minus(v2r).times(2).plus(v2r);
             if (mirrorState == NO_MIRROR)
                 smoothness = edges[e1].smoothness;
             else
@@ -5762,56 +6184,37 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
             smoothness = (1.0 - smoothness) * QuadMesh.MAX_SMOOTHNESS;
             face1 = edges[e1].face;
             face2 = edges[e2].face;
-            // System.out.println( i + " " + face1 + " " + face2 );
-            pt = null;
             if (face1 == -1 || face2 == -1)
                 continue;
+            if (ns + 1 <= smoothness)
+                continue; // hard edge, do nothing
             gamma = 3.0 / 8.0;
             if (vertices[v1].type == Wvertex.CREASE) {
-                int k = getVertexEdges(vertices[v1]).length;
+                int k = getVertexEdges(vertices[v1], scratch);
                 gamma = 3.0 / 8.0 - Math.cos(Math.PI / (double) k) / 4.0;
             }
             if (vertices[v2].type == Wvertex.CREASE) {
-                int k = getVertexEdges(vertices[v2]).length;
+                int k = getVertexEdges(vertices[v2], scratch);
                 gamma = 3.0 / 8.0 + Math.cos(Math.PI / (double) k) / 4.0;
             }
-            if (ns + 1 <= smoothness) {
-                // hard edge, do nothing
-            } else if (ns < smoothness) {
+
+            // the far vertices are taken at twice their distance to the edge ends
+
+            Vec3 r3 = vertices[v3].r, r4 = vertices[v4].r, r5 = vertices[v5].r, r6 = vertices[v6].r;
+            double a = 3.0 / 4.0 - gamma;
+            double x = v1r.x * a + v2r.x * gamma + (r3.x + r4.x - v1r.x + r5.x + r6.x - v2r.x) / 8.0;
+            double y = v1r.y * a + v2r.y * gamma + (r3.y + r4.y - v1r.y + r5.y + r6.y - v2r.y) / 8.0;
+            double z = v1r.z * a + v2r.z * gamma + (r3.z + r4.z - v1r.z + r5.z + r6.z - v2r.z) / 8.0;
+            if (ns < smoothness) {
 
                 // in between position
 
-                pt = new Vec3(v1r);
-                pt.scale(3.0 / 4.0 - gamma);
-                pt.add(v2r.times(gamma));
-                pt2 = new Vec3(v3r);
-                pt2.add(v4r);
-                pt2.add(v5r);
-                pt2.add(v6r);
-                pt2.scale(1.0 / 16.0);
-                pt.add(pt2);
-                pt2 = newVert[i].r;
-                newVert[i].r = pt2.times(smoothness - ns).plus(pt.times(1 - (smoothness - ns)));
-            } else {
-                pt = new Vec3(v1r);
-                pt.scale(3.0 / 4.0 - gamma);
-                pt.add(v2r.times(gamma));
-                pt2 = new Vec3(v3r);
-                pt2.add(v4r);
-                pt2.add(v5r);
-                pt2.add(v6r);
-                pt2.scale(1.0 / 16.0);
-                pt.add(pt2);
-                newVert[i].r = pt;
+                double t = smoothness - ns;
+                x = oldPos.x * t + x * (1 - t);
+                y = oldPos.y * t + y * (1 - t);
+                z = oldPos.z * t + z * (1 - t);
             }
-            if (tol > 0 && !onePass) {
-                v1r = normals[v1].plus(normals[v2]);
-                v1r.normalize();
-                dist = Math.abs(newVert[i].r.minus(oldPos).dot(v1r));
-                if (dist > tol) {
-                    movedVert[i] = true;
-                }
-            }            
+            newVert[i].r = new Vec3(x, y, z);
         }
 
         // new edges
@@ -5822,8 +6225,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
         int ref2;
         int next;
         for (int i = 0; i < faceNum; ++i) {
-            int[] vf = getFaceVertices(faces[i]);
-            n = vf.length / 2;
+            n = (faceVertStart[i + 1] - faceVertStart[i]) / 2;
             newFaces[faceCount] = new Wface(count);
             paramFaceTable[faceCount] = i;
             ref1 = faces[i].edge;
@@ -5883,56 +6285,29 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
         // Per face per vertex texture
 
         ParameterValue oldParamVal[] = getParameterValues();
-        ParameterValue newParamVal[] = new ParameterValue[oldParamVal.length];
-        int[][] oldFaceVert = null;
-        int[][] newFaceVert = null;
-        int[][] newFaceVertFaceRef = null;
-        int[][] newFaceVertIndexRef = null;
-        int[] newToOldFaceIndex = null;
-        int orFace;
         if (oldParamVal != null) {
+            ParameterValue newParamVal[] = new ParameterValue[oldParamVal.length];
+
+            // The new faces of a face are consecutive. The position of each of
+            // their vertices in the face they come from is read from a vertex to
+            // position map of that face, -1 standing for the face center.
+
+            int[][] newFaceVertIndexRef = null;
             for (int i = 0; i < oldParamVal.length; i++) {
                 if (oldParamVal[i] instanceof FaceVertexParameterValue) {
-                    newToOldFaceIndex = new int[newFaces.length];
-                    oldFaceVert = new int[faces.length][];
-                    newFaceVert = new int[newFaces.length][];
-                    newFaceVertFaceRef = new int[newFaces.length][];
                     newFaceVertIndexRef = new int[newFaces.length][];
-                    int[] fv;
-                    orFace = 0;
-                    for (int j = 0; j < oldFaceVert.length; j++) {
-                        fv = getFaceVertices(faces[j]);
-                        for (int k = 0; k < fv.length / 2; k++) {
-                            newToOldFaceIndex[orFace++] = j;
-                        }
-                        oldFaceVert[j] = new int[fv.length];
-                        System.arraycopy(fv, 0, oldFaceVert[j], 0, fv.length);
-                    }
+                    int[] position = new int[vertices.length];
+                    int orFace = -1;
                     for (int j = 0; j < newFaces.length; ++j) {
-                        fv = getFaceVertices(j, newEdges, newFaces);
-                        newFaceVert[j] = new int[fv.length];
-                        newFaceVertFaceRef[j] = new int[fv.length];
-                        newFaceVertIndexRef[j] = new int[fv.length];
-                        orFace = newToOldFaceIndex[j];
-                        for (int k = 0; k < fv.length; k++) {
-                            newFaceVert[j][k] = fv[k];
-                            if (fv[k] < vertices.length) {
-                                boolean found = false;
-                                for (int l = 0; l < oldFaceVert[orFace].length; l++) {
-                                    if (oldFaceVert[orFace][l] == fv[k]) {
-                                        newFaceVertFaceRef[j][k] = orFace;
-                                        newFaceVertIndexRef[j][k] = l;
-                                        found = true;
-                                    }
-                                }
-                                if (!found) {
-                                    System.out.println("Pas trouv !!");
-                                }
-                            } else {
-                                newFaceVertFaceRef[j][k] = -1;
-                                newFaceVertIndexRef[j][k] = -1;
-                            }
+                        if (paramFaceTable[j] != orFace) {
+                            orFace = paramFaceTable[j];
+                            for (int k = faceVertStart[orFace]; k < faceVertStart[orFace + 1]; k++)
+                                position[faceVertList[k]] = k - faceVertStart[orFace];
                         }
+                        int[] fv = getFaceVertices(j, newEdges, newFaces);
+                        newFaceVertIndexRef[j] = new int[fv.length];
+                        for (int k = 0; k < fv.length; k++)
+                            newFaceVertIndexRef[j][k] = (fv[k] < vertices.length ? position[fv[k]] : -1);
                     }
                     break;
                 }
@@ -5947,46 +6322,33 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
                 } else if (oldParamVal[i] instanceof VertexParameterValue) {
                     double oldval[] = ((VertexParameterValue) oldParamVal[i]).getValue();
                     double newval[] = new double[newVert.length];
-                    for (int j = 0; j < vertices.length; ++j)
-                        newval[j] = oldval[j];
-                    for (int j = vertices.length; j < newVert.length; ++j) {
-                        int[] vf = vertParamInfo[j - vertices.length].vert;
-                        double[] coef = vertParamInfo[j - vertices.length].coef;
-                        for (int k = 0; k < vf.length; ++k)
-                            newval[j] += coef[k] * oldval[vf[k]];
+                    for (int j = 0; j < vertices.length; ++j)
+                        newval[j] = oldval[j];
+                    for (int j = vertices.length; j < newVert.length; ++j) {
+                        int from = faceVertStart[j - vertices.length];
+                        int to = faceVertStart[j - vertices.length + 1];
+                        double coef = 1.0 / (to - from);
+                        for (int k = from; k < to; ++k)
+                            newval[j] += coef * oldval[faceVertList[k]];
                     }
                     newParamVal[i] = new VertexParameterValue(newval);
                 } else if (oldParamVal[i] instanceof FaceVertexParameterValue) {
-                    double val;
                     FaceVertexParameterValue fvpv = (FaceVertexParameterValue) oldParamVal[i];
                     double newval[][] = new double[newFaces.length][];
                     for (int j = 0; j < newFaces.length; ++j) {
-                        newval[j] = new double[newFaceVert[j].length];
+                        int orFace = paramFaceTable[j];
+                        int corners = faceVertStart[orFace + 1] - faceVertStart[orFace];
+                        newval[j] = new double[newFaceVertIndexRef[j].length];
                         for (int k = 0; k < newval[j].length; k++) {
-                            if (newFaceVertFaceRef[j][k] != -1) {
+                            if (newFaceVertIndexRef[j][k] != -1) {
                                 // old vertex
-                                newval[j][k] = fvpv.getValue(
-                                        newFaceVertFaceRef[j][k],
-                                        newFaceVertIndexRef[j][k]);
+                                newval[j][k] = fvpv.getValue(orFace, newFaceVertIndexRef[j][k]);
                             } else {
-                                // new vertex
-                                orFace = newToOldFaceIndex[j];
-                                val = 0;
-                                int[] vf = vertParamInfo[newFaceVert[j][k] - vertices.length].vert;
-                                double[] coef = vertParamInfo[newFaceVert[j][k] - vertices.length].coef;
-                                for (int l = 0; l < vf.length; ++l) {
-                                    boolean found = false;
-                                    for (int m = 0; m < oldFaceVert[orFace].length; m++) {
-                                        if (oldFaceVert[orFace][m] == vf[l]) {
-                                            val += coef[l] * fvpv.getValue(orFace, m);
-                                            found = true;
-                                            break;
-                                        }
-                                    }
-                                    if (!found) {
-                                        System.out.println("Pas trouv !!");
-                                    }
-                                }
+                                // face center
+                                double val = 0;
+                                double coef = 1.0 / corners;
+                                for (int l = 0; l < corners; ++l)
+                                    val += coef * fvpv.getValue(orFace, l);
                                 newval[j][k] = val;
                             }
                         }
@@ -6004,6 +6366,536 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
         return null;
     }
     
+    /**
+     * Returns a copy of this mesh for a one pass subdivision. The one pass
+     * subdivision builds new vertices and edges instead of modifying the
+     * existing ones, so the copy shares them with this mesh rather than
+     * duplicating them. Only the face array, whose elements are replaced, is
+     * copied.
+     */
+
+    private PolyMesh getSmoothingCopy() {
+        PolyMesh mesh = new PolyMesh();
+        mesh.vertices = vertices;
+        mesh.edges = edges;
+        mesh.faces = faces.clone();
+        mesh.smoothingMethod = smoothingMethod;
+        mesh.mirrorState = mirrorState;
+        mesh.closed = closed;
+        mesh.controlledSmoothing = controlledSmoothing;
+        mesh.minAngle = minAngle;
+        mesh.maxAngle = maxAngle;
+        mesh.minSmoothness = minSmoothness;
+        mesh.maxSmoothness = maxSmoothness;
+        mesh.limitSurface = limitSurface;
+        mesh.featureAdaptive = featureAdaptive;
+        mesh.copyTextureAndMaterial(this);
+        return mesh;
+    }
+
+    /**
+     * Tells if all faces of the mesh are quads
+     */
+
+    private boolean isQuadMesh() {
+        for (int i = 0; i < faces.length; i++) {
+            if (getFaceVertCount(faces[i]) != 4) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Smooths the whole mesh by running the first level on a PolyMesh copy and
+     * the next levels on the resulting quad mesh. This is the path taken for
+     * meshes which are not made of quads only, see smoothQuadMesh().
+     */
+
+    QuadMesh smoothGeneralMesh(double tol, boolean calcProjectedEdges, int maxNs, Mat4 view, long budget) {
+        PolyMesh smoothedMesh = getSmoothingCopy();
+
+        // Uniform texture parameters are smoothed as constants (see
+        // QuadMesh.smoothMesh()).
+
+        ParameterValue[] uniform = QuadMesh.findUniformParameters(getParameterValues());
+        if (uniform != null)
+            smoothedMesh.setParameterValues(QuadMesh.toConstants(getParameterValues(), uniform));
+        smoothedMesh.smoothWholeMesh(tol, calcProjectedEdges, maxNs, true);
+        int[] pe = null;
+        if (calcProjectedEdges) {
+            int ne = smoothedMesh.getEdges().length/2;
+            pe = new int[ne];
+            for (int i = 0; i < edges.length / 2; i++) {
+                pe[i] = i;
+                pe[i + edges.length / 2] = i;
+            }
+            for (int i = edges.length; i < ne; i++) {
+                pe[i] = -1;
+            }
+        }
+        closed = smoothedMesh.isClosed();
+        QuadMesh qmesh = smoothedMesh.getQuadMesh();
+        qmesh.addUniformParameters(uniform);
+        int nfaces = smoothedMesh.getFaces().length;
+        QuadFace[] qfaces = qmesh.getFaces();
+        for (int i = 0; i < nfaces; i++) {
+            if (smoothedMesh.subdivideFaces[i]) {
+                qfaces[i].mark = QuadFace.SUBDIVIDE;
+            } else {
+                qfaces[i].mark = QuadFace.FINAL;
+            }
+        }
+        if (maxNs > 1) {
+            qmesh.setFeatureAdaptive(featureAdaptive);
+            qmesh.setViewDependent(view, viewEdgeLength);
+            qmesh.setMemoryBudget(budget);
+            qmesh.smoothMesh(tol, calcProjectedEdges, 1, pe, maxNs);
+        } else  {
+            qmesh.setProjectedEdges(pe);
+        }
+        return qmesh;
+    }
+
+    /**
+     * Smooths a quad mesh. The mesh is handed over to the quad mesh as is, so the first
+     * level is done by QuadMesh. The number of levels is the same as for other meshes:
+     * one level when maxNs <= 1, levels 0 to maxNs otherwise.
+     * 
+     * @param view     Object to screen transform for view dependent smoothing, or null
+     * @param stencils Stencil table to record, or null
+     * @param budget   Memory the subdivision may use, 0 for no limit
+     */
+
+    private QuadMesh smoothQuadMesh(double tol, boolean calcProjectedEdges, int maxNs, Mat4 view, SubdivisionStencils stencils,
+            long budget) {
+        closed = true;
+        for (int i = 0; i < edges.length; i++) {
+            if (edges[i].face == -1) {
+                closed = false;
+                break;
+            }
+        }
+        QuadMesh qmesh = getQuadMesh();
+        qmesh.setFeatureAdaptive(featureAdaptive);
+        qmesh.setViewDependent(view, viewEdgeLength);
+        qmesh.setMemoryBudget(budget);
+        qmesh.smoothMesh(tol, calcProjectedEdges, 0, null, maxNs > 1 ? maxNs : 0, stencils);
+        return qmesh;
+    }
+
+    /**
+     * Vertices moved since a cache was last brought up to date, see
+     * setVertexPositions(Vec3[], int[])
+     */
+
+    private static class MovedVertices {
+        int[] index = new int[16];
+        int count; //-1 when any vertex may have moved
+
+        void add(int[] moved, int vertexCount) {
+            if (count < 0)
+                return;
+            if (moved == null || count + moved.length > vertexCount) {
+                count = -1;
+                return;
+            }
+            if (count + moved.length > index.length)
+                index = Arrays.copyOf(index, Math.max(count + moved.length, 2 * index.length));
+            System.arraycopy(moved, 0, index, count, moved.length);
+            count += moved.length;
+        }
+
+        void clear() {
+            count = 0;
+        }
+    }
+
+    /**
+     * Smooths the mesh for interactive display. A quad mesh is smoothed along with
+     * a stencil table, which is kept as long as only vertex positions change.
+     * Moving vertices then updates the smoothed mesh through the stencils
+     * instead of running the subdivision again. Only the part of the smoothed
+     * mesh which depends on the moved vertices is computed again.
+     */
+
+    private QuadMesh smoothInteractive(double tol) {
+        if (stencils != null && stencils.isBuiltFor(vertices.length, tol, getDisplayLevel())) {
+            int[] candidates = (stencilMoved.count < 0 ? null : stencilMoved.index);
+            int[] moved = stencils.update(getPackedMesh().coords, candidates, stencilMoved.count);
+            stencilMoved.clear();
+            stencilMesh.setVertexPositions(stencils.getPositions(), moved);
+            projectedEdges = stencilMesh.getProjectedEdges();
+            coarseMesh = false;
+            return stencilMesh;
+        }
+        stencils = null;
+        stencilMesh = null;
+        if (backgroundSmoothing && isLargeSmoothing()) {
+            QuadMesh qmesh = takeSmoothingResult(tol);
+            if (qmesh != null) {
+                coarseMesh = false;
+                return qmesh;
+            }
+
+            // Show one level while the full mesh is computed.
+
+            startSmoothing(tol);
+            coarseMesh = true;
+            return smoothWholeMesh(tol, true, 1, false);
+        }
+        coarseMesh = false;
+        return smoothInteractiveNow(tol);
+    }
+
+    /**
+     * Smooths the mesh for interactive display on the calling thread
+     */
+
+    private QuadMesh smoothInteractiveNow(double tol) {
+        int level = getDisplayLevel();
+        if (mirrorState != NO_MIRROR || !isQuadMesh()) {
+            QuadMesh qmesh = smoothWholeMesh(tol, true, level, false, viewTransform, 0);
+            projectedEdges = qmesh.getProjectedEdges();
+            return qmesh;
+        }
+        SubdivisionStencils st = new SubdivisionStencils(vertices.length, tol, level);
+        QuadMesh qmesh = smoothQuadMesh(tol, true, level, viewTransform, st, 0);
+        st.update(getPackedMesh().coords);
+        stencilMoved.clear();
+        stencils = st;
+        stencilMesh = qmesh;
+        projectedEdges = qmesh.getProjectedEdges();
+        return qmesh;
+    }
+
+    /**
+     * Turns background smoothing of large meshes on or off. When on, the
+     * interactive display of a mesh which would take long to smooth first shows
+     * a mesh smoothed once, and the fully smoothed mesh when it is ready.
+     */
+
+    public static void setBackgroundSmoothing(boolean background) {
+        backgroundSmoothing = background;
+    }
+
+    public static boolean isBackgroundSmoothing() {
+        return backgroundSmoothing;
+    }
+
+    /**
+     * Turns limit surface evaluation on or off for this mesh. When on, the
+     * vertices of the smoothed mesh are displayed and rendered at their position
+     * on the limit surface, with the limit surface normals, and the interactive
+     * display is smoothed one level less from level 3 on.
+     */
+
+    public void setLimitSurface(boolean limit) {
+        if (limit == limitSurface)
+            return;
+        cachedMesh = null;
+        cachedWire = null;
+        stencils = null;
+        stencilMesh = null;
+        cancelSmoothing();
+        limitSurface = limit;
+        if (mirroredMesh != null)
+            mirroredMesh.setLimitSurface(limit);
+    }
+
+    public boolean isLimitSurface() {
+        return limitSurface;
+    }
+
+    /**
+     * Turns feature adaptive smoothing on or off for this mesh. When on, the
+     * last smoothing level only refines the faces around extraordinary vertices,
+     * creases, boundaries and corners. This is meant to be used with limit
+     * surface evaluation (see setLimitSurface()), which places the vertices of
+     * the regular regions exactly on their B-spline surface.
+     */
+
+    public void setFeatureAdaptive(boolean adaptive) {
+        if (adaptive == featureAdaptive)
+            return;
+        cachedMesh = null;
+        cachedWire = null;
+        stencils = null;
+        stencilMesh = null;
+        cancelSmoothing();
+        featureAdaptive = adaptive;
+        if (mirroredMesh != null)
+            mirroredMesh.setFeatureAdaptive(adaptive);
+    }
+
+    public boolean isFeatureAdaptive() {
+        return featureAdaptive;
+    }
+
+    /**
+     * Turns view dependent smoothing on or off. When on, the interactive display
+     * of a mesh edited in a PolyMesh editor is smoothed for the camera of the
+     * current view instead of the interactive smoothing level: faces are
+     * subdivided until their edges are shorter than a given length on screen,
+     * up to level 5.
+     *
+     * @param edgeLength Projected edge length, in pixels, 0 to turn view dependent
+     *                   smoothing off
+     */
+
+    public static void setViewDependentSmoothing(double edgeLength) {
+        viewEdgeLength = edgeLength;
+    }
+
+    public static double getViewDependentSmoothing() {
+        return viewEdgeLength;
+    }
+
+    /**
+     * Sets the memory this mesh may use when smoothed for a final render. When
+     * the next smoothing level would not fit, only the largest faces are
+     * subdivided further and the others stay at the level reached, so that a
+     * heavily smoothed mesh renders at a lower level instead of running out of
+     * memory. The level where the budget was reached is given by
+     * getRenderLevelCap().
+     *
+     * @param bytes Memory budget, in bytes. 0 for no limit, a negative value
+     *              for half of the maximum heap size (the default).
+     */
+
+    public void setRenderMemoryBudget(long bytes) {
+        if (bytes == renderMemoryBudget)
+            return;
+        cachedMesh = null;
+        renderMemoryBudget = bytes;
+        if (mirroredMesh != null)
+            mirroredMesh.setRenderMemoryBudget(bytes);
+    }
+
+    public long getRenderMemoryBudget() {
+        return renderMemoryBudget;
+    }
+
+    /**
+     * Returns the smoothing level at which the memory budget stopped the last
+     * smoothing of this mesh for a final render, or -1 if the mesh was smoothed
+     * to the tolerance (see setRenderMemoryBudget())
+     */
+
+    public int getRenderLevelCap() {
+        return renderLevelCap;
+    }
+
+    /**
+     * Sets the camera the interactive display is smoothed for, when view dependent
+     * smoothing is on. The mesh is smoothed again when the projected size of the
+     * mesh changes by more than a quarter, not each time the view moves.
+     *
+     * @param camera The camera, its object transform set for this mesh
+     * @return       True if the interactive rendering mesh must be computed again
+     */
+
+    public boolean setViewCamera(Camera camera) {
+        if (viewEdgeLength <= 0.0) {
+            if (viewTransform == null)
+                return false;
+            setViewTransform(null);
+            return true;
+        }
+        Mat4 toScreen = camera.getObjectToScreen();
+        if (viewTransform != null) {
+            double ratio = getScreenSize(toScreen) / getScreenSize(viewTransform);
+            if (ratio > 0.8 && ratio < 1.25)
+                return false;
+        }
+        setViewTransform(toScreen);
+        return true;
+    }
+
+    private void setViewTransform(Mat4 toScreen) {
+        viewTransform = toScreen;
+        cachedMesh = null;
+        stencils = null;
+        stencilMesh = null;
+        cancelSmoothing();
+        if (mirroredMesh != null)
+            mirroredMesh.setViewTransform(toScreen);
+    }
+
+    /**
+     * Returns the diagonal of the screen rectangle the mesh bounding box projects to
+     */
+
+    private double getScreenSize(Mat4 toScreen) {
+        BoundingBox bb = getBounds();
+        double minx = Double.MAX_VALUE, miny = Double.MAX_VALUE;
+        double maxx = -Double.MAX_VALUE, maxy = -Double.MAX_VALUE;
+        for (int i = 0; i < 8; i++) {
+            Vec3 corner = new Vec3((i & 1) == 0 ? bb.minx : bb.maxx, (i & 2) == 0 ? bb.miny : bb.maxy,
+                    (i & 4) == 0 ? bb.minz : bb.maxz);
+            Vec2 p = toScreen.timesXY(corner);
+            minx = Math.min(minx, p.x);
+            miny = Math.min(miny, p.y);
+            maxx = Math.max(maxx, p.x);
+            maxy = Math.max(maxy, p.y);
+        }
+        return Math.sqrt((maxx - minx) * (maxx - minx) + (maxy - miny) * (maxy - miny));
+    }
+
+    /**
+     * Returns the smoothing level the interactive display is computed for
+     */
+
+    private int getDisplayLevel() {
+        int level = (viewTransform != null ? VIEW_DEPENDENT_MAX_LEVEL : interactiveSmoothLevel);
+        if (interactiveLevelLimit > 0)
+            level = Math.min(level, interactiveLevelLimit);
+        if (limitSurface && viewTransform == null && level > 2)
+            return level - 1;
+        return level;
+    }
+
+    /**
+     * Tells if the interactive smoothed mesh is large enough to be computed in background
+     */
+
+    private boolean isLargeSmoothing() {
+        int level = getDisplayLevel();
+        int levels = (level > 1 ? level + 1 : 1);
+        long count = faces.length;
+        for (int i = 0; i < levels && count < BACKGROUND_SMOOTHING_FACES; i++)
+            count *= 4;
+        if (viewTransform != null) {
+            // Faces are not subdivided below the edge length on screen.
+            double size = getScreenSize(viewTransform) / viewEdgeLength;
+            count = Math.min(count, faces.length + (long) (size * size));
+        }
+        return count >= BACKGROUND_SMOOTHING_FACES;
+    }
+
+    /**
+     * Starts smoothing a copy of the mesh in background. Any previous request
+     * is cancelled.
+     */
+
+    private void startSmoothing(double tol) {
+        final PolyMesh copy = (PolyMesh) duplicate();
+        copy.viewTransform = viewTransform;
+        final int level = getDisplayLevel();
+        final int version;
+        synchronized (smoothingLock) {
+            version = smoothingVersion;
+        }
+        if (smoothingTask != null)
+            smoothingTask.cancel(true);
+        smoothingTask = SmoothingService.submit(() -> {
+            QuadMesh qmesh = copy.smoothInteractiveNow(tol);
+            if (Thread.currentThread().isInterrupted())
+                return;
+            synchronized (smoothingLock) {
+                if (version != smoothingVersion)
+                    return;
+                readyMesh = qmesh;
+                readyStencils = copy.stencils;
+                readyTol = tol;
+                readyLevel = level;
+            }
+            SmoothingService.fireSmoothingDone();
+        });
+    }
+
+    /**
+     * Tells if a background smoothing result is waiting to be displayed
+     */
+
+    boolean isSmoothingReady() {
+        if (mirrorState != NO_MIRROR)
+            return mirroredMesh != null && mirroredMesh.isSmoothingReady();
+        synchronized (smoothingLock) {
+            return readyMesh != null;
+        }
+    }
+
+    /**
+     * Returns the mesh smoothed for rendering, taken from the smoothed mesh cache
+     * when an identical mesh was already smoothed with the same settings. The
+     * returned mesh may be shared with other objects and must not be modified.
+     * This mesh is not modified, so that several threads may render it at once.
+     */
+
+    private QuadMesh getSharedSmoothedMesh(double tol) {
+        if (SmoothedMeshCache.getMaximumSize() <= 0)
+            return smoothForRender(tol);
+        SmoothedMeshCache.Key key = new SmoothedMeshCache.Key(getPackedMesh(), getParameterValues(), tol,
+                (limitSurface ? 1 : 0) | (featureAdaptive ? 2 : 0));
+        QuadMesh qmesh = SmoothedMeshCache.get(key);
+        if (qmesh != null)
+            return qmesh;
+        qmesh = smoothForRender(tol);
+
+        // A mesh capped by the memory budget would take most of the cache, and
+        // depends on the budget, so it is not kept.
+
+        if (qmesh.getCappedLevel() < 0)
+            SmoothedMeshCache.put(key, qmesh);
+        return qmesh;
+    }
+
+    /**
+     * Smooths the mesh to the given tolerance within the render memory budget
+     * and packs it. The level the smoothing was capped at, and the projected
+     * edges, are those of the returned mesh (see QuadMesh.getCappedLevel()).
+     */
+
+    private QuadMesh smoothForRender(double tol) {
+        long budget = renderMemoryBudget;
+        if (budget < 0)
+            budget = Runtime.getRuntime().maxMemory() / 2;
+        QuadMesh qmesh = smoothWholeMesh(tol, false, Integer.MAX_VALUE, false, null, budget);
+        qmesh.setLimitSurface(limitSurface);
+        qmesh.setMemoryBudget(0);
+        qmesh.pack();
+        return qmesh;
+    }
+
+    /**
+     * Returns the background smoothing result if it matches the current settings,
+     * null otherwise
+     */
+
+    private QuadMesh takeSmoothingResult(double tol) {
+        QuadMesh qmesh;
+        synchronized (smoothingLock) {
+            qmesh = readyMesh;
+            if (qmesh == null || readyTol != tol || readyLevel != getDisplayLevel())
+                return null;
+            stencils = readyStencils;
+            stencilMesh = (readyStencils != null ? qmesh : null);
+            readyMesh = null;
+            readyStencils = null;
+        }
+        smoothingTask = null;
+        projectedEdges = qmesh.getProjectedEdges();
+        return qmesh;
+    }
+
+    /**
+     * Drops any background smoothing of a previous state of the mesh
+     */
+
+    private void cancelSmoothing() {
+        synchronized (smoothingLock) {
+            ++smoothingVersion;
+            readyMesh = null;
+            readyStencils = null;
+        }
+        coarseMesh = false;
+        if (smoothingTask != null) {
+            smoothingTask.cancel(true);
+            smoothingTask = null;
+        }
+    }
+
     private QuadMesh getQuadMesh() {
         QuadVertex[] qverts = new QuadVertex[vertices.length];
         QuadEdge[] qedges = new QuadEdge[edges.length/2];
@@ -6024,9 +6916,8 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
         //Compute the quadmesh texture parameters.
 
         ParameterValue oldParamVal[] = getParameterValues();
-        ParameterValue newParamVal[] = new ParameterValue[oldParamVal.length];
         if (oldParamVal != null) {
-            newParamVal = new ParameterValue[oldParamVal.length];
+            ParameterValue newParamVal[] = new ParameterValue[oldParamVal.length];
             for (int i = 0; i < oldParamVal.length; i++) {
                 newParamVal[i] = oldParamVal[i].duplicate();
             }
@@ -6035,6 +6926,37 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
         return qmesh;
     }
 
+    /**
+     * Tells if an edge between two faces lies on a mirror plane. The first level
+     * of the general smoothing path makes such edges hard, which the quad mesh
+     * path does not reproduce. Boundary edges are hard on both paths.
+     */
+
+    private boolean hasInnerMirrorEdges() {
+        if (mirrorState == NO_MIRROR)
+            return false;
+        for (int i = 0; i < edges.length / 2; i++) {
+            if (edges[i].face != -1 && edges[edges[i].hedge].face != -1 && isOnMirror(vertices[edges[i].vertex].r)
+                    && isOnMirror(vertices[edges[edges[i].hedge].vertex].r))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Tells if a point lies on one of the mirror planes of the mesh
+     */
+
+    private boolean isOnMirror(Vec3 r) {
+        if ((mirrorState & MIRROR_ON_XY) != 0 && Math.abs(r.z) < 1e-6)
+            return true;
+        if ((mirrorState & MIRROR_ON_YZ) != 0 && Math.abs(r.x) < 1e-6)
+            return true;
+        if ((mirrorState & MIRROR_ON_XZ) != 0 && Math.abs(r.y) < 1e-6)
+            return true;
+        return false;
+    }
+
     /**
      * When a mesh has been subdivided using smoothWholeMesh, the array returned
      * describes which edges belong to the original mesh
@@ -6054,6 +6976,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public void smooth(boolean[] selected, boolean subdivideOnly) {
+        unshareArrays();
         int originalVert = vertices.length;
 
         // edges subdivision for selected faces
@@ -6372,6 +7295,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public void moveVertices(boolean[] selected, double amount, short direction) {
+        unshareVertices();
         switch (direction) {
         case NORMAL:
             Vec3[] norm = getNormals();
@@ -6408,6 +7332,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public void moveEdges(boolean[] selected, double amount, short direction) {
+        unshareVertices();
         boolean[] moved = new boolean[vertices.length];
         Vec3 disp = null;
         switch (direction) {
@@ -6473,6 +7398,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public void moveFaces(boolean[] selected, double amount, short direction) {
+        unshareVertices();
         Vec3 disp = null;
         switch (direction) {
         case X:
@@ -6535,6 +7461,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 
     public void extrudeFaces(boolean[] selected, double value, Vec3 direction,
             double scale, Vec3 camZ, boolean useNormals, boolean constrainAxis) {
+        unshareArrays();
         int count = 0;
         if ((Math.abs(value) < 1e-12) && Math.abs(1.0 - scale) < 1e-6)
             return;
@@ -6734,6 +7661,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 
     public void extrudeRegion(boolean[] selected, double value, Vec3 direction,
             double scale, Vec3 camZ, boolean useNormals, boolean constrainAxis) {
+        unshareArrays();
         Vec3[] normals = getNormals();
         int count;
         if ((Math.abs(value) < 1e-12) && Math.abs(1.0 - scale) < 1e-6)
@@ -7010,6 +7938,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public void extrudeEdges(boolean[] selected, double value, Vec3 direction) {
+        unshareArrays();
 
         Vec3[] normals = getEdgeNormals();
         if (Math.abs(value) < 1e-12)
@@ -7142,6 +8071,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public void extrudeEdgeRegion(boolean[] selected, double value, Vec3 direction) {
+        unshareArrays();
         Vec3[] normals = getEdgeNormals();
         boolean[] tmpSel = new boolean[selected.length];
         if (Math.abs(value) < 1e-12)
@@ -7454,6 +8384,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public void thickenMesh(double value, boolean faceDisplacement) {
+        unshareArrays();
         if (Math.abs(value) < 1e-12)
             return;
         Vec3 v[] = new Vec3[vertices.length];
@@ -7798,6 +8729,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public boolean[] closeBoundary(boolean[] selected) {
+        unshareArrays();
         boolean[] workedOut = new boolean[selected.length];
         int start;
         int current;
@@ -7879,6 +8811,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public void collapseFaces(boolean[] selected) {
+        unshareArrays();
         selected = mergeFaces(selected);
         for (int i = 0; i < selected.length; ++i) {
             if (selected[i]) {
@@ -8028,6 +8961,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public void collapseEdges(boolean[] selected) {
+        unshareArrays();
         for (int i = 0; i < selected.length; ++i) {
             if (selected[i]) {
                 int vert = edges[i].vertex;
@@ -8134,6 +9068,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      * @param selected Vertices selection for collapse
      */
     public void collapseVertices(boolean[] selected) {
+        unshareArrays();
         for (int i = 0; i < selected.length; ++i) {
             if (selected[i]) {
                 int[] ve = getVertexEdges(vertices[i]);
@@ -8273,6 +9208,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public void facetVertices(boolean[] selected) {
+        unshareArrays();
         for (int i = 0; i < selected.length; ++i) {
             if (selected[i]) {
                 int[] ve = getVertexEdges(vertices[i]);
@@ -8643,6 +9579,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public boolean[] mergeEdges(boolean[] selected) {
+        unshareArrays();
         for (int i = 0; i < edges.length; ++i) {
             int esel = i;
             if (esel >= edges.length / 2)
@@ -8795,6 +9732,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public boolean[] mergeFaces(boolean[] selected) {
+        unshareArrays();
         for (int i = 1; i < selected.length; ++i)
             for (int l = 0; l < i; ++l) {
                 if (selected.length == 1) {
@@ -8935,6 +9873,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public boolean[] bevelEdges(boolean[] selected, double value) {
+        unshareArrays();
         if (value < 1e-6)
             return selected;
 
@@ -9838,6 +10777,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public void removeZeroLengthEdges() {
+        unshareArrays();
         boolean reduction = false;
         for (int i = 0; i < edges.length / 2; ++i) {
             if (vertices[edges[i].vertex].r
@@ -9887,6 +10827,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public boolean[] bevelVertices(boolean[] selected, double value) {
+        unshareArrays();
         if (value < 1e-6)
             return selected;
         Vec3[] normals = getNormals();
@@ -10066,14 +11007,12 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      * @return The mirroredMesh value
      */
 
-    public PolyMesh getMirroredMesh() {
+    public synchronized PolyMesh getMirroredMesh() {
         if (mirroredMesh != null) {
             return mirroredMesh;
         }
-        short state = mirrorState;
-        mirrorState = NO_MIRROR;
         PolyMesh mesh = (PolyMesh) this.duplicate();
-        mesh.setMirrorState(state);
+        mesh.setMirrorState(mirrorState);
         mesh.mirrorMesh();
         mirroredVerts = mesh.mirroredVerts;
         mirroredEdges = mesh.mirroredEdges;
@@ -10082,7 +11021,6 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
         invMirroredEdges = mesh.invMirroredEdges;
         invMirroredFaces = mesh.invMirroredFaces;
         mirroredMesh = mesh;
-        mirrorState = state;
         return mesh;
     }
 
@@ -10091,6 +11029,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public void mirrorMesh() {
+        unshareArrays();
         if (mirrorState == NO_MIRROR)
             return;
 
@@ -10348,6 +11287,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public void mirrorWholeMesh(short mirrorPlane) {
+        unshareVertices();
         switch (mirrorPlane) {
         case MIRROR_ON_XY:
             for (int i = 0; i < vertices.length; i++)
@@ -10370,6 +11310,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public void invertNormals() {
+        unshareArrays();
         Wedge[] newEdges = new Wedge[edges.length];
 
         int next;
@@ -10410,6 +11351,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public boolean joinBoundaries(int one, int two) {
+        unshareArrays();
         int[] oe = getVertexEdges(vertices[one]);
         int ob = -1;
         int[] te = getVertexEdges(vertices[two]);
@@ -10591,9 +11533,10 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
     }
 
     public boolean[] addMesh(PolyMesh addedMesh) {
-        Wvertex[] addedVerts = (Wvertex[]) addedMesh.getVertices();
-        Wedge[] addedEdges = addedMesh.getEdges();
-        Wface[] addedFaces = addedMesh.getFaces();
+        unshareArrays();
+        Wvertex[] addedVerts = addedMesh.getSharedVertices();
+        Wedge[] addedEdges = addedMesh.getSharedEdges();
+        Wface[] addedFaces = addedMesh.getSharedFaces();
         Wvertex[] newVerts = new Wvertex[vertices.length + addedVerts.length];
         Wedge[] newEdges = new Wedge[edges.length + addedEdges.length];
         Wface[] newFaces = new Wface[faces.length + addedFaces.length];
@@ -10894,6 +11837,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public int[] openSeams() {
+        unshareArrays();
         if (seams == null)
             return null;
         Wvertex[] newVertices;
@@ -11217,6 +12161,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
     }
 
     public void addStandaloneFace(Vec3[] newPoints) {
+        unshareArrays();
         Wvertex[] newVertices;
         Wedge[] newEdges;
         Wface[] newFaces;
@@ -11271,7 +12216,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
                     double oldval[] = ((FaceParameterValue) oldParamVal[k]).getValue();
                     double newval[] = new double[faces.length];
                     for (int j = 0; j < faces.length - 1; ++j)
-                        newval[j] = oldval[faceInfo.get(j)];
+                        newval[j] = oldval[j];
                     newval[faces.length - 1] = param[k].defaultVal;
                     newParamVal[k] = new FaceParameterValue(newval);
                 } else if (oldParamVal[k] instanceof FaceVertexParameterValue) {
@@ -11295,6 +12240,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
     }
 
     public boolean addFaceFromPoints(int from, int to, Vec3[] newPoints) {
+        unshareArrays();
         Wvertex[] newVertices;
         Wedge[] newEdges;
         Wface[] newFaces;
@@ -11469,6 +12415,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
      */
 
     public String checkMesh() {
+        unshareArrays();
 
         boolean repairTwoEdgeFaces = false;
         StringBuilder s = new StringBuilder();
@@ -11833,7 +12780,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
         if (theScene != null)
             super.writeToFile(out, theScene);
 
-        out.writeShort(10);
+        out.writeShort(11);
         out.writeShort(mirrorState);
         out.writeInt(smoothingMethod);
         out.writeInt(vertices.length);
@@ -11903,6 +12850,10 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
         out.writeInt(selectedFaceColor.getGreen());
         out.writeInt(selectedFaceColor.getBlue());
         out.writeInt(handleSize);
+        out.writeBoolean(limitSurface);
+        out.writeBoolean(featureAdaptive);
+        out.writeInt(frameBudget);
+        out.writeLong(renderMemoryBudget);
         if (theScene != null)
             skeleton.writeToStream(out);
     }
@@ -11933,6 +12884,8 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 
     @Override
     public void applyPoseKeyframe(Keyframe k) {
+        unshareVertices();
+        unshareEdges();
         PolyMeshKeyframe key = (PolyMeshKeyframe) k;
 
         for (int i = 0; i < vertices.length; i++) {
@@ -12443,6 +13396,53 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
         }
     }
 
+    /**
+     * Meshes using an array of mesh elements (see shareArrays()). The meshes are
+     * weakly referenced: a copy which is discarded without being modified no
+     * longer counts as a user of the array.
+     */
+
+    private static class ArrayShare {
+        private final ArrayList<WeakReference<PolyMesh>> users = new ArrayList<WeakReference<PolyMesh>>(2);
+
+        /**
+         * Adds a mesh to the users of an array
+         *
+         * @param share The current share of the array, null if the array is
+         *              used by a single mesh
+         * @param owner The mesh the array is taken from
+         * @param user  The mesh which starts using the array
+         * @return      The share of the array
+         */
+
+        static ArrayShare join(ArrayShare share, PolyMesh owner, PolyMesh user) {
+            if (share == null) {
+                share = new ArrayShare();
+                share.users.add(new WeakReference<PolyMesh>(owner));
+            }
+            synchronized (share) {
+                share.users.add(new WeakReference<PolyMesh>(user));
+            }
+            return share;
+        }
+
+        /**
+         * Removes a mesh from the users of the array, along with the meshes
+         * which have been discarded
+         *
+         * @return True if other meshes still use the array
+         */
+
+        synchronized boolean leave(PolyMesh mesh) {
+            for (int i = users.size() - 1; i >= 0; i--) {
+                PolyMesh user = users.get(i).get();
+                if (user == null || user == mesh)
+                    users.remove(i);
+            }
+            return !users.isEmpty();
+        }
+    }
+
     /**
      * Checks if a face is selected. Voids are not selected by nature
      *
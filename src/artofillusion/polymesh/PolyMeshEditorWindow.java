@@ -132,6 +132,8 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 
 	private Runnable onClose;
 
+	private Runnable smoothingListener; // repaints when a background smoothing is done
+
 	private BMenu editMenu;
 
 	private BMenuItem[] editMenuItem;
@@ -341,6 +343,11 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 
 	private BMenuItem[] popupRingMenuItem;
 
+	private MeshUndoHistory undoHistory = new MeshUndoHistory(ArtOfIllusion
+			.getPreferences().getUndoLevels(), PMUndoRedoStack.DEFAULT_MEMORY_BUDGET);
+
+	private Command edgeSliderCommand; // undo command of the current edge slider move
+
 	/**
 	 * Constructor for the PolyMeshEditorWindow object
 	 * 
@@ -361,6 +368,12 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		if (eventSource == null)
 			eventSource = new EventSource();
 		eventSource.addEventLink(CopyEvent.class, this, "doCopyEvent");
+		smoothingListener = () -> {
+			if (((PolyMesh) objInfo.object).isSmoothingReady())
+				objInfo.clearCachedMeshes();
+			updateImage();
+		};
+		SmoothingService.addListener(smoothingListener);
 		hideVert = new boolean[mesh.getVertices().length];
 		this.onClose = onClose;
 		NumberFormat format = NumberFormat.getInstance();
@@ -1130,7 +1143,7 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 			return;
 		}
 		PolyMesh mesh = (PolyMesh) objInfo.object;
-		Wvertex[] vertices = (Wvertex[]) mesh.getVertices();
+		Wvertex[] vertices = mesh.getSharedVertices();
 		for (int i = 0; i < selected.length; i++) {
 			selected[i] |= (vertices[i].type == Wvertex.CORNER);
 		}
@@ -1313,8 +1326,7 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 			}
 			mesh.deleteFaces(indices);
 		}
-		setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-				new Object[] { mesh, prevMesh }));
+		setMeshUndoRecord(mesh, prevMesh);
 		objectChanged();
 		updateImage();
 
@@ -1354,7 +1366,7 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		PolyMesh theMesh = (PolyMesh) objInfo.object;
 		int dist[] = getSelectionDistance();
 		boolean selectedVert[] = new boolean[dist.length];
-		Wedge edges[] = theMesh.getEdges();
+		Wedge edges[] = theMesh.getSharedEdges();
 
 		setUndoRecord(new UndoRecord(this, false,
 				UndoRecord.SET_MESH_SELECTION, new Object[] { this,
@@ -1369,7 +1381,7 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 				selected[i] = (selectedVert[edges[i].vertex] && selectedVert[edges[edges[i].hedge].vertex]);
 			setSelection(selected);
 		} else {
-			Wface faces[] = theMesh.getFaces();
+			Wface faces[] = theMesh.getSharedFaces();
 			for (int i = 0; i < faces.length; i++) {
 				selected[i] = true;
 				int[] fv = theMesh.getFaceVertices(faces[i]);
@@ -1524,6 +1536,7 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 	protected void doCancel() {
 		oldMesh = null;
 		eventSource.removeEventLink(CopyEvent.class, this);
+		SmoothingService.removeListener(smoothingListener);
 		dispose();
 	}
 
@@ -1557,6 +1570,7 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 			oldMesh.copyObject(theMesh);
 		oldMesh = null;
 		eventSource.removeEventLink(CopyEvent.class, this);
+		SmoothingService.removeListener(smoothingListener);
 		dispose();
 		onClose.run();
 		parentWindow.updateImage();
@@ -1590,6 +1604,60 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		}
 	}
 
+	/**
+	 * Adds a record to the undo history
+	 * 
+	 * @param command
+	 *                The undo record
+	 */
+	public void setUndoRecord(UndoRecord command) {
+		try {
+			undoHistory.addCommand((PolyMesh) objInfo.object,
+					new UndoRecordCommand(command));
+		} catch (IOException ex) {
+			undoFailed(ex);
+		}
+		updateMenus();
+	}
+
+	/**
+	 * Undoes the last command
+	 */
+	public void undoCommand() {
+		try {
+			undoHistory.undo((PolyMesh) objInfo.object);
+		} catch (IOException ex) {
+			undoFailed(ex);
+		}
+		objectChanged();
+		updateImage();
+		updateMenus();
+	}
+
+	/**
+	 * Redoes the last undone command
+	 */
+	public void redoCommand() {
+		try {
+			undoHistory.redo((PolyMesh) objInfo.object);
+		} catch (IOException ex) {
+			undoFailed(ex);
+		}
+		objectChanged();
+		updateImage();
+		updateMenus();
+	}
+
+	/**
+	 * Tells the user that the undo history could not be read
+	 */
+	private void undoFailed(IOException ex) {
+		ex.printStackTrace();
+		new BStandardDialog(Translate.text("polymesh:errorTitle"), UIUtilities
+				.breakString(Translate.text("polymesh:undoFailed")),
+				BStandardDialog.ERROR).showMessageDialog(this);
+	}
+
 	/**
 	 * Given a list of deltas which will be added to the selected vertices,
 	 * calculate the corresponding deltas for the unselected vertices
@@ -1603,7 +1671,7 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		int dist[] = getSelectionDistance();
 		int count[] = new int[delta.length];
 		PolyMesh theMesh = (PolyMesh) objInfo.object;
-		PolyMesh.Wedge edge[] = theMesh.getEdges();
+		PolyMesh.Wedge edge[] = theMesh.getSharedEdges();
 		int maxDistance = getTensionDistance();
 		double tension = getMeshTension();
 		double scale[] = new double[maxDistance + 1];
@@ -1644,6 +1712,10 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 	 */
 	public void updateMenus() {
 		super.updateMenus();
+		if (undoItem != null) {
+			undoItem.setEnabled(undoHistory.canUndo());
+			redoItem.setEnabled(undoHistory.canRedo());
+		}
 		switch (selectMode) {
 		default:
 		case POINT_MODE:
@@ -2072,8 +2144,7 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		if (selectMode == POINT_MODE) {
 			int[] indices = getIndicesFromSelection(selected);
 			theMesh.connectVertices(indices);
-			setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-					new Object[] { theMesh, prevMesh }));
+			setMeshUndoRecord(theMesh, prevMesh);
 			objectChanged();
 			updateImage();
 
@@ -2131,8 +2202,7 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 			if (num > 0)
 				sel = mesh.divideEdges(selected, num);
 		}
-		setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-				new Object[] { mesh, prevMesh }));
+		setMeshUndoRecord(mesh, prevMesh);
 		objectChanged();
 		if (sel != null) {
 			modes.selectTool(pointTool);
@@ -2152,8 +2222,7 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 	 */
 	private void smoothingChanged(CommandEvent ev) {
 		PolyMesh mesh = (PolyMesh) objInfo.object;
-		setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-				new Object[] { mesh, mesh.duplicate() }));
+		PolyMesh prevMesh = (PolyMesh) mesh.duplicate();
 		Object source = ev.getWidget();
 		for (int i = 0; i < smoothItem.length; i++)
 			smoothItem[i].setState(false);
@@ -2175,6 +2244,7 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		realView = false;
 		doLevelContainerEnable();
 		objectChanged();
+		setMeshUndoRecord(mesh, prevMesh);
 		updateImage();
 
 	}
@@ -2199,8 +2269,7 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		PolyMesh mesh = (PolyMesh) objInfo.object;
 		PolyMesh prevMesh = (PolyMesh) mesh.duplicate();
 		mesh.smoothWholeMesh(-1, false, 1, true);
-		setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-				new Object[] { mesh, prevMesh }));
+		setMeshUndoRecord(mesh, prevMesh);
 		objectChanged();
 		updateImage();
 
@@ -2216,8 +2285,7 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		for (int i = 0; i < selected.length; ++i)
 			selected[i] = true;
 		mesh.smooth(selected, true);
-		setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-				new Object[] { mesh, prevMesh }));
+		setMeshUndoRecord(mesh, prevMesh);
 		objectChanged();
 		updateImage();
 
@@ -2230,8 +2298,7 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		PolyMesh mesh = (PolyMesh) objInfo.object;
 		PolyMesh prevMesh = (PolyMesh) mesh.duplicate();
 		mesh.smooth(selected, false);
-		setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-				new Object[] { mesh, prevMesh }));
+		setMeshUndoRecord(mesh, prevMesh);
 		objectChanged();
 		updateImage();
 
@@ -2244,8 +2311,7 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		PolyMesh mesh = (PolyMesh) objInfo.object;
 		PolyMesh prevMesh = (PolyMesh) mesh.duplicate();
 		mesh.smooth(selected, true);
-		setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-				new Object[] { mesh, prevMesh }));
+		setMeshUndoRecord(mesh, prevMesh);
 		objectChanged();
 		updateImage();
 
@@ -2478,8 +2544,8 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 	public void doValueWidgetValidate() {
 		valueWidgetDialog.setVisible(false);
 		PolyMesh mesh = (PolyMesh) objInfo.object;
-		setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-				new Object[] { mesh, priorValueMesh }));
+		setMeshUndoRecord(mesh, priorValueMesh);
+		priorValueMesh = null;
 	}
 
 	/**
@@ -3219,8 +3285,7 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 						.text("Smoothness") });
 		processor.stopProcessing();
 		if (dlg.clickedOk())
-			setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-					new Object[] { theMesh, prevMesh }));
+			setMeshUndoRecord(theMesh, prevMesh);
 		else {
 			theMesh.copyObject(prevMesh);
 			objectChanged();
@@ -3229,10 +3294,19 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		}
 	}
 
+	/**
+	 * Sets the smoothness of the selected edges from the edge slider. Changes
+	 * of the slider with no other command in between make a single command
+	 * of the undo history: the first change records it, the following ones
+	 * are undone along with it (see MeshUndoHistory).
+	 */
 	public void doEdgeSliderChanged()
 
 	{
 		PolyMesh theMesh = (PolyMesh) objInfo.object;
+		PolyMesh prevMesh = null;
+		if (!undoHistory.isLastCommand(edgeSliderCommand))
+			prevMesh = (PolyMesh) theMesh.duplicate();
 		final Wedge ed[] = theMesh.getEdges();
 		float s = (float) edgeSlider.getValue();
 		if (s < 0)
@@ -3244,6 +3318,8 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 				ed[i].smoothness = s;
 				ed[ed[i].hedge].smoothness = s;
 			}
+		if (prevMesh != null)
+			edgeSliderCommand = setMeshUndoRecord(theMesh, prevMesh);
 		objectChanged();
 		updateImage();
 	}
@@ -3277,7 +3353,6 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		int j;
 		int dist[] = new int[((PolyMesh) objInfo.object).getVertices().length];
 		Wedge e[] = ((PolyMesh) objInfo.object).getEdges();
-		Wface[] f = ((PolyMesh) objInfo.object).getFaces();
 
 		maxDistance = getTensionDistance();
 
@@ -3297,12 +3372,13 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		} else {
 			for (i = 0; i < dist.length; i++)
 				dist[i] = -1;
+			PackedMesh pm = ((PolyMesh) objInfo.object).getPackedMesh();
+			int[] start = pm.getFaceVertexStart();
+			int[] fv = pm.getFaceVertexList();
 			for (i = 0; i < selected.length; i++)
 				if (selected[i]) {
-					int[] vf = ((PolyMesh) objInfo.object)
-							.getFaceVertices(f[i]);
-					for (j = 0; j < vf.length; ++j)
-						dist[vf[j]] = 0;
+					for (j = start[i]; j < start[i + 1]; ++j)
+						dist[fv[j]] = 0;
 				}
 		}
 
@@ -3385,9 +3461,9 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 
 	public AdvancedEditingTool.SelectionProperties getSelectionProperties() {
 		PolyMesh mesh = (PolyMesh) objInfo.object;
-		MeshVertex v[] = (MeshVertex[]) mesh.getVertices();
-		Wedge e[] = mesh.getEdges();
-		Wface f[] = mesh.getFaces();
+		MeshVertex v[] = mesh.getSharedVertices();
+		Wedge e[] = mesh.getSharedEdges();
+		Wface f[] = mesh.getSharedFaces();
 		Vec3[] normals = null;
 		Vec3[] features = null;
 		switch (selectMode) {
@@ -3484,9 +3560,9 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 
 	public void setSelectionMode(int mode) {
 		PolyMesh mesh = (PolyMesh) objInfo.object;
-		MeshVertex v[] = (MeshVertex[]) mesh.getVertices();
-		Wedge e[] = mesh.getEdges();
-		Wface f[] = mesh.getFaces();
+		MeshVertex v[] = mesh.getSharedVertices();
+		Wedge e[] = mesh.getSharedEdges();
+		Wface f[] = mesh.getSharedFaces();
 		boolean newSel[];
 		int i;
 
@@ -3595,12 +3671,12 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 	{
 		PolyMesh mesh = (PolyMesh) objInfo.object;
 		hideFace = hidden;
-		hideVert = new boolean [mesh.getVertices().length];
+		hideVert = new boolean [mesh.getSharedVertices().length];
 		if (hideFace != null)
 		{
 			for (int i = 0; i < hideVert.length; i++)
 				hideVert[i] = true;
-			Wface face[] = mesh.getFaces();
+			Wface face[] = mesh.getSharedFaces();
 			for (int i = 0; i < face.length; i++)
 
 				if (!hideFace[i]) {
@@ -3636,15 +3712,15 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 	 */
 	public void setSelection(boolean sel[]) {
 		PolyMesh mesh = (PolyMesh) objInfo.object;
-		Wvertex[] verts = (Wvertex[]) mesh.getVertices();
-		Wedge[] edges = mesh.getEdges();
+		Wvertex[] verts = mesh.getSharedVertices();
+		Wedge[] edges = mesh.getSharedEdges();
 		if (selectMode == POINT_MODE && sel.length == verts.length) {
 			selected = sel;
 		} else if (selectMode == EDGE_MODE
-				&& sel.length == mesh.getEdges().length / 2) {
+				&& sel.length == mesh.getSharedEdges().length / 2) {
 			selected = sel;
 		} else if (selectMode == FACE_MODE
-				&& sel.length == mesh.getFaces().length) {
+				&& sel.length == mesh.getSharedFaces().length) {
 			selected = sel;
 		}
 		findSelectionDistance();
@@ -3720,6 +3796,29 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		updateImage();
 	}
 
+	/**
+	 * Records the undo of a command which changed the mesh. The undo history
+	 * only keeps the differences between the mesh before the command and the
+	 * changed mesh (see MeshUndoHistory), so it takes memory in proportion to
+	 * what the commands changed.
+	 *
+	 * @param mesh
+	 *                The mesh, as changed by the command
+	 * @param prevMesh
+	 *                A copy of the mesh made before the command
+	 * @return The command added to the undo history
+	 */
+	private Command setMeshUndoRecord(PolyMesh mesh, PolyMesh prevMesh) {
+		Command command = null;
+		try {
+			command = undoHistory.addMeshCommand(mesh, prevMesh);
+		} catch (IOException ex) {
+			undoFailed(ex);
+		}
+		updateMenus();
+		return command;
+	}
+
 	/**
 	 * When the object changes, we need to rebuild the display.
 	 */
@@ -3839,8 +3938,8 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 	 */
 	private void doSelectBoundary() {
 		PolyMesh mesh = (PolyMesh) objInfo.object;
-		Wedge[] edges = mesh.getEdges();
-		Wvertex[] vertices = (Wvertex[]) mesh.getVertices();
+		Wedge[] edges = mesh.getSharedEdges();
+		Wvertex[] vertices = mesh.getSharedVertices();
 
 		boolean emptySel = true;
 		for (int i = 0; i < selected.length; i++)
@@ -3919,8 +4018,7 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		setSelectionMode(FACE_MODE);
 		updateMenus();
 		setSelection(newFaceSel);
-		setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-				new Object[] { mesh, prevMesh }));
+		setMeshUndoRecord(mesh, prevMesh);
 	}
 
 	/**
@@ -3949,8 +4047,7 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		for (int i = prevMesh.getFaces().length; i < newFaceSel.length; ++i)
 			newFaceSel[i] = true;
 		setSelection(newFaceSel);
-		setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-				new Object[] { mesh, prevMesh }));
+		setMeshUndoRecord(mesh, prevMesh);
 	}
 
 	/**
@@ -3959,11 +4056,11 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 
 	private void doHideSelection() {
 		PolyMesh mesh = (PolyMesh) objInfo.object;
-		boolean hide[] = new boolean[mesh.getFaces().length];
+		boolean hide[] = new boolean[mesh.getSharedFaces().length];
 		if (selectMode == FACE_MODE)
 			System.arraycopy(selected, 0, hide, 0, selected.length);
 		else if (selectMode == EDGE_MODE) {
-			Wedge edges[] = mesh.getEdges();
+			Wedge edges[] = mesh.getSharedEdges();
 			for (int i = 0; i < selected.length; i++) {
 				if (selected[i]) {
 					if (edges[i].face >= 0) {
@@ -3975,7 +4072,7 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 				}
 			}
 		} else {
-			Wface faces[] = mesh.getFaces();
+			Wface faces[] = mesh.getSharedFaces();
 			for (int i = 0; i < faces.length; i++) {
 				hide[i] = false;
 				int[] vf = mesh.getFaceVertices(faces[i]);
@@ -4015,8 +4112,7 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		}
 		PolyMesh prevMesh = (PolyMesh) mesh.duplicate();
 		mesh.collapseFaces(selected);
-		setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-				new Object[] { mesh, prevMesh }));
+		setMeshUndoRecord(mesh, prevMesh);
 		objectChanged();
 		updateImage();
 	}
@@ -4034,8 +4130,7 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		}
 		PolyMesh prevMesh = (PolyMesh) mesh.duplicate();
 		mesh.collapseEdges(selected);
-		setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-				new Object[] { mesh, prevMesh }));
+		setMeshUndoRecord(mesh, prevMesh);
 		objectChanged();
 		updateImage();
 	}
@@ -4060,8 +4155,7 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		}
 		PolyMesh prevMesh = (PolyMesh) mesh.duplicate();
 		mesh.collapseVertices(selected);
-		setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-				new Object[] { mesh, prevMesh }));
+		setMeshUndoRecord(mesh, prevMesh);
 		objectChanged();
 		updateImage();
 	}
@@ -4086,8 +4180,7 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		}
 		PolyMesh prevMesh = (PolyMesh) mesh.duplicate();
 		mesh.facetVertices(selected);
-		setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-				new Object[] { mesh, prevMesh }));
+		setMeshUndoRecord(mesh, prevMesh);
 		objectChanged();
 		updateImage();
 	}
@@ -4099,8 +4192,7 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		PolyMesh mesh = (PolyMesh) objInfo.object;
 		PolyMesh prevMesh = (PolyMesh) mesh.duplicate();
 		boolean[] sel = mesh.mergeEdges(selected);
-		setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-				new Object[] { mesh, prevMesh }));
+		setMeshUndoRecord(mesh, prevMesh);
 		objectChanged();
 		setSelection(sel);
 		updateImage();
@@ -4113,8 +4205,7 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		PolyMesh mesh = (PolyMesh) objInfo.object;
 		PolyMesh prevMesh = (PolyMesh) mesh.duplicate();
 		boolean[] sel = mesh.mergeFaces(selected);
-		setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-				new Object[] { mesh, prevMesh }));
+		setMeshUndoRecord(mesh, prevMesh);
 		objectChanged();
 		setSelection(sel);
 		updateImage();
@@ -4127,8 +4218,7 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		PolyMesh mesh = (PolyMesh) objInfo.object;
 		PolyMesh prevMesh = (PolyMesh) mesh.duplicate();
 		boolean[] sel = mesh.triangulateFaces(selected);
-		setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-				new Object[] { mesh, prevMesh }));
+		setMeshUndoRecord(mesh, prevMesh);
 		objectChanged();
 		setSelection(sel);
 		updateImage();
@@ -4291,8 +4381,7 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		mesh.mirrorWholeMesh(mirrorOrientation);
 		objectChanged();
 		updateMenus();
-		setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-				new Object[] { mesh, prevMesh }));
+		setMeshUndoRecord(mesh, prevMesh);
 	}
 
 	/**
@@ -4305,8 +4394,7 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		objectChanged();
 		updateMenus();
 		updateImage();
-		setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-				new Object[] { mesh, prevMesh }));
+		setMeshUndoRecord(mesh, prevMesh);
 	}
 
 	/**
@@ -5294,6 +5382,30 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		}
 	}
 
+	/**
+	 * Undo record of an editing tool, kept in the undo history. Executing the
+	 * record returns the record which reverts it.
+	 */
+	private class UndoRecordCommand implements Command {
+		private UndoRecord record;
+
+		public UndoRecordCommand(UndoRecord record) {
+			this.record = record;
+		}
+
+		public void execute() {
+			redo();
+		}
+
+		public void undo() {
+			record = record.execute();
+		}
+
+		public void redo() {
+			record = record.execute();
+		}
+	}
+
 	private class CopyEvent implements WidgetEvent {
 		Widget widget;
 
@@ -5531,19 +5643,36 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 
 		private void doOK() {
 			doApplyVF();
-			setUndoRecord(new UndoRecord(PolyMeshEditorWindow.this, false,
-					UndoRecord.COPY_OBJECT, new Object[] { mesh, prevMesh }));
+			setMeshUndoRecord(mesh, prevMesh);
 			dispose();
 		}
 	}
 
 	private class SubdivisionDialog extends BDialog {
+		private static final long MEGABYTE = 1024 * 1024;
+
 		private FormContainer formContainer1;
 
 		private BSpinner interactiveSpinner;
 
+		private BCheckBox limitSurfaceCB;
+
+		private BCheckBox featureAdaptiveCB;
+
+		private BSpinner frameBudgetSpinner;
+
+		private BSpinner renderBudgetSpinner;
+
 		private int backInteractiveSmoothness;
 
+		private boolean backLimitSurface;
+
+		private boolean backFeatureAdaptive;
+
+		private int backFrameBudget;
+
+		private long backRenderBudget;
+
 		private PolyMesh prevMesh;
 
 		public SubdivisionDialog(BFrame parent) {
@@ -5551,6 +5680,10 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 					false);
 			PolyMesh mesh = (PolyMesh) objInfo.object;
 			backInteractiveSmoothness = mesh.getInteractiveSmoothLevel();
+			backLimitSurface = mesh.isLimitSurface();
+			backFeatureAdaptive = mesh.isFeatureAdaptive();
+			backFrameBudget = mesh.getFrameBudget();
+			backRenderBudget = mesh.getRenderMemoryBudget();
 			prevMesh = (PolyMesh) mesh.duplicate();
 			InputStream inputStream = null;
 			try {
@@ -5575,6 +5708,39 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 				SpinnerNumberModel model = (SpinnerNumberModel) interactiveSpinner
 						.getModel();
 				model.setMaximum(new Integer(6));
+				limitSurfaceCB = ((BCheckBox) decoder
+						.getObject("limitSurfaceCB"));
+				limitSurfaceCB.setText(Translate.text("polymesh:"+limitSurfaceCB
+						.getText()));
+				limitSurfaceCB.setState(backLimitSurface);
+				limitSurfaceCB.addEventLink(ValueChangedEvent.class, this,
+						"doLimitSurfaceChanged");
+				featureAdaptiveCB = ((BCheckBox) decoder
+						.getObject("featureAdaptiveCB"));
+				featureAdaptiveCB.setText(Translate.text("polymesh:"+featureAdaptiveCB
+						.getText()));
+				featureAdaptiveCB.setState(backFeatureAdaptive);
+				featureAdaptiveCB.addEventLink(ValueChangedEvent.class, this,
+						"doFeatureAdaptiveChanged");
+				BLabel frameBudgetLabel = ((BLabel) decoder
+						.getObject("frameBudgetLabel"));
+				frameBudgetLabel.setText(Translate.text("polymesh:"+frameBudgetLabel
+						.getText()));
+				frameBudgetSpinner = ((BSpinner) decoder
+						.getObject("frameBudgetSpinner"));
+				frameBudgetSpinner.setValue(new Integer(backFrameBudget));
+				frameBudgetSpinner.addEventLink(ValueChangedEvent.class, this,
+						"doFrameBudgetChanged");
+				BLabel renderBudgetLabel = ((BLabel) decoder
+						.getObject("renderBudgetLabel"));
+				renderBudgetLabel.setText(Translate.text("polymesh:"+renderBudgetLabel
+						.getText()));
+				renderBudgetSpinner = ((BSpinner) decoder
+						.getObject("renderBudgetSpinner"));
+				renderBudgetSpinner.setValue(new Integer(backRenderBudget < 0 ? -1
+						: (int) (backRenderBudget / MEGABYTE)));
+				renderBudgetSpinner.addEventLink(ValueChangedEvent.class, this,
+						"doRenderBudgetChanged");
 				BLabel chooseLevelsLabel = ((BLabel) decoder
 						.getObject("chooseLevelsLabel"));
 				chooseLevelsLabel.setText(Translate.text("polymesh:"+chooseLevelsLabel
@@ -5609,6 +5775,10 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		private void doCancel() {
 			PolyMesh mesh = (PolyMesh) objInfo.object;
 			mesh.setInteractiveSmoothLevel(backInteractiveSmoothness);
+			mesh.setLimitSurface(backLimitSurface);
+			mesh.setFeatureAdaptive(backFeatureAdaptive);
+			mesh.setFrameBudget(backFrameBudget);
+			mesh.setRenderMemoryBudget(backRenderBudget);
 			objectChanged();
 			updateImage();
 			dispose();
@@ -5622,10 +5792,35 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 			updateImage();
 		}
 
+		private void doLimitSurfaceChanged() {
+			PolyMesh mesh = (PolyMesh) objInfo.object;
+			mesh.setLimitSurface(limitSurfaceCB.getState());
+			objectChanged();
+			updateImage();
+		}
+
+		private void doFeatureAdaptiveChanged() {
+			PolyMesh mesh = (PolyMesh) objInfo.object;
+			mesh.setFeatureAdaptive(featureAdaptiveCB.getState());
+			objectChanged();
+			updateImage();
+		}
+
+		private void doFrameBudgetChanged() {
+			PolyMesh mesh = (PolyMesh) objInfo.object;
+			mesh.setFrameBudget(((Integer) frameBudgetSpinner.getValue())
+					.intValue());
+		}
+
+		private void doRenderBudgetChanged() {
+			PolyMesh mesh = (PolyMesh) objInfo.object;
+			int megabytes = ((Integer) renderBudgetSpinner.getValue()).intValue();
+			mesh.setRenderMemoryBudget(megabytes < 0 ? -1 : megabytes * MEGABYTE);
+		}
+
 		private void doOK() {
 			PolyMesh mesh = (PolyMesh) objInfo.object;
-			setUndoRecord(new UndoRecord(PolyMeshEditorWindow.this, false,
-					UndoRecord.COPY_OBJECT, new Object[] { mesh, prevMesh }));
+			setMeshUndoRecord(mesh, prevMesh);
 			dispose();
 		}
 	}
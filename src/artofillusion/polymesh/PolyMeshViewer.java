@@ -20,6 +20,8 @@ import java.awt.event.MouseEvent;
 import java.util.ArrayList;
 import java.util.Iterator;
 
+import javax.swing.Timer;
+
 import artofillusion.MeshEditorWindow;
 import artofillusion.MeshViewer;
 import artofillusion.RenderingMesh;
@@ -76,6 +78,8 @@ public class PolyMeshViewer extends MeshViewer
     boolean visible[];
     private ArrayList<Manipulator> manipulators;
     private Manipulator[] manipulatorArray;
+    private Timer idleTimer; //restores the interactive smoothing level when the mouse is idle
+    private static final int IDLE_DELAY = 300;
 
     /**
      * Constructor for the PolyMeshViewer object
@@ -89,7 +93,7 @@ public class PolyMeshViewer extends MeshViewer
     {
         super(window, p);
         PolyMesh mesh = (PolyMesh) window.getObject().object;
-        visible = new boolean[mesh.getVertices().length];
+        visible = new boolean[mesh.getSharedVertices().length];
         manipulators = new ArrayList<Manipulator>();
         manipulatorArray = new Manipulator[0];
         addEventLink(MouseMovedEvent.class, this, "mouseMoved");
@@ -143,6 +147,12 @@ public class PolyMeshViewer extends MeshViewer
     {
         
         PolyMesh mesh = (PolyMesh) getController().getObject().getObject();
+
+        // View dependent smoothing follows the camera of the current view.
+
+        if (controller instanceof PolyMeshEditorWindow && ((PolyMeshEditorWindow) controller).getView() == this
+            && mesh.setViewCamera(theCamera))
+            getController().getObject().clearCachedMeshes();
         PolyMesh viewMesh = mesh;
         boolean mirror = false;
         if (mesh.getMirrorState() != PolyMesh.NO_MIRROR) 
@@ -151,7 +161,7 @@ public class PolyMeshViewer extends MeshViewer
             mirror = true;
         }
         int[] invVertTable = mesh.getInvMirroredVerts();
-        Wvertex v[] = (Wvertex[]) viewMesh.getVertices();
+        Wvertex v[] = viewMesh.getSharedVertices();
         Vec2 p[];
 
         // Calculate the screen coordinates of every vertex.
@@ -177,7 +187,7 @@ public class PolyMeshViewer extends MeshViewer
             sv = (MeshVertex[]) subMesh.getVertices();
         }
         else
-            sv = (MeshVertex[]) viewMesh.getVertices();
+            sv = viewMesh.getSharedVertices();
         Vec2 npt;
         for (int i = 0; i < length; i++)
         {
@@ -197,6 +207,7 @@ public class PolyMeshViewer extends MeshViewer
     protected void drawObject()
     {
         // Now draw the object.
+        long start = System.nanoTime();
         PolyMesh mesh = (PolyMesh) getController().getObject().getObject();
         drawSurface();
         if (!(currentTool instanceof SkeletonTool))
@@ -218,6 +229,60 @@ public class PolyMeshViewer extends MeshViewer
         // Now draw manipulators
         for (int i = 0; i < manipulatorArray.length; i++)
             manipulatorArray[i].draw();
+        if (dragging && mesh.getFrameBudget() > 0)
+            governSmoothLevel(mesh, (System.nanoTime() - start) / 1000000);
+    }
+
+    /**
+     * Lowers the interactive smoothing level if the last frame was over the
+     * frame budget of the mesh (see PolyMesh.setFrameBudget()). Each level less
+     * divides the smoothing and drawing time by about four.
+     */
+    private void governSmoothLevel(PolyMesh mesh, long frameTime)
+    {
+        int frameBudget = mesh.getFrameBudget();
+        if (frameTime <= frameBudget || mesh.getSmoothingMethod() != PolyMesh.APPROXIMATING)
+            return;
+        int level = mesh.getInteractiveSmoothLevel();
+        if (mesh.getInteractiveLevelLimit() > 0)
+            level = Math.min(level, mesh.getInteractiveLevelLimit());
+        int limit = level;
+        while (frameTime > frameBudget && limit > 1)
+        {
+            limit--;
+            frameTime /= 4;
+        }
+        if (limit == level)
+            return;
+        mesh.setInteractiveLevelLimit(limit);
+        getController().getObject().clearCachedMeshes();
+        restartIdleTimer();
+    }
+
+    /**
+     * Restarts the delay after which the smoothing level set by the user is restored
+     */
+    private void restartIdleTimer()
+    {
+        PolyMesh mesh = (PolyMesh) getController().getObject().getObject();
+        if (mesh.getFrameBudget() <= 0)
+            return;
+        if (idleTimer == null)
+        {
+            idleTimer = new Timer(IDLE_DELAY, e -> restoreSmoothLevel());
+            idleTimer.setRepeats(false);
+        }
+        idleTimer.restart();
+    }
+
+    private void restoreSmoothLevel()
+    {
+        PolyMesh mesh = (PolyMesh) getController().getObject().getObject();
+        if (mesh.getInteractiveLevelLimit() == 0)
+            return;
+        mesh.setInteractiveLevelLimit(0);
+        getController().getObject().clearCachedMeshes();
+        currentTool.getWindow().updateImage();
     }
 
     /**
@@ -349,7 +414,7 @@ public class PolyMeshViewer extends MeshViewer
             sv = (MeshVertex[]) subMesh.getVertices();
         }
         else
-            sv = (MeshVertex[]) viewMesh.getVertices();
+            sv = viewMesh.getSharedVertices();
 
         for (int i = 0; i < screenVert.length; i++)
         {
@@ -423,10 +488,10 @@ public class PolyMeshViewer extends MeshViewer
             mirror = true;
             viewMesh = mesh.getMirroredMesh();
         }
-        Wedge[] ore = mesh.getEdges();
-        Wedge[] e = viewMesh.getEdges();
-        Wedge[] trueEdges = mesh.getEdges();
-        Wface[] trueFaces = mesh.getFaces();
+        Wedge[] ore = mesh.getSharedEdges();
+        Wedge[] e = viewMesh.getSharedEdges();
+        Wedge[] trueEdges = mesh.getSharedEdges();
+        Wface[] trueFaces = mesh.getSharedFaces();
         int projectedEdge[] = (controller instanceof PolyMeshEditorWindow ? 
                                ((PolyMeshEditorWindow) controller).findProjectedEdges() : null);
         if (projectedEdge != null)
@@ -740,9 +805,9 @@ public class PolyMeshViewer extends MeshViewer
     protected void mousePressed(WidgetMouseEvent e)
     {
         PolyMesh mesh = (PolyMesh) getController().getObject().getObject();
-        MeshVertex v[] = (MeshVertex[]) mesh.getVertices();
-        Wedge ed[] = mesh.getEdges();
-        Wface f[] = mesh.getFaces();
+        MeshVertex v[] = mesh.getSharedVertices();
+        Wedge ed[] = mesh.getSharedEdges();
+        Wface f[] = mesh.getSharedFaces();
         int i;
         int j;
         int k;
@@ -949,6 +1014,7 @@ public class PolyMeshViewer extends MeshViewer
                 return;
         dragging = true;
         deselect = -1;
+        restartIdleTimer();
         super.mouseDragged(e);
     }
 
@@ -979,9 +1045,9 @@ public class PolyMeshViewer extends MeshViewer
             mirror = true;
             viewMesh = mesh.getMirroredMesh();
         }
-        Wface[] trueFaces = mesh.getFaces();
-        Wedge ed[] = viewMesh.getEdges();
-        Wface fc[] = viewMesh.getFaces();
+        Wface[] trueFaces = mesh.getSharedFaces();
+        Wedge ed[] = viewMesh.getSharedEdges();
+        Wface fc[] = viewMesh.getSharedFaces();
         int i;
         int j;
 
@@ -993,7 +1059,7 @@ public class PolyMeshViewer extends MeshViewer
         boolean hideFace[] = (controller instanceof PolyMeshEditorWindow ? 
                               ((PolyMeshEditorWindow) controller).hideFace : new boolean[fc.length]);
         boolean hideVert[] = (controller instanceof PolyMeshEditorWindow ? 
-                              ((PolyMeshEditorWindow) controller).hideVert : new boolean[mesh.getVertices().length]);
+                              ((PolyMeshEditorWindow) controller).hideVert : new boolean[mesh.getSharedVertices().length]);
 
         if (draggingSelectionBox && !e.isShiftDown() && !e.isControlDown())
             for (i = 0; i < selected.length; i++)
@@ -1184,9 +1250,9 @@ public class PolyMeshViewer extends MeshViewer
             invVertTable = polymesh.invMirroredVerts;
             invFaceTable = polymesh.invMirroredFaces;
         }
-        MeshVertex pv[] = viewMesh.getVertices();
-        Wedge[] ed = viewMesh.getEdges();
-        Wface[] fc = viewMesh.getFaces();
+        MeshVertex pv[] = viewMesh.getSharedVertices();
+        Wedge[] ed = viewMesh.getSharedEdges();
+        Wface[] fc = viewMesh.getSharedFaces();
 
         if (controller instanceof PolyMeshEditorWindow)
             projectedEdge = ((PolyMeshEditorWindow) controller).findProjectedEdges();
@@ -1195,8 +1261,8 @@ public class PolyMeshViewer extends MeshViewer
             submesh = ((PolyMeshEditorWindow) controller).getSubdividedPolyMesh();
             sed = submesh.getEdges();
         }
-        Wedge[] trueEdges = polymesh.getEdges();
-        Wface[] trueFaces = polymesh.getFaces();
+        Wedge[] trueEdges = polymesh.getSharedEdges();
+        Wface[] trueFaces = polymesh.getSharedFaces();
         MeshVertex vt[] = pv;
         if (submesh != null)
             vt = (MeshVertex[]) submesh.getVertices();
@@ -1478,8 +1544,8 @@ public class PolyMeshViewer extends MeshViewer
 
         Vec3 viewDir = getCamera().getViewToWorld().timesDirection(Vec3.vz());
         PolyMesh mesh = (PolyMesh) getController().getObject().getObject();
-        Wvertex[] verts = (Wvertex[]) mesh.getVertices();
-        Wedge[] edges = mesh.getEdges();
+        Wvertex[] verts = mesh.getSharedVertices();
+        Wedge[] edges = mesh.getSharedEdges();
         Vec3[] normals = mesh.getFaceNormals();
         int edge, start, face;
         boolean visibleVert = false;
@@ -1506,7 +1572,7 @@ public class PolyMeshViewer extends MeshViewer
 
         Vec3 viewDir = getCamera().getViewToWorld().timesDirection(Vec3.vz());
         PolyMesh mesh = (PolyMesh) getController().getObject().getObject();
-        Wedge[] edges = mesh.getEdges();
+        Wedge[] edges = mesh.getSharedEdges();
         Vec3[] normals = mesh.getFaceNormals();
         boolean visibleEdge = false;
         if (edges[index].face != -1)
@@ -16,9 +16,11 @@ package artofillusion.polymesh;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InvalidObjectException;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Stack;
-import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import buoy.widget.RowContainer;
 import artofillusion.MeshViewer;
@@ -28,7 +30,10 @@ import artofillusion.Scene;
 import artofillusion.WireframeMesh;
 import artofillusion.animation.Keyframe;
 import artofillusion.animation.Skeleton;
+import artofillusion.material.MaterialMapping;
 import artofillusion.math.BoundingBox;
+import artofillusion.math.Mat4;
+import artofillusion.math.Vec2;
 import artofillusion.math.Vec3;
 import artofillusion.object.FacetedMesh;
 import artofillusion.object.MeshVertex;
@@ -39,6 +44,7 @@ import artofillusion.polymesh.PolyMesh.VertexParamInfo;
 import artofillusion.polymesh.PolyMesh.Wedge;
 import artofillusion.polymesh.PolyMesh.Wface;
 import artofillusion.polymesh.PolyMesh.Wvertex;
+import artofillusion.texture.ConstantParameterValue;
 import artofillusion.texture.FaceParameterValue;
 import artofillusion.texture.FaceVertexParameterValue;
 import artofillusion.texture.ParameterValue;
@@ -261,16 +267,166 @@ public class QuadMesh extends Object3D implements FacetedMesh {
     private QuadVertex[] vertices;
     private QuadEdge[] edges;
     private QuadFace[] faces;
+    private volatile PackedQuadMesh packed; //mesh data of a packed mesh, the arrays above are then null, see pack()
     private BoundingBox bounds;
     private RenderingMesh cachedMesh;
     private WireframeMesh cachedWire;
     private int[] projectedEdges;
+    private boolean limitSurface; //render vertices at their limit position and normal
+    private boolean featureAdaptive; //the last subdivision level only refines around features
+    private Mat4 screenTransform; //object to screen transform for view dependent subdivision
+    private double screenEdgeLength; //projected edge length below which faces are not subdivided
+    private long memoryBudget; //memory the subdivision may use, 0 for no limit
+    private int cappedLevel = -1; //level at which the memory budget stopped some faces, -1 if none
+    private ParameterValue[] uniformParameters; //uniform parameter values smoothed as constants, see smoothMesh()
     public final static int MAX_SMOOTHNESS = 11;
+
+    // Approximate memory used by each vertex, edge and face of a quad mesh, in
+    // object form and packed, and by the rendering mesh built from it, in bytes.
+    // Each texture parameter adds a double per vertex and per face corner.
+
+    static final int VERTEX_BYTES = 96, EDGE_BYTES = 40, FACE_BYTES = 56;
+    static final int PACKED_VERTEX_BYTES = 36, PACKED_EDGE_BYTES = 28, PACKED_FACE_BYTES = 32;
+    static final int RENDER_VERTEX_BYTES = 80, RENDER_FACE_BYTES = 128;
     long t1, t2, t3, t4, t5, t6, t7;
 
+    // Parallel subdivision: loops over more elements than PARALLEL_GRAIN
+    // are split into ranges computed on the common fork-join pool.
+
+    private static final int PARALLEL_GRAIN = 2048;
+    private static volatile boolean parallelSubdivision = true;
+
+    /** A task run over a range of element indices, from included to to excluded. */
+
+    interface RangeTask {
+        void run(int from, int to);
+    }
+
+    private static class RangeAction extends RecursiveAction {
+        private final int from, to;
+        private final RangeTask task;
+
+        RangeAction(int from, int to, RangeTask task) {
+            this.from = from;
+            this.to = to;
+            this.task = task;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_GRAIN) {
+                task.run(from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RangeAction(from, middle, task), new RangeAction(middle, to, task));
+        }
+    }
+
     private QuadMesh() {
     }
 
+    /**
+     * Turns parallel subdivision on or off. When on, the new vertices of each
+     * subdivision level and the normals of the rendering meshes are computed
+     * on several cores. The result does not depend on this setting.
+     */
+
+    public static void setParallelSubdivision(boolean parallel) {
+        parallelSubdivision = parallel;
+    }
+
+    public static boolean isParallelSubdivision() {
+        return parallelSubdivision;
+    }
+
+    /**
+     * Sets whether getRenderingMesh() places the vertices at their position on the
+     * limit surface and uses the limit surface normals. The shading then matches
+     * that of a mesh subdivided one more level.
+     */
+
+    public void setLimitSurface(boolean limit) {
+        limitSurface = limit;
+    }
+
+    public boolean isLimitSurface() {
+        return limitSurface;
+    }
+
+    /**
+     * Sets whether smoothMesh() refines the whole mesh at the last level or only
+     * the faces around extraordinary vertices, creases, boundaries and corners.
+     * The other faces are bicubic B-spline patches, whose vertices are placed
+     * exactly on the surface when the limit surface is rendered (see
+     * setLimitSurface()). The BLZ transition faces keep the mesh free of cracks.
+     */
+
+    public void setFeatureAdaptive(boolean adaptive) {
+        featureAdaptive = adaptive;
+    }
+
+    public boolean isFeatureAdaptive() {
+        return featureAdaptive;
+    }
+
+    /**
+     * Makes smoothMesh() view dependent: a face is not subdivided any more once
+     * all its edges are shorter than a given length on screen.
+     *
+     * @param toScreen   Object to screen transform of the view, null to
+     *                   subdivide independently of any view
+     * @param edgeLength Projected edge length, in pixels
+     */
+
+    public void setViewDependent(Mat4 toScreen, double edgeLength) {
+        screenTransform = toScreen;
+        screenEdgeLength = edgeLength;
+    }
+
+    /**
+     * Sets the memory smoothMesh() may use. Before each level is subdivided, the
+     * memory used by the current and the new level, and by the rendering mesh of
+     * the new level, is estimated. When it would exceed the budget, only the
+     * largest of the faces to subdivide are subdivided, as many as fit, and the
+     * others stay at the current level. The BLZ transition faces keep the mesh
+     * free of cracks between the two.
+     *
+     * @param bytes Memory budget, in bytes. 0 for no limit.
+     */
+
+    public void setMemoryBudget(long bytes) {
+        memoryBudget = bytes;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Returns the subdivision level at which the memory budget first stopped
+     * faces from being subdivided during the last smoothMesh() call, or -1 if
+     * the budget was never reached
+     */
+
+    public int getCappedLevel() {
+        return cappedLevel;
+    }
+
+    /**
+     * Runs a task over the indices 0 to count - 1, in parallel when parallel
+     * subdivision is on and there are enough indices. Each index must only
+     * write to its own output elements.
+     */
+
+    static void forEachRange(int count, RangeTask task) {
+        if (!parallelSubdivision || count <= PARALLEL_GRAIN) {
+            task.run(0, count);
+            return;
+        }
+        ForkJoinPool.commonPool().invoke(new RangeAction(0, count, task));
+    }
+
     public QuadMesh(QuadVertex[] verts, QuadEdge[] edges, QuadFace[] faces) {
         super();
         this.vertices = verts;
@@ -290,9 +446,92 @@ public class QuadMesh extends Object3D implements FacetedMesh {
 
     }
 
+    /**
+     * Packs the mesh into primitive arrays (see PackedQuadMesh) and drops the
+     * vertex, edge and face objects. A mesh which is done smoothing takes much
+     * less memory once packed.
+     *
+     * A packed mesh stays packed and can no longer be modified, so that several
+     * threads may read it at once, as they do for the meshes kept by
+     * SmoothedMeshCache. Its methods read the packed arrays. getVertices(),
+     * getEdges() and getFaces() return objects built from the arrays, which
+     * are not part of the mesh, and the methods which would modify the mesh
+     * throw an IllegalStateException: getUnpackedCopy() returns a mesh which
+     * can be modified. A mesh must be packed before it is handed to other
+     * threads.
+     */
+
+    public synchronized void pack() {
+        if (packed != null)
+            return;
+        packed = new PackedQuadMesh(vertices, edges, faces);
+        vertices = null;
+        edges = null;
+        faces = null;
+    }
+
+    public boolean isPacked() {
+        return packed != null;
+    }
+
+    /**
+     * Returns the mesh data in packed form. If the mesh is not packed, a
+     * snapshot of its current data is returned.
+     */
+
+    public synchronized PackedQuadMesh getPackedMesh() {
+        if (packed != null)
+            return packed;
+        return new PackedQuadMesh(vertices, edges, faces);
+    }
+
+    /**
+     * Returns a copy of this mesh made of vertex, edge and face objects, which
+     * can be modified. If the mesh is not packed, this is the same as
+     * duplicate().
+     */
+
+    public QuadMesh getUnpackedCopy() {
+        PackedQuadMesh p;
+        synchronized (this) {
+            p = packed;
+        }
+        if (p == null)
+            return (QuadMesh) duplicate();
+        QuadMesh mesh = new QuadMesh();
+        mesh.faces = p.toFaces();
+        mesh.edges = p.toEdges();
+        mesh.vertices = p.toVertices();
+        mesh.copySettings(this);
+        return mesh;
+    }
+
+    /**
+     * Throws an IllegalStateException if the mesh is packed, see pack()
+     */
+
+    private void checkNotPacked() {
+        if (packed != null)
+            throw new IllegalStateException("A packed quad mesh cannot be modified");
+    }
+
     @Override
     public void copyObject(Object3D object) {
         QuadMesh mesh = (QuadMesh) object;
+        synchronized (mesh) {
+
+            // The packed data is never modified, so it is shared.
+
+            if (mesh.packed != null) {
+                packed = mesh.packed;
+                vertices = null;
+                edges = null;
+                faces = null;
+                copySettings(mesh);
+                return;
+            }
+        }
+        packed = null;
         vertices = new QuadVertex[mesh.vertices.length];
         for (int i = 0; i < vertices.length; i++) {
             vertices[i] = new QuadVertex(mesh.vertices[i]);
@@ -305,6 +544,17 @@ public class QuadMesh extends Object3D implements FacetedMesh {
         for (int i = 0; i < faces.length; i++) {
             faces[i] = mesh.faces[i];
         }
+        copySettings(mesh);
+    }
+
+    private void copySettings(QuadMesh mesh) {
+        limitSurface = mesh.limitSurface;
+        featureAdaptive = mesh.featureAdaptive;
+        screenTransform = mesh.screenTransform;
+        screenEdgeLength = mesh.screenEdgeLength;
+        memoryBudget = mesh.memoryBudget;
+        cappedLevel = mesh.cappedLevel;
+        uniformParameters = mesh.uniformParameters;
     }
 
     @Override
@@ -335,6 +585,23 @@ public class QuadMesh extends Object3D implements FacetedMesh {
         Vec3 vert[];
         int i;
 
+        PackedQuadMesh p = packed;
+        if (p != null) {
+            double[] coords = p.coords;
+            minx = maxx = coords[0];
+            miny = maxy = coords[1];
+            minz = maxz = coords[2];
+            for (i = 3; i < coords.length; i += 3) {
+                minx = Math.min(minx, coords[i]);
+                maxx = Math.max(maxx, coords[i]);
+                miny = Math.min(miny, coords[i + 1]);
+                maxy = Math.max(maxy, coords[i + 1]);
+                minz = Math.min(minz, coords[i + 2]);
+                maxz = Math.max(maxz, coords[i + 2]);
+            }
+            bounds = new BoundingBox(minx, maxx, miny, maxy, minz, maxz);
+            return;
+        }
         minx = maxx = vertices[0].r.x;
         miny = maxy = vertices[0].r.y;
         minz = maxz = vertices[0].r.z;
@@ -386,6 +653,7 @@ public class QuadMesh extends Object3D implements FacetedMesh {
             zscale = 1.0;
         else
             zscale = zsize / size.z;
+        checkNotPacked();
         for (int i = 0; i < vertices.length; i++) {
             vertices[i].r.x *= xscale;
             vertices[i].r.y *= yscale;
@@ -402,8 +670,19 @@ public class QuadMesh extends Object3D implements FacetedMesh {
         cachedWire = null;
     }
 
+    public int getVertexCount() {
+        PackedQuadMesh p = packed;
+        return (p != null ? p.getVertexCount() : vertices.length);
+    }
+
+    public int getEdgeCount() {
+        PackedQuadMesh p = packed;
+        return (p != null ? p.getEdgeCount() : edges.length);
+    }
+
     public int getFaceCount() {
-        return faces.length;
+        PackedQuadMesh p = packed;
+        return (p != null ? p.getFaceCount() : faces.length);
     }
 
     public int getFaceVertexCount(int face) {
@@ -411,6 +690,10 @@ public class QuadMesh extends Object3D implements FacetedMesh {
     }
 
     public int getFaceVertexIndex(int face, int vertex) {
+        PackedQuadMesh p = packed;
+        if (p != null) {
+            return p.faceVertices[4 * face + vertex];
+        }
         QuadFace f = faces[face];
         if (vertex == 0) {
             return f.v1;
@@ -418,7 +701,7 @@ public class QuadMesh extends Object3D implements FacetedMesh {
         if (vertex == 1) {
             return f.v2;
         }
-        if (vertex == 3) {
+        if (vertex == 2) {
             return f.v3;
         }
         return f.v4;
@@ -434,17 +717,28 @@ public class QuadMesh extends Object3D implements FacetedMesh {
      ignoring smoothness values. */
 
     public Vec3[] getNormals() {
-        Vec3 faceNorm, norm[] = new Vec3[vertices.length];
+        Vec3[] pos;
+        if (packed != null)
+            pos = getVertexPositions();
+        else {
+            pos = new Vec3[vertices.length];
+            for (int i = 0; i < pos.length; i++)
+                pos[i] = vertices[i].r;
+        }
+        int faceCount = getFaceCount();
+        Vec3 faceNorm, norm[] = new Vec3[pos.length];
         double length, dot;
         // Calculate a normal for each face, and average the face normals for each vertex.
 
         for (int i = 0; i < norm.length; i++)
             norm[i] = new Vec3();
-        for (int i = 0; i < faces.length; i++) {
-            Vec3 edge1 = vertices[faces[i].v2].r.minus(vertices[faces[i].v1].r);
-            Vec3 edge2 = vertices[faces[i].v3].r.minus(vertices[faces[i].v2].r);
-            Vec3 edge3 = vertices[faces[i].v4].r.minus(vertices[faces[i].v3].r);
-            Vec3 edge4 = vertices[faces[i].v1].r.minus(vertices[faces[i].v4].r);
+        for (int i = 0; i < faceCount; i++) {
+            int v1 = getFaceVertexIndex(i, 0), v2 = getFaceVertexIndex(i, 1), v3 = getFaceVertexIndex(i, 2),
+                    v4 = getFaceVertexIndex(i, 3);
+            Vec3 edge1 = pos[v2].minus(pos[v1]);
+            Vec3 edge2 = pos[v3].minus(pos[v2]);
+            Vec3 edge3 = pos[v4].minus(pos[v3]);
+            Vec3 edge4 = pos[v1].minus(pos[v4]);
             edge1.normalize();
             edge2.normalize();
             edge3.normalize();
@@ -459,7 +753,7 @@ public class QuadMesh extends Object3D implements FacetedMesh {
                 } else if (dot > 1.0) {
                     dot = 1.0;
                 }
-                norm[faces[i].v1].add(faceNorm.times(Math.acos(dot)));
+                norm[v1].add(faceNorm.times(Math.acos(dot)));
             }
             faceNorm = edge2.cross(edge1);
             length = faceNorm.length();
@@ -471,7 +765,7 @@ public class QuadMesh extends Object3D implements FacetedMesh {
                 } else if (dot > 1.0) {
                     dot = 1.0;
                 }
-                norm[faces[i].v2].add(faceNorm.times(Math.acos(dot)));
+                norm[v2].add(faceNorm.times(Math.acos(dot)));
             }
             faceNorm = edge3.cross(edge2);
             length = faceNorm.length();
@@ -483,7 +777,7 @@ public class QuadMesh extends Object3D implements FacetedMesh {
                 } else if (dot > 1.0) {
                     dot = 1.0;
                 }
-                norm[faces[i].v3].add(faceNorm.times(Math.acos(dot)));
+                norm[v3].add(faceNorm.times(Math.acos(dot)));
             }
             faceNorm = edge4.cross(edge3);
             length = faceNorm.length();
@@ -495,7 +789,7 @@ public class QuadMesh extends Object3D implements FacetedMesh {
                 } else if (dot > 1.0) {
                     dot = 1.0;
                 }
-                norm[faces[i].v4].add(faceNorm.times(Math.acos(dot)));
+                norm[v4].add(faceNorm.times(Math.acos(dot)));
             }
         }
         for (int i = 0; i < norm.length; i++)
@@ -504,6 +798,14 @@ public class QuadMesh extends Object3D implements FacetedMesh {
     }
 
     public Vec3[] getVertexPositions() {
+        PackedQuadMesh p = packed;
+        if (p != null) {
+            double[] coords = p.coords;
+            Vec3 v[] = new Vec3[p.getVertexCount()];
+            for (int i = 0, j = 0; i < v.length; i++, j += 3)
+                v[i] = new Vec3(coords[j], coords[j + 1], coords[j + 2]);
+            return v;
+        }
         Vec3 v[] = new Vec3[vertices.length];
         for (int i = 0; i < v.length; i++)
             v[i] = new Vec3(vertices[i].r);
@@ -511,35 +813,84 @@ public class QuadMesh extends Object3D implements FacetedMesh {
     }
 
     public void setVertexPositions(Vec3 v[]) {
+        checkNotPacked();
         for (int i = 0; i < v.length; i++)
             vertices[i].r = v[i];
         resetMesh();
     }
 
+    /**
+     * Sets the vertex positions from a coordinates array
+     *
+     * @param coords x y z for each vertex, as returned by SubdivisionStencils.apply()
+     */
+
+    public void setVertexPositions(double[] coords) {
+        setVertexPositions(coords, null);
+    }
+
+    /**
+     * Sets the position of some vertices from a coordinates array
+     *
+     * @param coords x y z for each vertex
+     * @param moved  Indices of the vertices to set, null to set all of them
+     */
+
+    public void setVertexPositions(double[] coords, int[] moved) {
+        checkNotPacked();
+        if (moved == null) {
+            for (int i = 0, j = 0; i < vertices.length; i++, j += 3)
+                vertices[i].r = new Vec3(coords[j], coords[j + 1], coords[j + 2]);
+        } else {
+            for (int k = 0; k < moved.length; k++) {
+                int j = moved[k] * 3;
+                vertices[moved[k]].r = new Vec3(coords[j], coords[j + 1], coords[j + 2]);
+            }
+        }
+        resetMesh();
+    }
+
+    /**
+     * Returns the mesh vertices. For a packed mesh, they are built from the
+     * packed data and changing them does not change the mesh (see pack()).
+     */
+
     public MeshVertex[] getVertices() {
-        return vertices;
+        PackedQuadMesh p = packed;
+        return (p != null ? p.toVertices() : vertices);
     }
-    
+
+    /**
+     * Returns the mesh edges, see getVertices()
+     */
+
     public QuadEdge[] getEdges() {
-        return edges;
+        PackedQuadMesh p = packed;
+        return (p != null ? p.toEdges() : edges);
     }
-    
+
+    /**
+     * Returns the mesh faces, see getVertices()
+     */
+
     public QuadFace[] getFaces() {
-        return faces;
+        PackedQuadMesh p = packed;
+        return (p != null ? p.toFaces() : faces);
     }
     
     public TriangleMesh convertToTriangleMesh(double tol) {
-        Vec3[] vertArray = new Vec3[vertices.length];
-        for (int i = 0; i < vertArray.length; ++i)
-            vertArray[i] = (Vec3) vertices[i].r;
-        int[][] facesArray = new int[2*faces.length][3];
-        for (int i = 0; i < faces.length; i++) {
-            facesArray[2*i][0] = faces[i].v1;
-            facesArray[2*i][1] = faces[i].v2;
-            facesArray[2*i][2] = faces[i].v3;
-            facesArray[2*i+1][0] = faces[i].v1;
-            facesArray[2*i+1][1] = faces[i].v3;
-            facesArray[2*i+1][2] = faces[i].v4;
+        Vec3[] vertArray = getVertexPositions();
+        int faceCount = getFaceCount();
+        int[][] facesArray = new int[2*faceCount][3];
+        for (int i = 0; i < faceCount; i++) {
+            int v1 = getFaceVertexIndex(i, 0), v2 = getFaceVertexIndex(i, 1), v3 = getFaceVertexIndex(i, 2),
+                    v4 = getFaceVertexIndex(i, 3);
+            facesArray[2*i][0] = v1;
+            facesArray[2*i][1] = v2;
+            facesArray[2*i][2] = v3;
+            facesArray[2*i+1][0] = v1;
+            facesArray[2*i+1][1] = v3;
+            facesArray[2*i+1][2] = v4;
         }
         TriangleMesh triMesh =new TriangleMesh(vertArray, facesArray);
         triMesh.copyTextureAndMaterial(this);
@@ -551,7 +902,10 @@ public class QuadMesh extends Object3D implements FacetedMesh {
         if (oldParamVal != null) {
             ParameterValue newParamVal[] = new ParameterValue[oldParamVal.length];
             for (int i = 0; i < oldParamVal.length; i++) {
-                if (oldParamVal[i] instanceof VertexParameterValue) {
+                ParameterValue uniform = getUniformParameter(i, oldParamVal[i]);
+                if (uniform != null) {
+                    newParamVal[i] = expandUniformParameter(uniform, vertArray.length, facesArray.length, 3);
+                } else if (oldParamVal[i] instanceof VertexParameterValue) {
                     newParamVal[i] = oldParamVal[i].duplicate();
 
                 } else if (oldParamVal[i] instanceof FaceParameterValue) {
@@ -566,7 +920,7 @@ public class QuadMesh extends Object3D implements FacetedMesh {
                 } else if (oldParamVal[i] instanceof FaceVertexParameterValue) {
                     FaceVertexParameterValue fvpv = (FaceVertexParameterValue) oldParamVal[i];
                     double newval[][] = new double[facesArray.length][3];
-                    for (int j = 0; j < faces.length; ++j) {
+                    for (int j = 0; j < faceCount; ++j) {
                         newval[2*j][0] = fvpv.getValue(j, 0);
                         newval[2*j][1] = fvpv.getValue(j, 1);
                         newval[2*j][2] = fvpv.getValue(j, 2);
@@ -589,15 +943,41 @@ public class QuadMesh extends Object3D implements FacetedMesh {
     }
     
     public void smoothMesh(double tol, boolean calcProjectedEdges, int ns, int[] pe, int maxNs) {
+        smoothMesh(tol, calcProjectedEdges, ns, pe, maxNs, null);
+    }
+
+    /**
+     * Smooths the mesh and records how the subdivided vertices are computed
+     * from the current ones.
+     *
+     * @param stencils The stencil table each subdivision level is added to,
+     *                 or null if stencils are not needed
+     */
+
+    public void smoothMesh(double tol, boolean calcProjectedEdges, int ns, int[] pe, int maxNs, SubdivisionStencils stencils) {
+        checkNotPacked();
+
+        // Texture parameters which have the same value everywhere are carried
+        // through the levels as constants instead of being interpolated.
+
+        ParameterValue[] uniform = findUniformParameters(getParameterValues());
+        if (uniform != null) {
+            setParameterValues(toConstants(getParameterValues(), uniform));
+            addUniformParameters(uniform);
+        }
         projectedEdges = pe;
         if (projectedEdges == null) {
             ns = 0;
         }
         t1 = t2 = t3 = t4 = t5 = t6 = t7 = 0;
-        smoothMesh(tol, calcProjectedEdges, ns, maxNs);
+        cappedLevel = -1;
+        smoothMesh(tol, calcProjectedEdges, ns, maxNs, stencils);
     }
     
-    private void smoothMesh(double tol, boolean calcProjectedEdges, int ns, int maxNs) {
+    private void smoothMesh(double tol, boolean calcProjectedEdges, int ns, int maxNs, SubdivisionStencils stencils) {
+        if (memoryBudget > 0 && !applyMemoryBudget(ns)) {
+            return;
+        }
         Vec3[] normals = getNormals();
         for (int i = 0; i < edges.length; i++) {
             edges[i].mark = false;
@@ -731,49 +1111,90 @@ public class QuadMesh extends Object3D implements FacetedMesh {
         if (calcProjectedEdges) {
             npe = new int[nedges.length];
         }
+        if (stencils != null) {
+            stencils.beginLevel(nverts.length);
+        }
 
         // Compute new vertices.
+        // Each new vertex only depends on the old mesh, so ranges of vertices
+        // are computed in parallel.
 
         // original vertices
 
-        for (int i = 0; i < vertices.length; i++) {
-            nverts[i] = new QuadVertex(vertices[i]);
-        }
+        forEachRange(vertices.length, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                nverts[i] = new QuadVertex(vertices[i]);
+                if (stencils != null) {
+                    stencils.setRow(i, i);
+                }
+            }
+        });
 
         // edge middles
 
-        Vec3 r;
-        index = 0;
-        for (int i = 0; i < edges.length; i++) {
-            if (edges[i].mark) {
-                r = vertices[edges[i].v1].r.plus(vertices[edges[i].v2].r);
+        forEachRange(edges.length, (from, to) -> {
+            SubdivisionStencils.Row row = (stencils != null ? new SubdivisionStencils.Row() : null);
+            for (int i = from; i < to; i++) {
+                if (edgeTable[i] < 0) {
+                    continue;
+                }
+                int k = edgeTable[i] + vertices.length;
+                Vec3 r = vertices[edges[i].v1].r.plus(vertices[edges[i].v2].r);
                 r.scale(0.5);
-                nverts[index+vertices.length] = new QuadVertex(r);
-                nverts[index+vertices.length].firstEdge = edges.length + index;
-                index++;
+                nverts[k] = new QuadVertex(r);
+                nverts[k].firstEdge = edges.length + edgeTable[i];
+                if (stencils != null) {
+                    row.clear();
+                    row.add(edges[i].v1, 0.5);
+                    row.add(edges[i].v2, 0.5);
+                    stencils.setRow(k, row);
+                }
             }
-        }
+        });
 
         // face centers
 
+        int[] centerTable = new int[faces.length];
+        int[] centerEdge = new int[faces.length];
         index = 0;
         int fc = edges.length + edgeCount;
         for (int i = 0; i < faces.length; i++) {
             if (faces[i].mark != QuadFace.FINAL) {
-                r = vertices[faces[i].v1].r.plus(vertices[faces[i].v2].r);
-                r.add(vertices[faces[i].v3].r);
-                r.add(vertices[faces[i].v4].r);
-                r.scale(0.25);
-                nverts[index + edgeCount + vertices.length] = new QuadVertex(r);
-                nverts[index + edgeCount + vertices.length].firstEdge = fc;
+                centerTable[i] = index + edgeCount + vertices.length;
+                centerEdge[i] = fc;
                 index++;
                 if (faces[i].mark == QuadFace.SUBDIVIDE) {
                     fc += 4;
                 } else {
                     fc += 3;
                 }
+            } else {
+                centerTable[i] = -1;
             }
         }
+        forEachRange(faces.length, (from, to) -> {
+            SubdivisionStencils.Row row = (stencils != null ? new SubdivisionStencils.Row() : null);
+            for (int i = from; i < to; i++) {
+                int k = centerTable[i];
+                if (k < 0) {
+                    continue;
+                }
+                Vec3 r = vertices[faces[i].v1].r.plus(vertices[faces[i].v2].r);
+                r.add(vertices[faces[i].v3].r);
+                r.add(vertices[faces[i].v4].r);
+                r.scale(0.25);
+                nverts[k] = new QuadVertex(r);
+                nverts[k].firstEdge = centerEdge[i];
+                if (stencils != null) {
+                    row.clear();
+                    row.add(faces[i].v1, 0.25);
+                    row.add(faces[i].v2, 0.25);
+                    row.add(faces[i].v3, 0.25);
+                    row.add(faces[i].v4, 0.25);
+                    stencils.setRow(k, row);
+                }
+            }
+        });
 
         // Compute edge split at edge middles.
 
@@ -1082,91 +1503,567 @@ public class QuadMesh extends Object3D implements FacetedMesh {
             }
         }
 
-        double dist = 0;
-
         // BLZ algorithm
-        // Variables that describe how many hard edges there are around a vertex. 
-        // This will decide how old vertices are moved.
 
-        int sharp;
-        double weight;
-        int numEdges;
-        int[] hardEdge = new int[2];
-        int[] hardEdgeToVert = new int[2];
-        int[] sharpEdge = new int[2];
-        int[] sharpEdgeToVert = new int[2];
-        double[] smoothEdgeValue = new double[10];
-        Vec3 pos;
-        int count;
-        int face1, face2, nextVert;
-        double maxHard;
-        sharpEdge[1] = sharpEdge[0] = -1;
-        smoothEdgeValue[1] = smoothEdgeValue[0] = 1;
-        int hardnum;
-        Vec3 sharpPt;
-        double smoothness;
-        double maxDist = 0.0;
-        for (int i = 0; i < vertices.length; ++i) {
-            if (!moveVerts[i]) {
-                // fixed vertex
+        forEachRange(vertices.length, (from, to) -> moveVertices(from, to, nverts, moveVerts, normals, tol, ns, stencils));
+
+        // Compute mid edge vertices location.
+
+        forEachRange(edges.length, (from, to) -> moveEdgeMiddles(from, to, nverts, moveVerts, edgeTable, normals, tol, ns, stencils));
+        if (stencils != null) {
+            stencils.endLevel();
+        }
+
+        // In view dependent mode, faces small enough on screen are final.
+
+        Vec2[] screen = null;
+        if (screenTransform != null && ns < maxNs && ns < MAX_SMOOTHNESS - 1) {
+            Vec2[] proj = new Vec2[nverts.length];
+            forEachRange(nverts.length, (from, to) -> {
+                for (int i = from; i < to; i++) {
+                    proj[i] = screenTransform.timesXY(nverts[i].r);
+                }
+            });
+            screen = proj;
+        }
+        boolean refine = false;
+        for (int i = 0; i < nfaces.length; i++) {
+            if (nfaces[i].mark == QuadFace.FINAL) {
                 continue;
             }
+            if ((moveVerts[nfaces[i].v1] || moveVerts[nfaces[i].v2] || moveVerts[nfaces[i].v3]
+                                || moveVerts[nfaces[i].v4]) && (screen == null || !isSmallOnScreen(nfaces[i], screen))) {
+                refine = true;
+                nfaces[i].mark = QuadFace.SUBDIVIDE;
+            } else {
+                nfaces[i].mark = QuadFace.FINAL;
+            }
+        }
 
-            // adjacent polygons
+        // In feature adaptive mode the last level only refines the faces touching
+        // an extraordinary vertex, a crease, a boundary or a corner.
 
-            moveVerts[i] = false;
-            int ve[] = getVertexEdges(vertices[i]);
-            numEdges = ve.length;
-            if (numEdges > smoothEdgeValue.length) {
-                smoothEdgeValue = new double[ve.length];
-            }
-            hardnum = 0;
-            sharp = 0;
-            weight = 0;
-            pos = new Vec3();
-            count = 0;
-            maxHard = 0.0;
-            for (int j = 0; j < numEdges; ++j) {
-                smoothEdgeValue[j] = 0.0;
-                if (edges[ve[j]].v1 == i) {
-                    face1 = edges[ve[j]].f1;
-                    face2 = edges[ve[j]].f2;
-                    nextVert = edges[ve[j]].v2;
-                } else {
-                    face1 = edges[ve[j]].f2;
-                    face2 = edges[ve[j]].f1;
-                    nextVert = edges[ve[j]].v1;
+        if (featureAdaptive && refine && ns < maxNs && ns + 1 >= Math.min(maxNs, MAX_SMOOTHNESS - 1)) {
+            boolean[] regular = findRegularVertices(nverts, nedges);
+            refine = false;
+            for (int i = 0; i < nfaces.length; i++) {
+                face = nfaces[i];
+                if (face.mark == QuadFace.FINAL) {
+                    continue;
                 }
-                if (face1 != -1) {
-                    int pv = getPreviousVertex(i, face1);
-                    if (pv == -1)
-                        continue;
-                    r = vertices[faces[face1].v1].r.plus(vertices[faces[face1].v2].r);
-                    r.add(vertices[faces[face1].v3].r);
-                    r.add(vertices[faces[face1].v4].r);
-                    r.scale(0.25);
-                    pos.add(r);
-                    pos.subtract(vertices[nextVert].r.times(1.0 / 4.0));
-                    pos.subtract(vertices[pv].r.times(1.0 / 4.0));
-                    pos.subtract(vertices[i].r.times(1.0 / 4.0));
-                    ++count;
+                if (regular[face.v1] && regular[face.v2] && regular[face.v3] && regular[face.v4]) {
+                    face.mark = QuadFace.FINAL;
+                } else {
+                    refine = true;
                 }
-                pos.add(vertices[nextVert].r.times(3.0 / 2.0));
-                smoothness = edges[ve[j]].smoothness;
-                if (face1 != -1 && face2 != -1)
-                    smoothness = (1.0 - smoothness) * MAX_SMOOTHNESS;
-                else
-                    smoothness = MAX_SMOOTHNESS; // Boundary edges are treated as hard edges.
-                if (ns + 1 <= smoothness) {
-                    if (sharp < 2) {
-                        sharpEdge[sharp] = ve[j];
-                        sharpEdgeToVert[sharp] = nextVert;
-                    }
-                    ++sharp;
-                } else if (ns < smoothness) {
-                    weight += smoothness - ns;
-                    smoothEdgeValue[j] = smoothness - ns;
-                    if (smoothEdgeValue[j] > maxHard) {
+            }
+        }
+
+        // Compute new texture parameters.
+
+        ParameterValue oldParamVal[] = getParameterValues();
+        if (oldParamVal != null) {
+            ParameterValue newParamVal[] = new ParameterValue[oldParamVal.length];
+            for (int i = 0; i < oldParamVal.length; i++) {
+                if (oldParamVal[i] instanceof FaceParameterValue) {
+                    double oldval[] = ((FaceParameterValue) oldParamVal[i]).getValue();
+                    double newval[] = new double[nfaces.length];
+                    index = 0;
+                    fc = 0;
+                    for (int j = 0; j < faces.length; j++) {
+                        if (faces[j].mark == QuadFace.FINAL) {
+                            newval[index] = oldval[j];
+                            index++;
+                        } else if (faces[j].mark == QuadFace.SUBDIVIDE) {
+                            newval[faceStart + fc] = oldval[j];
+                            newval[faceStart + fc + 1] = oldval[j];
+                            newval[faceStart + fc + 2] = oldval[j];
+                            newval[faceStart + fc + 3] = oldval[j];
+                            fc += 4;
+                        } else if (faces[j].mark == QuadFace.YV2 ||
+                                faces[j].mark == QuadFace.YV4) {
+                            newval[faceStart + fc] = oldval[j];
+                            newval[faceStart + fc + 1] = oldval[j];
+                            newval[faceStart + fc + 2] = oldval[j];
+                            fc += 3;
+                        }
+                    }
+                    newParamVal[i] = new FaceParameterValue(newval);
+                } else if (oldParamVal[i] instanceof VertexParameterValue) {
+                    double oldval[] = ((VertexParameterValue) oldParamVal[i]).getValue();
+                    double newval[] = new double[nverts.length];
+                    for (int j = 0; j < vertices.length; ++j) {
+                        newval[j] = oldval[j];
+                    }
+                    for (int j = 0; j < edges.length; ++j) {
+                        index = edgeTable[j];
+                        if (index < 0) {
+                            continue;
+                        }
+                        newval[index+vertices.length] = (oldval[edges[j].v1] + oldval[edges[j].v2])/2;
+                    }
+                    index = 0;
+                    for (int j = 0; j < faces.length; ++j) {
+                        if (faces[j].mark != QuadFace.FINAL) {
+                            newval[index+edgeCount+vertices.length] = (oldval[faces[j].v1] + oldval[faces[j].v2] + 
+                                oldval[faces[j].v3] + oldval[faces[j].v4])/4;
+                            index++;
+                        }
+                    }
+                    newParamVal[i] = new VertexParameterValue(newval);
+                } else if (oldParamVal[i] instanceof FaceVertexParameterValue) {
+                    double center, val1, val2, val3, val4, nv1, nv2, nv3, nv4;
+                    FaceVertexParameterValue fvpv = (FaceVertexParameterValue) oldParamVal[i];
+                    double newval[][] = new double[nfaces.length][];
+                    fc = 0;
+                    index = 0;
+                    for (int j = 0; j < faces.length; ++j) {
+                        if (faces[j].mark == QuadFace.FINAL) {
+                            newval[index] = new double[4];
+                            for(int k = 0; k < 4; k++) {
+                                newval[index][k] = fvpv.getValue(j, k);
+                            }
+                            index++;
+                            continue;
+                        }
+                        center = val1 = fvpv.getValue(j, 0);
+                        center += val2 = fvpv.getValue(j, 1);
+                        center += val3 = fvpv.getValue(j, 2);
+                        center += val4 = fvpv.getValue(j, 3);
+                        center /= 4;
+                        nv1 = (val1 + val2)*0.5;
+                        nv2 = (val2 + val3)*0.5;
+                        nv3 = (val3 + val4)*0.5;
+                        nv4 = (val4 + val1)*0.5;
+                        if (faces[j].mark == QuadFace.SUBDIVIDE) {
+                            newval[faceStart + fc] = new double[] { val1, nv1, center, nv4 };
+                            newval[faceStart + fc + 1] = new double[] { val2, nv2, center, nv1 };
+                            newval[faceStart + fc + 2] = new double[] { val3, nv3, center, nv2 };
+                            newval[faceStart + fc + 3] = new double[] { val4, nv4, center, nv3 };
+                            fc += 4;
+                        } else if (faces[j].mark == QuadFace.YV2) {
+                            newval[faceStart + fc] = new double[] { val1, nv1, center, val4 };
+                            newval[faceStart + fc + 1] = new double[] { val2, nv2, center, nv1 };
+                            newval[faceStart + fc + 2] = new double[] { val3, val4, center, nv2 };
+                            fc += 3;
+                        }  else if (faces[j].mark == QuadFace.YV4) {
+                            newval[faceStart + fc] = new double[] { val1, val2, center, nv4 };
+                            newval[faceStart + fc + 1] = new double[] { val2, val3, nv3, center};
+                            newval[faceStart + fc + 2] = new double[] { val4, nv4, center, nv3 };
+                            fc += 3;
+                        }
+                    }
+                    newParamVal[i] = new FaceVertexParameterValue(newval);
+                } else
+                    newParamVal[i] = oldParamVal[i].duplicate();
+            }
+            setParameterValues(newParamVal);
+        }
+
+        vertices = nverts;
+        edges = nedges;
+        faces = nfaces;
+        projectedEdges = npe ;
+        resetMesh();
+
+        // An interrupted thread is a cancelled background smoothing (see SmoothingService).
+
+        if (refine && ns < MAX_SMOOTHNESS - 1 && ns < maxNs && !Thread.currentThread().isInterrupted()) {
+            smoothMesh(tol, calcProjectedEdges, ns+1, maxNs, stencils);
+        }
+    }
+    
+    /**
+     * Records parameter values which were replaced by constants because they
+     * have the same value everywhere. convertToTriangleMesh() turns the
+     * constants back into values of the original kind.
+     *
+     * @param uniform The original values at their index, null elsewhere, as
+     *                returned by findUniformParameters(). May be null.
+     */
+
+    void addUniformParameters(ParameterValue[] uniform) {
+        if (uniform == null) {
+            return;
+        }
+        if (uniformParameters == null || uniformParameters.length != uniform.length) {
+            uniformParameters = uniform.clone();
+            return;
+        }
+        ParameterValue[] merged = uniformParameters.clone();
+        for (int i = 0; i < merged.length; i++) {
+            if (uniform[i] != null) {
+                merged[i] = uniform[i];
+            }
+        }
+        uniformParameters = merged;
+    }
+
+    /**
+     * Returns the original value of a parameter smoothed as a constant, or null
+     * if the parameter has its own value
+     *
+     * @param value Current value of the parameter
+     */
+
+    private ParameterValue getUniformParameter(int i, ParameterValue value) {
+        if (uniformParameters == null || i >= uniformParameters.length || uniformParameters[i] == null
+                || !(value instanceof ConstantParameterValue)) {
+            return null;
+        }
+        if (value.getAverageValue() != getUniformValue(uniformParameters[i])) {
+            return null;
+        }
+        return uniformParameters[i];
+    }
+
+    /**
+     * Finds the per vertex, per face and per face per vertex parameter values
+     * which are the same everywhere, as they are until the values are edited.
+     * Such values need not be interpolated through subdivision levels.
+     *
+     * @return The uniform values at their index and null elsewhere, or null if
+     *         no value is uniform
+     */
+
+    static ParameterValue[] findUniformParameters(ParameterValue[] params) {
+        if (params == null) {
+            return null;
+        }
+        ParameterValue[] uniform = null;
+        for (int i = 0; i < params.length; i++) {
+            if (isUniform(params[i])) {
+                if (uniform == null) {
+                    uniform = new ParameterValue[params.length];
+                }
+                uniform[i] = params[i];
+            }
+        }
+        return uniform;
+    }
+
+    private static boolean isUniform(ParameterValue value) {
+        if (value instanceof VertexParameterValue || value instanceof FaceParameterValue) {
+            double[] val = (value instanceof VertexParameterValue ? ((VertexParameterValue) value).getValue()
+                    : ((FaceParameterValue) value).getValue());
+            if (val.length == 0) {
+                return false;
+            }
+            for (int i = 1; i < val.length; i++) {
+                if (val[i] != val[0]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (value instanceof FaceVertexParameterValue) {
+            FaceVertexParameterValue fvpv = (FaceVertexParameterValue) value;
+            if (fvpv.getFaceCount() == 0 || fvpv.getFaceVertexCount(0) == 0) {
+                return false;
+            }
+            double first = fvpv.getValue(0, 0);
+            for (int i = 0; i < fvpv.getFaceCount(); i++) {
+                for (int j = 0; j < fvpv.getFaceVertexCount(i); j++) {
+                    if (fvpv.getValue(i, j) != first) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static double getUniformValue(ParameterValue uniform) {
+        if (uniform instanceof VertexParameterValue) {
+            return ((VertexParameterValue) uniform).getValue()[0];
+        }
+        if (uniform instanceof FaceParameterValue) {
+            return ((FaceParameterValue) uniform).getValue()[0];
+        }
+        return ((FaceVertexParameterValue) uniform).getValue(0, 0);
+    }
+
+    /**
+     * Returns a copy of a parameter value array where the uniform values (see
+     * findUniformParameters()) are replaced by constants
+     */
+
+    static ParameterValue[] toConstants(ParameterValue[] params, ParameterValue[] uniform) {
+        ParameterValue[] values = new ParameterValue[params.length];
+        for (int i = 0; i < params.length; i++) {
+            if (uniform[i] != null) {
+                values[i] = new ConstantParameterValue(getUniformValue(uniform[i]));
+            } else {
+                values[i] = params[i];
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Builds a value of the same kind as a uniform parameter value, for a mesh
+     * of the given size
+     *
+     * @param cornerCount Number of vertices of each face
+     */
+
+    static ParameterValue expandUniformParameter(ParameterValue uniform, int vertexCount, int faceCount, int cornerCount) {
+        double value = getUniformValue(uniform);
+        if (uniform instanceof VertexParameterValue) {
+            double[] val = new double[vertexCount];
+            Arrays.fill(val, value);
+            return new VertexParameterValue(val);
+        }
+        if (uniform instanceof FaceParameterValue) {
+            double[] val = new double[faceCount];
+            Arrays.fill(val, value);
+            return new FaceParameterValue(val);
+        }
+        double[][] val = new double[faceCount][cornerCount];
+        for (int i = 0; i < faceCount; i++) {
+            Arrays.fill(val[i], value);
+        }
+        return new FaceVertexParameterValue(val);
+    }
+
+    /**
+     * Limits the faces subdivided at this level to the memory budget (see
+     * setMemoryBudget()). Each subdivided face adds about three vertices, six
+     * edges and three faces, and the transition faces around the subdivided
+     * regions add some more. The largest faces are kept first.
+     *
+     * @return False if no face can be subdivided within the budget
+     */
+
+    private boolean applyMemoryBudget(int ns) {
+        int subdivided = 0;
+        for (int i = 0; i < faces.length; i++) {
+            if (faces[i].mark == QuadFace.SUBDIVIDE) {
+                subdivided++;
+            }
+        }
+        if (subdivided == 0) {
+            return true;
+        }
+        ParameterValue[] params = getParameterValues();
+        int paramCount = (params == null ? 0 : params.length);
+        double vertexBytes = VERTEX_BYTES + paramCount * 8;
+        double faceBytes = FACE_BYTES + paramCount * 32;
+        double current = vertices.length * vertexBytes + edges.length * (double) EDGE_BYTES + faces.length * faceBytes;
+        double rendering = vertices.length * (double) RENDER_VERTEX_BYTES + faces.length * (double) RENDER_FACE_BYTES;
+        double perFace = 1.25 * (3 * vertexBytes + 6 * EDGE_BYTES + 3 * faceBytes);
+        double perFaceRendering = 1.25 * (3 * RENDER_VERTEX_BYTES + 3 * RENDER_FACE_BYTES);
+
+        // The peak is either both levels during the subdivision, or the new
+        // level and its rendering mesh.
+
+        double fit = Math.min((memoryBudget - 2 * current) / perFace,
+                (memoryBudget - current - rendering) / (perFace + perFaceRendering));
+        if (fit >= subdivided) {
+            return true;
+        }
+        if (cappedLevel < 0) {
+            cappedLevel = ns;
+        }
+        int keep = (int) Math.max(0, Math.floor(fit));
+        if (keep == 0) {
+            for (int i = 0; i < faces.length; i++) {
+                faces[i].mark = QuadFace.FINAL;
+            }
+            return false;
+        }
+        double[] size = new double[faces.length];
+        double[] sorted = new double[subdivided];
+        for (int i = 0, k = 0; i < faces.length; i++) {
+            if (faces[i].mark == QuadFace.SUBDIVIDE) {
+                size[i] = getFaceSize(faces[i]);
+                sorted[k++] = size[i];
+            }
+        }
+        Arrays.sort(sorted);
+        double threshold = sorted[subdivided - keep];
+        for (int i = 0; i < faces.length; i++) {
+            if (faces[i].mark != QuadFace.SUBDIVIDE) {
+                continue;
+            }
+            if (size[i] >= threshold && keep > 0) {
+                keep--;
+            } else {
+                faces[i].mark = QuadFace.FINAL;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the sum of the squared diagonals of a face
+     */
+
+    private double getFaceSize(QuadFace f) {
+        return vertices[f.v1].r.distance2(vertices[f.v3].r) + vertices[f.v2].r.distance2(vertices[f.v4].r);
+    }
+
+    /**
+     * Tells if all edges of a face are shorter on screen than the view dependent
+     * edge length
+     *
+     * @param screen Screen positions of the face vertices
+     */
+
+    private boolean isSmallOnScreen(QuadFace f, Vec2[] screen) {
+        return isShortOnScreen(screen[f.v1], screen[f.v2]) && isShortOnScreen(screen[f.v2], screen[f.v3])
+                && isShortOnScreen(screen[f.v3], screen[f.v4]) && isShortOnScreen(screen[f.v4], screen[f.v1]);
+    }
+
+    private boolean isShortOnScreen(Vec2 p1, Vec2 p2) {
+        double dx = p2.x - p1.x;
+        double dy = p2.y - p1.y;
+        return dx * dx + dy * dy < screenEdgeLength * screenEdgeLength;
+    }
+
+    /**
+     * Finds the regular vertices of a mesh: vertices inside the mesh, of valence
+     * four, which are not corners or creases and whose edges are all smooth.
+     * A face whose four vertices are regular is a bicubic B-spline patch.
+     */
+
+    private static boolean[] findRegularVertices(QuadVertex[] verts, QuadEdge[] edgs) {
+        int[] valence = new int[verts.length];
+        boolean[] regular = new boolean[verts.length];
+        for (int i = 0; i < verts.length; i++) {
+            regular[i] = (verts[i].type == QuadVertex.NONE);
+        }
+        for (int i = 0; i < edgs.length; i++) {
+            QuadEdge e = edgs[i];
+            valence[e.v1]++;
+            valence[e.v2]++;
+            if (e.f2 == -1 || e.smoothness < 1.0f) {
+                regular[e.v1] = false;
+                regular[e.v2] = false;
+            }
+        }
+        for (int i = 0; i < verts.length; i++) {
+            if (valence[i] != 4) {
+                regular[i] = false;
+            }
+        }
+        return regular;
+    }
+
+    /**
+     * Computes the new location of a range of old vertices (BLZ algorithm).
+     * Only the vertices of the range are written to, so that ranges can be
+     * computed in parallel.
+     */
+
+    private void moveVertices(int from, int to, QuadVertex[] nverts, boolean[] moveVerts, Vec3[] normals,
+            double tol, int ns, SubdivisionStencils stencils) {
+        SubdivisionStencils.Row row = null;
+        SubdivisionStencils.Row sharpRow = null;
+        if (stencils != null) {
+            row = new SubdivisionStencils.Row();
+            sharpRow = new SubdivisionStencils.Row();
+        }
+        Vec3 r;
+        double dist;
+
+        // Variables that describe how many hard edges there are around a vertex. 
+        // This will decide how old vertices are moved.
+
+        int sharp;
+        double weight;
+        int numEdges;
+        int[] hardEdge = new int[2];
+        int[] hardEdgeToVert = new int[2];
+        int[] sharpEdge = new int[2];
+        int[] sharpEdgeToVert = new int[2];
+        double[] smoothEdgeValue = new double[10];
+        Vec3 pos;
+        int count;
+        int face1, face2, nextVert;
+        double maxHard;
+        sharpEdge[1] = sharpEdge[0] = -1;
+        smoothEdgeValue[1] = smoothEdgeValue[0] = 1;
+        int hardnum;
+        Vec3 sharpPt;
+        double smoothness;
+        for (int i = from; i < to; ++i) {
+            if (!moveVerts[i]) {
+                // fixed vertex
+                continue;
+            }
+
+            // adjacent polygons
+
+            moveVerts[i] = false;
+            int ve[] = getVertexEdges(vertices[i]);
+            numEdges = ve.length;
+            if (numEdges > smoothEdgeValue.length) {
+                smoothEdgeValue = new double[ve.length];
+            }
+            hardnum = 0;
+            sharp = 0;
+            weight = 0;
+            pos = new Vec3();
+            if (stencils != null) {
+                row.clear();
+            }
+            count = 0;
+            maxHard = 0.0;
+            for (int j = 0; j < numEdges; ++j) {
+                smoothEdgeValue[j] = 0.0;
+                if (edges[ve[j]].v1 == i) {
+                    face1 = edges[ve[j]].f1;
+                    face2 = edges[ve[j]].f2;
+                    nextVert = edges[ve[j]].v2;
+                } else {
+                    face1 = edges[ve[j]].f2;
+                    face2 = edges[ve[j]].f1;
+                    nextVert = edges[ve[j]].v1;
+                }
+                if (face1 != -1) {
+                    int pv = getPreviousVertex(i, face1);
+                    if (pv == -1)
+                        continue;
+                    r = vertices[faces[face1].v1].r.plus(vertices[faces[face1].v2].r);
+                    r.add(vertices[faces[face1].v3].r);
+                    r.add(vertices[faces[face1].v4].r);
+                    r.scale(0.25);
+                    pos.add(r);
+                    pos.subtract(vertices[nextVert].r.times(1.0 / 4.0));
+                    pos.subtract(vertices[pv].r.times(1.0 / 4.0));
+                    pos.subtract(vertices[i].r.times(1.0 / 4.0));
+                    if (stencils != null) {
+                        row.add(faces[face1].v1, 0.25);
+                        row.add(faces[face1].v2, 0.25);
+                        row.add(faces[face1].v3, 0.25);
+                        row.add(faces[face1].v4, 0.25);
+                        row.add(nextVert, -0.25);
+                        row.add(pv, -0.25);
+                        row.add(i, -0.25);
+                    }
+                    ++count;
+                }
+                pos.add(vertices[nextVert].r.times(3.0 / 2.0));
+                if (stencils != null) {
+                    row.add(nextVert, 1.5);
+                }
+                smoothness = edges[ve[j]].smoothness;
+                if (face1 != -1 && face2 != -1)
+                    smoothness = (1.0 - smoothness) * MAX_SMOOTHNESS;
+                else
+                    smoothness = MAX_SMOOTHNESS; // Boundary edges are treated as hard edges.
+                if (ns + 1 <= smoothness) {
+                    if (sharp < 2) {
+                        sharpEdge[sharp] = ve[j];
+                        sharpEdgeToVert[sharp] = nextVert;
+                    }
+                    ++sharp;
+                } else if (ns < smoothness) {
+                    weight += smoothness - ns;
+                    smoothEdgeValue[j] = smoothness - ns;
+                    if (smoothEdgeValue[j] > maxHard) {
                         maxHard = smoothEdgeValue[j];
                     }
                     if (hardnum < 2)
@@ -1188,6 +2085,14 @@ public class QuadMesh extends Object3D implements FacetedMesh {
                 pos.add(vertices[i].r);
             else
                 pos.add(vertices[i].r.times(1.0 - 3.0 / (2.0 * count) - 1.0 / (4.0 * count)));
+            if (stencils != null) {
+                if (count != 0) {
+                    row.scale(1.0 / ((double) count * count));
+                    row.add(i, 1.0 - 3.0 / (2.0 * count) - 1.0 / (4.0 * count));
+                } else {
+                    row.add(i, 1.0);
+                }
+            }
 
             if (vertices[i].type != Wvertex.CORNER) {
                 switch (sharp) {
@@ -1198,29 +2103,61 @@ public class QuadMesh extends Object3D implements FacetedMesh {
                         sharpPt.add(vertices[hardEdgeToVert[0]].r.times(0.125));
                         sharpPt.add(vertices[hardEdgeToVert[1]].r.times(0.125));
                         pos = pos.times(1 - weight).plus(sharpPt.times(weight));
+                        if (stencils != null) {
+                            row.scale(1 - weight);
+                            row.add(i, 0.75 * weight);
+                            row.add(hardEdgeToVert[0], 0.125 * weight);
+                            row.add(hardEdgeToVert[1], 0.125 * weight);
+                        }
                     } else if (hardnum > 2) {
                         weight /= hardnum;
                         pos = pos.times(1 - weight).plus(nverts[i].r.times(weight));
+                        if (stencils != null) {
+                            row.scale(1 - weight);
+                            row.add(i, weight);
+                        }
                     }
                     break;
                 case 1:
                     if (hardnum == 1) {
                         pos = pos.times(1 - maxHard).plus(vertices[i].r.times(maxHard));
+                        if (stencils != null) {
+                            row.scale(1 - maxHard);
+                            row.add(i, maxHard);
+                        }
                     } else if (hardnum > 1) {
                         weight /= hardnum;
                         pos = pos.times(1 - weight).plus(vertices[i].r.times(weight));
+                        if (stencils != null) {
+                            row.scale(1 - weight);
+                            row.add(i, weight);
+                        }
                     }
                     break;
                 case 2:
                     sharpPt = new Vec3(vertices[i].r.times(0.75));
                     sharpPt.add(vertices[sharpEdgeToVert[0]].r.times(0.125));
                     sharpPt.add(vertices[sharpEdgeToVert[1]].r.times(0.125));
+                    if (stencils != null) {
+                        sharpRow.clear();
+                        sharpRow.add(i, 0.75);
+                        sharpRow.add(sharpEdgeToVert[0], 0.125);
+                        sharpRow.add(sharpEdgeToVert[1], 0.125);
+                    }
                     if (hardnum == 0) {
                         pos = sharpPt;
+                        if (stencils != null) {
+                            row.set(sharpRow);
+                        }
                     }
                     else {
                         weight /= hardnum;
                         pos = sharpPt.times(1 - weight).plus(vertices[i].r.times(weight));
+                        if (stencils != null) {
+                            row.clear();
+                            row.add(sharpRow, 1 - weight);
+                            row.add(i, weight);
+                        }
                     }
                     break;
                 default:
@@ -1236,20 +2173,31 @@ public class QuadMesh extends Object3D implements FacetedMesh {
                     if (dist > tol) {
                         moveVerts[i] = true;
                     }
-                    if (dist > maxDist) {
-                        maxDist = dist;
-                    }
                     nverts[i].r = pos;
+                    if (stencils != null) {
+                        stencils.setRow(i, row);
+                    }
                 }
             }
         }
+    }
 
-        // Compute mid edge vertices location.
+    /**
+     * Computes the location of a range of new mid edge vertices.
+     * Only the vertices of the range are written to, so that ranges can be
+     * computed in parallel.
+     */
 
+    private void moveEdgeMiddles(int from, int to, QuadVertex[] nverts, boolean[] moveVerts, int[] edgeTable,
+            Vec3[] normals, double tol, int ns, SubdivisionStencils stencils) {
+        SubdivisionStencils.Row row = (stencils != null ? new SubdivisionStencils.Row() : null);
+        int index, face1, face2;
+        double smoothness, dist;
+        Vec3 pos;
         int v1, v2, v3, v4, v5, v6;
         Vec3 v1r, v2r, v3r, v4r, v5r, v6r, pt2;
         double gamma;
-        for (int i = 0; i < edges.length; ++i) {
+        for (int i = from; i < to; ++i) {
             index = edgeTable[i];
             if (index < 0) {
                 // unsplit edge
@@ -1299,7 +2247,22 @@ public class QuadMesh extends Object3D implements FacetedMesh {
             }
             if (ns + 1 <= smoothness) {
                 continue;
-            } else if (ns < smoothness) {
+            }
+            if (stencils != null) {
+                row.clear();
+                row.add(v1, 0.75 - gamma);
+                row.add(v2, gamma);
+                row.add(v3, 0.0625);
+                row.add(v4, 0.0625);
+                row.add(v5, 0.0625);
+                row.add(v6, 0.0625);
+                if (ns < smoothness) {
+                    row.scale(1 - (smoothness - ns));
+                    row.add(v1, 0.5 * (smoothness - ns));
+                    row.add(v2, 0.5 * (smoothness - ns));
+                }
+            }
+            if (ns < smoothness) {
                 pos = v1r.times(0.75 - gamma);
                 pos.add(v2r.times(gamma));
                 pt2 = new Vec3(v3r);
@@ -1325,137 +2288,13 @@ public class QuadMesh extends Object3D implements FacetedMesh {
             if ( dist > tol ) {
                 moveVerts[index+vertices.length] = true;
             }
-            if (dist > maxDist) {
-                maxDist = dist;
-            }
             nverts[index+vertices.length].r = pos;
-        }
-        boolean refine = false;
-        for (int i = 0; i < nfaces.length; i++) {
-            if (nfaces[i].mark == QuadFace.FINAL) {
-                continue;
-            }
-            if (moveVerts[nfaces[i].v1] || moveVerts[nfaces[i].v2] || moveVerts[nfaces[i].v3]
-                                || moveVerts[nfaces[i].v4]  ) {
-                refine = true;
-                nfaces[i].mark = QuadFace.SUBDIVIDE;
-            } else {
-                nfaces[i].mark = QuadFace.FINAL;
-            }
-        }
-
-        // Compute new texture parameters.
-
-        ParameterValue oldParamVal[] = getParameterValues();
-        if (oldParamVal != null) {
-            ParameterValue newParamVal[] = new ParameterValue[oldParamVal.length];
-            for (int i = 0; i < oldParamVal.length; i++) {
-                if (oldParamVal[i] instanceof FaceParameterValue) {
-                    double oldval[] = ((FaceParameterValue) oldParamVal[i]).getValue();
-                    double newval[] = new double[nfaces.length];
-                    index = 0;
-                    fc = 0;
-                    for (int j = 0; j < faces.length; j++) {
-                        if (faces[j].mark == QuadFace.FINAL) {
-                            newval[index] = oldval[j];
-                            index++;
-                        } else if (faces[j].mark == QuadFace.SUBDIVIDE) {
-                            newval[faceStart + fc] = oldval[j];
-                            newval[faceStart + fc + 1] = oldval[j];
-                            newval[faceStart + fc + 2] = oldval[j];
-                            newval[faceStart + fc + 3] = oldval[j];
-                            fc += 4;
-                        } else if (faces[j].mark == QuadFace.YV2 ||
-                                faces[j].mark == QuadFace.YV4) {
-                            newval[faceStart + fc] = oldval[j];
-                            newval[faceStart + fc + 1] = oldval[j];
-                            newval[faceStart + fc + 2] = oldval[j];
-                            fc += 3;
-                        }
-                    }
-                    newParamVal[i] = new FaceParameterValue(newval);
-                } else if (oldParamVal[i] instanceof VertexParameterValue) {
-                    double oldval[] = ((VertexParameterValue) oldParamVal[i]).getValue();
-                    double newval[] = new double[nverts.length];
-                    for (int j = 0; j < vertices.length; ++j) {
-                        newval[j] = oldval[j];
-                    }
-                    for (int j = 0; j < edges.length; ++j) {
-                        index = edgeTable[j];
-                        if (index < 0) {
-                            continue;
-                        }
-                        newval[index+vertices.length] = (oldval[edges[j].v1] + oldval[edges[j].v2])/2;
-                    }
-                    index = 0;
-                    for (int j = 0; j < faces.length; ++j) {
-                        if (faces[j].mark != QuadFace.FINAL) {
-                            newval[index+edgeCount+vertices.length] = (oldval[faces[j].v1] + oldval[faces[j].v2] + 
-                                oldval[faces[j].v3] + oldval[faces[j].v4])/4;
-                            index++;
-                        }
-                    }
-                    newParamVal[i] = new VertexParameterValue(newval);
-                } else if (oldParamVal[i] instanceof FaceVertexParameterValue) {
-                    double center, val1, val2, val3, val4, nv1, nv2, nv3, nv4;
-                    FaceVertexParameterValue fvpv = (FaceVertexParameterValue) oldParamVal[i];
-                    double newval[][] = new double[nfaces.length][];
-                    fc = 0;
-                    index = 0;
-                    for (int j = 0; j < faces.length; ++j) {
-                        if (faces[j].mark == QuadFace.FINAL) {
-                            newval[index] = new double[4];
-                            for(int k = 0; k < 4; k++) {
-                                newval[index][k] = fvpv.getValue(j, k);
-                            }
-                            index++;
-                            continue;
-                        }
-                        center = val1 = fvpv.getValue(j, 0);
-                        center += val2 = fvpv.getValue(j, 1);
-                        center += val3 = fvpv.getValue(j, 2);
-                        center += val4 = fvpv.getValue(j, 3);
-                        center /= 4;
-                        nv1 = (val1 + val2)*0.5;
-                        nv2 = (val2 + val3)*0.5;
-                        nv3 = (val3 + val4)*0.5;
-                        nv4 = (val4 + val1)*0.5;
-                        if (faces[j].mark == QuadFace.SUBDIVIDE) {
-                            newval[faceStart + fc] = new double[] { val1, nv1, center, nv4 };
-                            newval[faceStart + fc + 1] = new double[] { val2, nv2, center, nv1 };
-                            newval[faceStart + fc + 2] = new double[] { val3, nv3, center, nv2 };
-                            newval[faceStart + fc + 3] = new double[] { val4, nv4, center, nv3 };
-                            fc += 4;
-                        } else if (faces[j].mark == QuadFace.YV2) {
-                            newval[faceStart + fc] = new double[] { val1, nv1, center, val4 };
-                            newval[faceStart + fc + 1] = new double[] { val2, nv2, center, nv1 };
-                            newval[faceStart + fc + 2] = new double[] { val3, val4, center, nv2 };
-                            fc += 3;
-                        }  else if (faces[j].mark == QuadFace.YV4) {
-                            newval[faceStart + fc] = new double[] { val1, val2, center, nv4 };
-                            newval[faceStart + fc + 1] = new double[] { val2, val3, nv3, center};
-                            newval[faceStart + fc + 2] = new double[] { val4, nv4, center, nv3 };
-                            fc += 3;
-                        }
-                    }
-                    newParamVal[i] = new FaceVertexParameterValue(newval);
-                } else
-                    newParamVal[i] = oldParamVal[i].duplicate();
+            if (stencils != null) {
+                stencils.setRow(index + vertices.length, row);
             }
-            setParameterValues(newParamVal);
-        }
-
-        vertices = nverts;
-        edges = nedges;
-        faces = nfaces;
-        projectedEdges = npe ;
-        resetMesh();
-
-        if (refine && ns < MAX_SMOOTHNESS - 1 && ns < maxNs) {
-            smoothMesh(tol, calcProjectedEdges, ns+1, maxNs);
         }
     }
-    
+
     private void solveCriticalEdge(QuadEdge ed, Stack<QuadEdge> stack) {
         QuadFace f1 = faces[ed.f1];
         QuadFace f2 = faces[ed.f2];
@@ -1758,6 +2597,16 @@ public class QuadMesh extends Object3D implements FacetedMesh {
     }
 
     public int getPreviousVertex(int vertex, int face) {
+        PackedQuadMesh p = packed;
+        if (p != null) {
+            int k = 4 * face;
+            for (int j = 0; j < 4; j++) {
+                if (p.faceVertices[k + j] == vertex) {
+                    return p.faceVertices[k + (j + 3) % 4];
+                }
+            }
+            return -1;
+        }
         QuadFace f = faces[face];
         if (vertex == f.v1) {
             return f.v4;
@@ -1772,6 +2621,16 @@ public class QuadMesh extends Object3D implements FacetedMesh {
     }
 
     public int getNextVertex(int vertex, int face) {
+        PackedQuadMesh p = packed;
+        if (p != null) {
+            int k = 4 * face;
+            for (int j = 0; j < 4; j++) {
+                if (p.faceVertices[k + j] == vertex) {
+                    return p.faceVertices[k + (j + 1) % 4];
+                }
+            }
+            return -1;
+        }
         QuadFace f = faces[face];
         if (vertex == f.v1) {
             return f.v2;
@@ -1786,238 +2645,86 @@ public class QuadMesh extends Object3D implements FacetedMesh {
     }
 
     public RenderingMesh getRenderingMesh() {
-        
-        Vec3[] vertArray = new Vec3[vertices.length];
-        for (int i = 0; i < vertArray.length; ++i)
-            vertArray[i] = (Vec3) vertices[i].r;
+        return getRenderingMesh(getTextureMapping(), getMaterialMapping());
+    }
+
+    /**
+     * Builds a rendering mesh using the given texture and material mappings
+     * instead of the ones of this mesh. This lets meshes with the same smoothed
+     * shape share one quad mesh (see SmoothedMeshCache).
+     */
+    public RenderingMesh getRenderingMesh(TextureMapping texMapping, MaterialMapping matMapping) {
+
+        // The mesh is read in packed form, where the edges around each vertex
+        // are already listed (see PackedQuadMesh).
+
+        PackedQuadMesh mesh = getPackedMesh();
+        int vertexCount = mesh.getVertexCount();
+        int faceCount = mesh.getFaceCount();
+        double[] coords = mesh.coords;
+        int[] faceVertices = mesh.faceVertices;
+        int[] ringStart = mesh.getRingStart();
+        int[] ringEdges = mesh.getRingEdges();
+        Vec3[] pos = new Vec3[vertexCount];
+        for (int i = 0, j = 0; i < vertexCount; ++i, j += 3)
+            pos[i] = new Vec3(coords[j], coords[j + 1], coords[j + 2]);
+        Vec3[] vertArray = pos.clone();
 
         // The mesh needs to be smooth shaded, so we need to calculate the normal vectors.
         // There may be more than one normal associated with a vertex, if that vertex is
         // on a crease.  Begin by finding a "true" normal for each face.
         // see TriangleMesh.getRenderingMesh() for original code
 
-        Vec3 trueNorm[] = new Vec3 [faces.length];
-        for (int i = 0; i < faces.length; i++) {
-            trueNorm[i] = vertices[faces[i].v3].r.minus(vertices[faces[i].v1].r).cross(
-                    vertices[faces[i].v4].r.minus(vertices[faces[i].v2].r));
-            double length = trueNorm[i].length();
-            if (length > 0.0) {
-                trueNorm[i].scale(1.0/length);
-            }
-        }
-
-        Vector<Vec3> norm = new Vector<Vec3>();
-        int[] facenorm = new int [faces.length*4];
-        int normals = 0;
-        
-        // Now loop over each vertex.
-
-        int[] ed;
-        int f;
-        QuadFace tmpFace;
-        QuadEdge tmpEdge;
-        int loop, index, first;
-        int faceIndex, otherFace;
-        int m, last;
-        for (int i = 0; i < vertices.length; i++) {
-            ed = getVertexOrderedEdges(vertices[i]);
-
-            // If this vertex is a corner or a crease, we can just set its normal to null.
-
-            if (vertices[i].type  == QuadVertex.CORNER || vertices[i].type  == QuadVertex.CREASE)  {
-                norm.addElement(null);
-                for (int j = 0; j < ed.length; j++) {
-                    f = edges[ed[j]].f1;
-                    tmpFace = faces[f];
-                    if (tmpFace.v1 == i) {
-                        facenorm[4*f] = normals;
-                    } else if (tmpFace.v2 == i) {
-                        facenorm[4*f+1] = normals;
-                    } else if (tmpFace.v3 == i) {
-                        facenorm[4*f+2] = normals;
-                    } else {
-                        facenorm[4*f+3] = normals;
-                    }
-                    f = edges[ed[j]].f2;
-                    if (f != -1) {
-                        if (tmpFace.v1 == i) {
-                            facenorm[4*f] = normals;
-                        } else if (tmpFace.v2 == i) {
-                            facenorm[4*f+1] = normals;
-                        } else if (tmpFace.v3 == i) {
-                            facenorm[4*f+2] = normals;
-                        } else {
-                            facenorm[4*f+3] = normals;
-                        }
-                    }
-                }
-                normals++;
-                continue;
-            }
-
-            // If any of the edges intersecting this vertex are creases, we need to start at
-            // one of them.
-
-            for ( loop = 0, index = -1; loop < ed.length; loop++) {
-                tmpEdge = edges[ed[loop]];
-                if (tmpEdge.f2 == -1 || tmpEdge.smoothness < 1.0f){
-                    if (index != -1)
-                        break;
-                    index = loop;
+        double[] trueNorm = new double[3*faceCount];
+        forEachRange(faceCount, (from, to) -> findTrueNormals(from, to, coords, faceVertices, trueNorm));
+
+        // Then count the normals of each vertex, so that the normals of vertex i
+        // are stored from normalStart[i] on, whatever the order they are computed in.
+
+        int[] normalStart = new int[vertexCount+1];
+        forEachRange(vertexCount, (from, to) -> {
+            for (int i = from; i < to; i++)
+                normalStart[i+1] = findVertexNormals(mesh, ringStart, ringEdges, i, trueNorm, null, 0, null, null);
+        });
+        for (int i = 0; i < vertexCount; i++)
+            normalStart[i+1] += normalStart[i];
+
+        // Now compute the normals of each vertex.
+
+        Vec3[] normalArray = new Vec3[normalStart[vertexCount]];
+        int[] facenorm = new int [faceCount*4];
+        forEachRange(vertexCount, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                int ed = ringStart[i];
+                Vec3 limitNorm = null;
+                if (limitSurface) {
+                    limitNorm = evaluateLimit(mesh, ringEdges, i, ed, ringStart[i+1] - ed, pos, vertArray);
                 }
+                findVertexNormals(mesh, ringStart, ringEdges, i, trueNorm, normalArray, normalStart[i], facenorm, limitNorm);
             }
+        });
 
-            if (loop == ed.length) {
-
-                // There are 0 or 1 crease edges intersecting this vertex, so we will use
-                // the same normal for every face.  Find it by averaging the normals of all
-                // the faces sharing this point.
-
-                Vec3 temp = new Vec3();
-                faceIndex = -1;
-                for (int j = 0; j < ed.length; j++) {
-                    tmpEdge = edges[ed[j]];
-                    faceIndex = (tmpEdge.f1 == faceIndex ? tmpEdge.f2 : tmpEdge.f1);
-                    otherFace = (tmpEdge.f1 == faceIndex ? tmpEdge.f2 : tmpEdge.f1);
-                    tmpFace = faces[faceIndex];
-                    // TODO 
-                    Vec3 edge1 = vertices[tmpFace.v2].r.minus(vertices[tmpFace.v1].r);
-                    Vec3 edge2 = vertices[tmpFace.v3].r.minus(vertices[tmpFace.v2].r);
-                    Vec3 edge3 = vertices[tmpFace.v4].r.minus(vertices[tmpFace.v3].r);
-                    Vec3 edge4 = vertices[tmpFace.v1].r.minus(vertices[tmpFace.v4].r);
-                    edge1.normalize();
-                    edge2.normalize();
-                    edge3.normalize();
-                    edge4.normalize();
-                    double dot;
-                    if (tmpFace.v1 == i) {
-                        facenorm[4*faceIndex] = normals;
-                        dot = -edge4.dot(edge1);
-                    } else if (tmpFace.v2 == i) {
-                        facenorm[4*faceIndex+1] = normals;
-                        dot = -edge1.dot(edge2);
-                    } else if (tmpFace.v3 == i) {
-                        facenorm[4*faceIndex+2] = normals;
-                        dot = -edge2.dot(edge3);
-                    } else {
-                        facenorm[4*faceIndex+3] = normals;
-                        dot = -edge3.dot(edge4);
-                    }
-                    if (dot < -1.0)
-                        dot = -1.0; // This can occassionally happen due to roundoff error
-                    if (dot > 1.0)
-                        dot = 1.0;
-                    temp.add(trueNorm[faceIndex].times(Math.acos(dot)));
-                    if (otherFace != -1) {
-                        tmpFace = faces[otherFace];
-                        if (tmpFace.v1 == i) {
-                            facenorm[4*otherFace] = normals;
-                            dot = -edge4.dot(edge1);
-                        } else if (tmpFace.v2 == i) {
-                            facenorm[4*otherFace+1] = normals;
-                            dot = -edge1.dot(edge2);
-                        } else if (tmpFace.v3 == i) {
-                            facenorm[4*otherFace+2] = normals;
-                            dot = -edge2.dot(edge3);
-                        } else {
-                            facenorm[4*otherFace+3] = normals;
-                            dot = -edge3.dot(edge4);
-                        }
-                    }
-                }
-                temp.normalize();
-                norm.addElement(temp);
-                normals++;
-                continue;
-            }
+        // Finally, create the triangles.
 
-            // This vertex is intersected by at least two crease edges, so we need to
-            // calculate a normal vector for each group of faces between two creases.
-            
-            first = loop = index;
-            tmpEdge = edges[ed[loop]];
-groups:     do {
-                Vec3 temp = new Vec3();
-                do {
-
-                    // For each group of faces, find the first and last edges.  Average
-                    // the normals of the faces in between, and record that these faces 
-                    // will use this normal.
-
-                    loop = (loop+1) % ed.length;
-                    m = tmpEdge.f1;
-                    tmpFace = faces[m];
-                    if (tmpFace.e1 != ed[loop] && tmpFace.e2 != ed[loop] && tmpFace.e3 != ed[loop] && tmpFace.e4 != ed[loop]) {
-                        m = tmpEdge.f2;
-                        if (m == -1)
-                          break groups;
-                        tmpFace = faces[m];
-                    }
-                    Vec3 edge1 = vertices[tmpFace.v2].r.minus(vertices[tmpFace.v1].r);
-                    Vec3 edge2 = vertices[tmpFace.v3].r.minus(vertices[tmpFace.v2].r);
-                    Vec3 edge3 = vertices[tmpFace.v4].r.minus(vertices[tmpFace.v3].r);
-                    Vec3 edge4 = vertices[tmpFace.v1].r.minus(vertices[tmpFace.v4].r);
-                    edge1.normalize();
-                    edge2.normalize();
-                    edge3.normalize();
-                    edge4.normalize();
-                    double dot;
-                    if (tmpFace.v1 == i) {
-                        facenorm[4*m] = normals;
-                        dot = -edge4.dot(edge1);
-                    } else if (tmpFace.v2 == i) {
-                        facenorm[4*m+1] = normals;
-                        dot = -edge1.dot(edge2);
-                    } else if (tmpFace.v3 == i) {
-                        facenorm[4*m+2] = normals;
-                        dot = -edge2.dot(edge3);
-                    } else {
-                        facenorm[4*m+3] = normals;
-                        dot = -edge3.dot(edge4);
-                    }
-                    if (dot < -1.0)
-                      dot = -1.0; // This can occassionally happen due to roundoff error
-                    if (dot > 1.0)
-                      dot = 1.0;
-                    temp.add(trueNorm[m].times(Math.acos(dot)));
-                    tmpEdge = edges[ed[loop]];
-                  } while (tmpEdge.f2 != -1 && tmpEdge.smoothness == 1.0f);
-                last = loop;
-                temp.normalize();
-                norm.addElement(temp);
-                normals++;
-                loop = first = last;
-                tmpEdge = edges[ed[first]];
-              } while (last != index);
-          }
-            
-        // Finally, assemble all the normals into an array and create the triangles.
-            
-        Vec3[] normalArray = new Vec3 [norm.size()];
-        for (int i = 0; i < normalArray.length; i++) {
-            normalArray[i] = norm.elementAt(i);
-        }
-        
-        TextureMapping texMapping = getTextureMapping();
         RenderingMesh renderingMesh = null;
-        RenderingTriangle[] tri = new RenderingTriangle[2*faces.length];
-        for (int i = 0; i < faces.length; ++i) {
-            tri[2*i] = texMapping.mapTriangle(faces[i].v1, faces[i].v2,
-                    faces[i].v3, facenorm[4*i], facenorm[4*i+1], facenorm[4*i+2],
+        RenderingTriangle[] tri = new RenderingTriangle[2*faceCount];
+        for (int i = 0, k = 0; i < faceCount; ++i, k += 4) {
+            tri[2*i] = texMapping.mapTriangle(faceVertices[k], faceVertices[k+1],
+                    faceVertices[k+2], facenorm[k], facenorm[k+1], facenorm[k+2],
                     vertArray);
-            tri[2*i+1] = texMapping.mapTriangle(faces[i].v1, faces[i].v3,
-                    faces[i].v4, facenorm[4*i], facenorm[4*i+2], facenorm[4*i+3],
+            tri[2*i+1] = texMapping.mapTriangle(faceVertices[k], faceVertices[k+2],
+                    faceVertices[k+3], facenorm[k], facenorm[k+2], facenorm[k+3],
                     vertArray);
         }
         renderingMesh = new RenderingMesh(vertArray, normalArray, tri,
-                texMapping, getMaterialMapping());
+                texMapping, matMapping);
         ParameterValue oldParamVal[] = getParameterValues();
         if (oldParamVal != null) {
             ParameterValue newParamVal[] = new ParameterValue[oldParamVal.length];
             for (int i = 0; i < oldParamVal.length; i++) {
                 if (oldParamVal[i] instanceof FaceParameterValue) {
                     double oldval[] = ((FaceParameterValue) oldParamVal[i]).getValue();
-                    double newval[] = new double[2*faces.length];
+                    double newval[] = new double[2*faceCount];
                     for (int j = 0; j < oldval.length; ++j) {
                         newval[2*j] = oldval[j];
                         newval[2*j+1] = oldval[j];
@@ -2025,8 +2732,8 @@ groups:     do {
                     newParamVal[i] = new FaceParameterValue(newval);
                 } else if (oldParamVal[i] instanceof FaceVertexParameterValue) {
                     FaceVertexParameterValue fvpv = (FaceVertexParameterValue) oldParamVal[i];
-                    double newval[][] = new double[2*faces.length][3];
-                    for (int j = 0; j < faces.length; ++j) {
+                    double newval[][] = new double[2*faceCount][3];
+                    for (int j = 0; j < faceCount; ++j) {
                         newval[2*j][0] = fvpv.getValue(j, 0);
                         newval[2*j][1] = fvpv.getValue(j, 1);
                         newval[2*j][2] = fvpv.getValue(j, 2);
@@ -2044,6 +2751,345 @@ groups:     do {
         return renderingMesh;
     }
 
+    /**
+     * Computes the unit normal of a range of faces, from the diagonals of each
+     * face
+     *
+     * @param trueNorm Where the normals are stored, x y z for each face
+     */
+
+    private static void findTrueNormals(int from, int to, double[] coords, int[] faceVertices, double[] trueNorm) {
+        for (int i = from, k = 4*from; i < to; i++, k += 4) {
+            int a = 3*faceVertices[k], b = 3*faceVertices[k+1], c = 3*faceVertices[k+2], d = 3*faceVertices[k+3];
+            double x1 = coords[c] - coords[a], y1 = coords[c+1] - coords[a+1], z1 = coords[c+2] - coords[a+2];
+            double x2 = coords[d] - coords[b], y2 = coords[d+1] - coords[b+1], z2 = coords[d+2] - coords[b+2];
+            double nx = y1*z2 - z1*y2;
+            double ny = z1*x2 - x1*z2;
+            double nz = x1*y2 - y1*x2;
+            double length = Math.sqrt(nx*nx + ny*ny + nz*nz);
+            if (length > 0.0) {
+                double scale = 1.0/length;
+                nx *= scale;
+                ny *= scale;
+                nz *= scale;
+            }
+            trueNorm[3*i] = nx;
+            trueNorm[3*i+1] = ny;
+            trueNorm[3*i+2] = nz;
+        }
+    }
+
+    /**
+     * Computes the normals of a vertex. A corner or a crease vertex gets a null
+     * normal. A vertex with 0 or 1 crease edges gets one normal, the angle
+     * weighted average of the normals of its faces. Otherwise the vertex gets
+     * one normal for each group of faces between two crease edges. Only the
+     * faces around the vertex are read and only the normals and the face
+     * corners of the vertex are written to, so vertices can be processed in
+     * parallel.
+     *
+     * @param v         The vertex index
+     * @param trueNorm  Face normals, x y z for each face
+     * @param normals   Where the normals are stored, or null to count them only
+     * @param first     Index of the first normal of the vertex in normals
+     * @param facenorm  Normal index of each face corner, set for the corners of
+     *                  the vertex
+     * @param limitNorm Limit surface normal replacing the single normal of a
+     *                  smooth vertex, or null
+     * @return          The number of normals of the vertex
+     */
+
+    private static int findVertexNormals(PackedQuadMesh mesh, int[] ringStart, int[] ringEdges, int v,
+            double[] trueNorm, Vec3[] normals, int first, int[] facenorm, Vec3 limitNorm) {
+        double[] coords = mesh.coords;
+        int[] edgeFaces = mesh.edgeFaces;
+        float[] edgeSmoothness = mesh.edgeSmoothness;
+        int[] faceVertices = mesh.faceVertices;
+        int[] faceEdges = mesh.faceEdges;
+        int ed = ringStart[v];
+        int count = ringStart[v+1] - ed;
+
+        // If this vertex is a corner or a crease, we can just set its normal to null.
+
+        if (mesh.vertexType[v] == QuadVertex.CORNER || mesh.vertexType[v] == QuadVertex.CREASE) {
+            if (normals != null) {
+                for (int j = 0; j < count; j++) {
+                    int f = edgeFaces[2*ringEdges[ed+j]];
+                    facenorm[4*f+getFaceCorner(faceVertices, f, v)] = first;
+                    f = edgeFaces[2*ringEdges[ed+j]+1];
+                    if (f != -1) {
+                        facenorm[4*f+getFaceCorner(faceVertices, f, v)] = first;
+                    }
+                }
+            }
+            return 1;
+        }
+
+        // If any of the edges intersecting this vertex are creases, we need to start at
+        // one of them.
+
+        int loop, index;
+        for (loop = 0, index = -1; loop < count; loop++) {
+            int e = ringEdges[ed+loop];
+            if (edgeFaces[2*e+1] == -1 || edgeSmoothness[e] < 1.0f) {
+                if (index != -1)
+                    break;
+                index = loop;
+            }
+        }
+
+        if (loop == count) {
+
+            // There are 0 or 1 crease edges intersecting this vertex, so we will use
+            // the same normal for every face.  Find it by averaging the normals of all
+            // the faces sharing this point.
+
+            if (normals == null)
+                return 1;
+            double x = 0, y = 0, z = 0;
+            int faceIndex = -1;
+            for (int j = 0; j < count; j++) {
+                int e = ringEdges[ed+j];
+                int f1 = edgeFaces[2*e];
+                int f2 = edgeFaces[2*e+1];
+                faceIndex = (f1 == faceIndex ? f2 : f1);
+                int otherFace = (f1 == faceIndex ? f2 : f1);
+                int corner = getFaceCorner(faceVertices, faceIndex, v);
+                facenorm[4*faceIndex+corner] = first;
+                double angle = getCornerAngle(coords, faceVertices, faceIndex, corner);
+                x += trueNorm[3*faceIndex]*angle;
+                y += trueNorm[3*faceIndex+1]*angle;
+                z += trueNorm[3*faceIndex+2]*angle;
+                if (otherFace != -1) {
+                    facenorm[4*otherFace+getFaceCorner(faceVertices, otherFace, v)] = first;
+                }
+            }
+            Vec3 temp = new Vec3(x, y, z);
+            temp.normalize();
+            if (limitNorm != null) {
+                if (limitNorm.dot(temp) < 0.0) {
+                    limitNorm.scale(-1.0);
+                }
+                temp = limitNorm;
+            }
+            normals[first] = temp;
+            return 1;
+        }
+
+        // This vertex is intersected by at least two crease edges, so we need to
+        // calculate a normal vector for each group of faces between two creases.
+
+        int groups = 0;
+        int last;
+        loop = index;
+        int tmpEdge = ringEdges[ed+loop];
+groups: do {
+            double x = 0, y = 0, z = 0;
+            do {
+
+                // For each group of faces, find the first and last edges.  Average
+                // the normals of the faces in between, and record that these faces
+                // will use this normal.
+
+                loop = (loop+1) % count;
+                int m = edgeFaces[2*tmpEdge];
+                int k = 4*m;
+                int next = ringEdges[ed+loop];
+                if (faceEdges[k] != next && faceEdges[k+1] != next && faceEdges[k+2] != next && faceEdges[k+3] != next) {
+                    m = edgeFaces[2*tmpEdge+1];
+                    if (m == -1)
+                        break groups;
+                }
+                if (normals != null) {
+                    int corner = getFaceCorner(faceVertices, m, v);
+                    facenorm[4*m+corner] = first+groups;
+                    double angle = getCornerAngle(coords, faceVertices, m, corner);
+                    x += trueNorm[3*m]*angle;
+                    y += trueNorm[3*m+1]*angle;
+                    z += trueNorm[3*m+2]*angle;
+                }
+                tmpEdge = next;
+            } while (edgeFaces[2*tmpEdge+1] != -1 && edgeSmoothness[tmpEdge] == 1.0f);
+            last = loop;
+            if (normals != null) {
+                Vec3 temp = new Vec3(x, y, z);
+                temp.normalize();
+                normals[first+groups] = temp;
+            }
+            groups++;
+            tmpEdge = ringEdges[ed+last];
+        } while (last != index);
+        return groups;
+    }
+
+    /**
+     * Returns the corner (0 to 3) of a packed face where a given vertex is
+     */
+
+    private static int getFaceCorner(int[] faceVertices, int f, int v) {
+        int k = 4 * f;
+        if (faceVertices[k] == v) {
+            return 0;
+        } else if (faceVertices[k+1] == v) {
+            return 1;
+        } else if (faceVertices[k+2] == v) {
+            return 2;
+        }
+        return 3;
+    }
+
+    /**
+     * Returns the angle of a face at one of its corners
+     */
+
+    private static double getCornerAngle(double[] coords, int[] faceVertices, int f, int corner) {
+        int k = 4 * f;
+        int c = 3*faceVertices[k+corner];
+        int a = 3*faceVertices[k+(corner+3)%4];
+        int b = 3*faceVertices[k+(corner+1)%4];
+        double x1 = coords[c] - coords[a], y1 = coords[c+1] - coords[a+1], z1 = coords[c+2] - coords[a+2];
+        double x2 = coords[b] - coords[c], y2 = coords[b+1] - coords[c+1], z2 = coords[b+2] - coords[c+2];
+        double length = Math.sqrt(x1*x1 + y1*y1 + z1*z1);
+        if (length > 0.0) {
+            x1 /= length;
+            y1 /= length;
+            z1 /= length;
+        }
+        length = Math.sqrt(x2*x2 + y2*y2 + z2*z2);
+        if (length > 0.0) {
+            x2 /= length;
+            y2 /= length;
+            z2 /= length;
+        }
+        double dot = -(x1*x2 + y1*y2 + z1*z2);
+        if (dot < -1.0)
+            dot = -1.0; // This can occassionally happen due to roundoff error
+        if (dot > 1.0)
+            dot = 1.0;
+        return Math.acos(dot);
+    }
+
+    /**
+     * Evaluates the Catmull-Clark limit surface at a vertex. A smooth vertex inside
+     * the mesh is moved to its limit position and gets the limit normal
+     * (Halstead et al. tangent masks, which hold for any valence). A vertex on a
+     * boundary or on a fully sharp crease is moved to the limit position of the
+     * crease curve, and keeps the normals computed from the faces. Corners and
+     * vertices near semi-sharp edges are left as they are.
+     *
+     * @param mesh      The packed mesh
+     * @param ringEdges The vertex edges table of the mesh
+     * @param v         The vertex index
+     * @param ed        Index of the first edge around the vertex in the vertex edges table
+     * @param n         The number of edges around the vertex
+     * @param pos       Control positions
+     * @param vertArray Rendering positions, where the limit position is stored
+     * @return          The limit normal, not oriented, or null if the vertex
+     *                  is not a smooth vertex inside the mesh
+     */
+
+    private static Vec3 evaluateLimit(PackedQuadMesh mesh, int[] ringEdges, int v, int ed, int n, Vec3[] pos, Vec3[] vertArray) {
+        if (mesh.vertexType[v] == QuadVertex.CORNER || n < 2) {
+            return null;
+        }
+        int[] edgeVertices = mesh.edgeVertices;
+        int hard = 0, semi = 0, crease1 = -1, crease2 = -1;
+        for (int j = 0; j < n; j++) {
+            int e = ringEdges[ed + j];
+            int other = (edgeVertices[2 * e] == v ? edgeVertices[2 * e + 1] : edgeVertices[2 * e]);
+            if (mesh.edgeFaces[2 * e + 1] == -1 || mesh.edgeSmoothness[e] <= 0.0f) {
+                if (hard == 0) {
+                    crease1 = other;
+                } else {
+                    crease2 = other;
+                }
+                hard++;
+            } else if (mesh.edgeSmoothness[e] < 1.0f) {
+                semi++;
+            }
+        }
+        if (semi > 0) {
+            return null;
+        }
+        Vec3 p = pos[v];
+        if (hard == 2) {
+            Vec3 a = pos[crease1];
+            Vec3 b = pos[crease2];
+            vertArray[v] = new Vec3((a.x + 4.0 * p.x + b.x) / 6.0, (a.y + 4.0 * p.y + b.y) / 6.0,
+                    (a.z + 4.0 * p.z + b.z) / 6.0);
+            return null;
+        }
+        if (hard > 0 || n < 3) {
+            return null;
+        }
+
+        // Smooth vertex: edge neighbours e_j and diagonal vertices f_j of the
+        // face between edges j and j + 1.
+
+        double cosn = Math.cos(2.0 * Math.PI / n);
+        double an = 1.0 + cosn + Math.cos(Math.PI / n) * Math.sqrt(2.0 * (9.0 + cosn));
+        double sx = 0, sy = 0, sz = 0;
+        double ux = 0, uy = 0, uz = 0;
+        double wx = 0, wy = 0, wz = 0;
+        for (int j = 0; j < n; j++) {
+            int e = ringEdges[ed + j];
+            int fv = getDiagonalVertex(mesh, v, e, ringEdges[ed + (j + 1) % n]);
+            if (fv == -1) {
+                return null;
+            }
+            Vec3 er = pos[edgeVertices[2 * e] == v ? edgeVertices[2 * e + 1] : edgeVertices[2 * e]];
+            Vec3 fr = pos[fv];
+            sx += 4.0 * er.x + fr.x;
+            sy += 4.0 * er.y + fr.y;
+            sz += 4.0 * er.z + fr.z;
+            double c0 = Math.cos(2.0 * Math.PI * j / n);
+            double c1 = Math.cos(2.0 * Math.PI * (j + 1) / n);
+            double s0 = Math.sin(2.0 * Math.PI * j / n);
+            double s1 = Math.sin(2.0 * Math.PI * (j + 1) / n);
+            ux += an * c0 * er.x + (c0 + c1) * fr.x;
+            uy += an * c0 * er.y + (c0 + c1) * fr.y;
+            uz += an * c0 * er.z + (c0 + c1) * fr.z;
+            wx += an * s0 * er.x + (s0 + s1) * fr.x;
+            wy += an * s0 * er.y + (s0 + s1) * fr.y;
+            wz += an * s0 * er.z + (s0 + s1) * fr.z;
+        }
+        double d = 1.0 / (n * (n + 5));
+        vertArray[v] = new Vec3((n * n * p.x + sx) * d, (n * n * p.y + sy) * d, (n * n * p.z + sz) * d);
+        Vec3 normal = new Vec3(uy * wz - uz * wy, uz * wx - ux * wz, ux * wy - uy * wx);
+        double length = normal.length();
+        if (length == 0.0) {
+            return null;
+        }
+        normal.scale(1.0 / length);
+        return normal;
+    }
+
+    /**
+     * Returns the vertex facing a given vertex in the face shared by two of its
+     * edges, -1 if the edges do not share a face
+     */
+
+    private static int getDiagonalVertex(PackedQuadMesh mesh, int v, int e1, int e2) {
+        int[] faceEdges = mesh.faceEdges;
+        int[] faceVertices = mesh.faceVertices;
+        for (int k = 0; k < 2; k++) {
+            int f = mesh.edgeFaces[2 * e1 + k];
+            if (f == -1) {
+                continue;
+            }
+            int i = 4 * f;
+            if (faceEdges[i] != e2 && faceEdges[i+1] != e2 && faceEdges[i+2] != e2 && faceEdges[i+3] != e2) {
+                continue;
+            }
+            for (int j = 0; j < 4; j++) {
+                if (faceVertices[i + j] == v) {
+                    return faceVertices[i + (j + 2) % 4];
+                }
+            }
+        }
+        return -1;
+    }
+
     public void setSkeleton(Skeleton skeleton) {
         // TODO Auto-generated method stub
     }
@@ -2054,6 +3100,9 @@ groups:     do {
      * @return The edges array
      */
     public int[] getVertexEdges(QuadVertex v) {
+        if (packed != null) {
+            return getVertexOrderedEdges(getVertexIndex(v));
+        }
         return getVertexEdges(v, -1, false);
     }
     
@@ -2064,8 +3113,54 @@ groups:     do {
      * @return The edges array
      */
     public int[] getVertexOrderedEdges(QuadVertex v) {
+        if (packed != null) {
+            return getVertexOrderedEdges(getVertexIndex(v));
+        }
         return getVertexEdges(v, -1, true);
     }
+
+    /**
+     * Returns the edges around the vertex of a given index, unordered
+     */
+    public int[] getVertexEdges(int v) {
+        if (packed != null) {
+            return getVertexOrderedEdges(v);
+        }
+        return getVertexEdges(vertices[v], -1, false);
+    }
+
+    /**
+     * Returns the edges around the vertex of a given index, ordered. For a
+     * packed mesh they are read from the vertex edges table of the packed data.
+     */
+    public int[] getVertexOrderedEdges(int v) {
+        PackedQuadMesh p = packed;
+        if (p != null) {
+            int[] start = p.getRingStart();
+            return Arrays.copyOfRange(p.getRingEdges(), start[v], start[v + 1]);
+        }
+        return getVertexEdges(vertices[v], -1, true);
+    }
+
+    /**
+     * Returns the index of a vertex object, found through its first edge. The
+     * vertices of a packed mesh are copies (see getVertices()): the vertex is
+     * the end of its first edge which has the same first edge and position.
+     */
+    private int getVertexIndex(QuadVertex v) {
+        PackedQuadMesh p = packed;
+        if (p == null) {
+            QuadEdge e = edges[v.firstEdge];
+            return (vertices[e.v1] == v ? e.v1 : e.v2);
+        }
+        int v1 = p.edgeVertices[2 * v.firstEdge];
+        int v2 = p.edgeVertices[2 * v.firstEdge + 1];
+        if (p.vertexEdge[v1] != v.firstEdge)
+            return v2;
+        if (p.vertexEdge[v2] != v.firstEdge)
+            return v1;
+        return (p.coords[3 * v1] == v.r.x && p.coords[3 * v1 + 1] == v.r.y && p.coords[3 * v1 + 2] == v.r.z ? v1 : v2);
+    }
     
     private int[] getVertexEdges(QuadVertex v, int numEdges, boolean order) {
         int count = 0;
@@ -2206,6 +3301,9 @@ groups:     do {
     // -P-
 
     public void dumpMesh() {
+        MeshVertex[] vertices = getVertices();
+        QuadEdge[] edges = getEdges();
+        QuadFace[] faces = getFaces();
         System.out.println("vertices:");
         for (int i = 0; i < vertices.length; i++) {
             System.out.println(i + ": " + vertices[i]);
@@ -2221,10 +3319,13 @@ groups:     do {
     }
     
     public void printSize() {
-        System.out.println(vertices.length + " verts (" + 
-                vertices.length * 50 + "), " + edges.length + " edges (" +
-                edges.length * 28 + "), " + faces.length + " faces (" +
-                faces.length * 24 + "), for a total of: " + (vertices.length * 54 + edges.length * 28 + faces.length * 24 )  + " bytes");
+        int vertexCount = getVertexCount();
+        int edgeCount = getEdgeCount();
+        int faceCount = getFaceCount();
+        System.out.println(vertexCount + " verts (" + 
+                vertexCount * 50 + "), " + edgeCount + " edges (" +
+                edgeCount * 28 + "), " + faceCount + " faces (" +
+                faceCount * 24 + "), for a total of: " + (vertexCount * 54 + edgeCount * 28 + faceCount * 24 )  + " bytes");
     }
 
     public void setProjectedEdges(int[] projectedEdges) {
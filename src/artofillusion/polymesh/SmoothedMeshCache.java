@@ -0,0 +1,180 @@
+/*
+ *  Copyright (C) 2026 by the Art of Illusion PolyMesh contributors
+ *  This program is free software; you can redistribute it and/or modify it under the
+ *  terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 2 of the License, or (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ *  PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package artofillusion.polymesh;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import artofillusion.texture.ParameterValue;
+
+/**
+ * Process wide cache of the quad meshes smoothed for rendering. Meshes are looked
+ * up by content: identical meshes, such as the duplicates of a mesh placed all over
+ * a scene, share a single smoothed mesh instead of each being smoothed again.
+ *
+ * The cache is bounded by an estimate of the memory used by the smoothed meshes.
+ * The least recently used meshes are dropped first. Cached meshes are shared, so
+ * they must not be modified.
+ */
+public class SmoothedMeshCache {
+
+    /**
+     * The content a smoothed mesh depends on: the packed mesh data, the texture
+     * parameter values and the smoothing settings
+     */
+    public static class Key {
+        private final double[] coords;
+        private final int[] vertexEdge;
+        private final short[] vertexType;
+        private final int[] edgeVertex;
+        private final int[] edgeHedge;
+        private final int[] edgeFace;
+        private final int[] edgeNext;
+        private final float[] edgeSmoothness;
+        private final int[] faceEdge;
+        private final ParameterValue[] params;
+        private final double tol;
+        private final int options;
+        private final int hash;
+
+        /**
+         * Creates a key. The data is copied, so the mesh can change afterwards.
+         *
+         * @param mesh    Packed mesh data
+         * @param params  Texture parameter values, or null
+         * @param tol     Smoothing tolerance
+         * @param options Other smoothing settings, as bits
+         */
+        public Key(PackedMesh mesh, ParameterValue[] params, double tol, int options) {
+            coords = mesh.coords.clone();
+            vertexEdge = mesh.vertexEdge.clone();
+            vertexType = mesh.vertexType.clone();
+            edgeVertex = mesh.edgeVertex.clone();
+            edgeHedge = mesh.edgeHedge.clone();
+            edgeFace = mesh.edgeFace.clone();
+            edgeNext = mesh.edgeNext.clone();
+            edgeSmoothness = mesh.edgeSmoothness.clone();
+            faceEdge = mesh.faceEdge.clone();
+            if (params == null) {
+                this.params = null;
+            } else {
+                this.params = new ParameterValue[params.length];
+                for (int i = 0; i < params.length; i++)
+                    this.params[i] = params[i].duplicate();
+            }
+            this.tol = tol;
+            this.options = options;
+            int h = Arrays.hashCode(coords);
+            h = 31 * h + Arrays.hashCode(edgeVertex);
+            h = 31 * h + Arrays.hashCode(edgeNext);
+            h = 31 * h + Arrays.hashCode(edgeSmoothness);
+            h = 31 * h + Arrays.hashCode(vertexType);
+            h = 31 * h + (params == null ? 0 : params.length);
+            h = 31 * h + Double.hashCode(tol);
+            hash = 31 * h + options;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key k = (Key) o;
+            return hash == k.hash && tol == k.tol && options == k.options && Arrays.equals(coords, k.coords)
+                    && Arrays.equals(edgeVertex, k.edgeVertex) && Arrays.equals(edgeHedge, k.edgeHedge)
+                    && Arrays.equals(edgeFace, k.edgeFace) && Arrays.equals(edgeNext, k.edgeNext)
+                    && Arrays.equals(edgeSmoothness, k.edgeSmoothness) && Arrays.equals(vertexEdge, k.vertexEdge)
+                    && Arrays.equals(vertexType, k.vertexType) && Arrays.equals(faceEdge, k.faceEdge)
+                    && Arrays.equals(params, k.params);
+        }
+    }
+
+    private static final LinkedHashMap<Key, QuadMesh> meshes = new LinkedHashMap<Key, QuadMesh>(16, 0.75f, true);
+    private static long maxSize = 256L * 1024 * 1024;
+    private static long size;
+
+    private SmoothedMeshCache() {
+    }
+
+    /**
+     * Returns the smoothed mesh cached for a key, null if there is none
+     */
+    public static synchronized QuadMesh get(Key key) {
+        return meshes.get(key);
+    }
+
+    /**
+     * Adds a smoothed mesh to the cache
+     */
+    public static synchronized void put(Key key, QuadMesh mesh) {
+        QuadMesh old = meshes.put(key, mesh);
+        if (old != null)
+            size -= getMemorySize(old);
+        size += getMemorySize(mesh);
+        trim();
+    }
+
+    /**
+     * Sets the memory the cached meshes may use
+     *
+     * @param bytes Maximum size, in bytes. 0 turns the cache off.
+     */
+    public static synchronized void setMaximumSize(long bytes) {
+        maxSize = bytes;
+        trim();
+    }
+
+    public static synchronized long getMaximumSize() {
+        return maxSize;
+    }
+
+    /**
+     * Empties the cache
+     */
+    public static synchronized void clear() {
+        meshes.clear();
+        size = 0;
+    }
+
+    private static void trim() {
+        Iterator<Map.Entry<Key, QuadMesh>> it = meshes.entrySet().iterator();
+        while (size > maxSize && it.hasNext()) {
+            size -= getMemorySize(it.next().getValue());
+            it.remove();
+        }
+    }
+
+    /**
+     * Estimates the memory used by a quad mesh: objects or packed arrays,
+     * positions and texture parameters
+     */
+    static long getMemorySize(QuadMesh mesh) {
+        long vertexCount = mesh.getVertexCount();
+        long faceCount = mesh.getFaceCount();
+        long bytes;
+        if (mesh.isPacked())
+            bytes = vertexCount * QuadMesh.PACKED_VERTEX_BYTES + mesh.getEdgeCount() * QuadMesh.PACKED_EDGE_BYTES
+                    + faceCount * QuadMesh.PACKED_FACE_BYTES;
+        else
+            bytes = vertexCount * QuadMesh.VERTEX_BYTES + mesh.getEdgeCount() * QuadMesh.EDGE_BYTES
+                    + faceCount * QuadMesh.FACE_BYTES;
+        ParameterValue[] params = mesh.getParameterValues();
+        if (params != null)
+            bytes += params.length * (vertexCount + faceCount * 4L) * 8L;
+        return bytes;
+    }
+}
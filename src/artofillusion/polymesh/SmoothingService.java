@@ -0,0 +1,90 @@
+/*
+ *  Copyright (C) 2026 by the Art of Illusion PolyMesh contributors
+ *  This program is free software; you can redistribute it and/or modify it under the
+ *  terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 2 of the License, or (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ *  PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package artofillusion.polymesh;
+
+import java.awt.EventQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import artofillusion.ArtOfIllusion;
+import artofillusion.Scene;
+import artofillusion.object.ObjectInfo;
+import artofillusion.ui.EditingWindow;
+
+/**
+ * Background subdivision of meshes for interactive display. Smoothing requests
+ * run one at a time on a worker thread, so that large meshes do not freeze the
+ * user interface while they are subdivided. When a request is done, the windows
+ * showing the scene and the registered listeners are asked to repaint, on the
+ * event dispatch thread. The cached preview meshes of the scene objects whose
+ * smoothed mesh is ready are cleared first, so that the new mesh is displayed.
+ *
+ * Cancelling a running request interrupts the worker thread. QuadMesh stops
+ * subdividing at the end of the current level when its thread is interrupted.
+ */
+public class SmoothingService {
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "PolyMesh smoothing");
+        t.setDaemon(true);
+        t.setPriority(Thread.NORM_PRIORITY - 1);
+        return t;
+    });
+    private static final CopyOnWriteArrayList<Runnable> listeners = new CopyOnWriteArrayList<Runnable>();
+
+    private SmoothingService() {
+    }
+
+    /**
+     * Adds a listener run on the event dispatch thread each time a background
+     * smoothing is done. A listener displaying a mesh outside of the scene should
+     * clear its cached meshes when PolyMesh.isSmoothingReady() is true.
+     */
+    public static void addListener(Runnable listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public static void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Queues a smoothing task
+     *
+     * @return The future of the task, which can be used to cancel it
+     */
+    public static Future<?> submit(Runnable task) {
+        return executor.submit(task);
+    }
+
+    /**
+     * Tells the windows and the listeners that a smoothed mesh is ready
+     */
+    public static void fireSmoothingDone() {
+        EventQueue.invokeLater(() -> {
+            for (EditingWindow window : ArtOfIllusion.getWindows()) {
+                Scene scene = window.getScene();
+                if (scene != null) {
+                    for (int i = 0; i < scene.getNumObjects(); i++) {
+                        ObjectInfo info = scene.getObject(i);
+                        if (info.object instanceof PolyMesh && ((PolyMesh) info.object).isSmoothingReady())
+                            info.clearCachedMeshes();
+                    }
+                }
+                window.updateImage();
+            }
+            for (Runnable listener : listeners)
+                listener.run();
+        });
+    }
+}
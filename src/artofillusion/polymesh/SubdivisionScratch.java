@@ -0,0 +1,126 @@
+/*
+ *  Copyright (C) 2026 by the Art of Illusion PolyMesh contributors
+ *  This program is free software; you can redistribute it and/or modify it under the
+ *  terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 2 of the License, or (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ *  PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package artofillusion.polymesh;
+
+import java.util.Arrays;
+
+/**
+ * Temporary arrays used while subdividing a mesh. Each thread has its own set,
+ * which is kept from one subdivision to the next, so that smoothing a mesh
+ * again does not allocate the same temporary arrays again.
+ *
+ * The arrays grow as needed and are never shrunk. They may be longer than
+ * requested and their content is left over from the previous use, except for
+ * the part kept by a growth.
+ */
+public class SubdivisionScratch {
+
+    private static final ThreadLocal<SubdivisionScratch> scratch = ThreadLocal.withInitial(SubdivisionScratch::new);
+
+    private double[] facePositions = new double[0];
+    private int[] faceVertexStart = new int[0];
+    private int[] faceVertexList = new int[0];
+    private int[] faceTable = new int[0];
+    private int[] vertexEdges = new int[16];
+    private float[] edgeSmoothness = new float[0];
+    private int[][] dirtyRows = { new int[0], new int[0] };
+    private boolean[] markedRows = new boolean[0];
+
+    private SubdivisionScratch() {
+    }
+
+    /**
+     * Returns the arrays of the current thread
+     */
+    public static SubdivisionScratch get() {
+        return scratch.get();
+    }
+
+    private static int grow(int length, int size) {
+        return Math.max(size, length + (length >> 1));
+    }
+
+    /**
+     * Returns an array for face center positions, x y z for each face
+     */
+    public double[] getFacePositions(int faceCount) {
+        if (facePositions.length < faceCount * 3)
+            facePositions = new double[grow(facePositions.length, faceCount * 3)];
+        return facePositions;
+    }
+
+    /**
+     * Returns an array for the offsets of a face vertices table
+     */
+    public int[] getFaceVertexStart(int size) {
+        if (faceVertexStart.length < size)
+            faceVertexStart = new int[grow(faceVertexStart.length, size)];
+        return faceVertexStart;
+    }
+
+    /**
+     * Returns an array for the vertices of a face vertices table
+     */
+    public int[] getFaceVertexList(int size) {
+        if (faceVertexList.length < size)
+            faceVertexList = new int[grow(faceVertexList.length, size)];
+        return faceVertexList;
+    }
+
+    /**
+     * Returns an array mapping new faces to the faces they come from
+     */
+    public int[] getFaceTable(int size) {
+        if (faceTable.length < size)
+            faceTable = new int[grow(faceTable.length, size)];
+        return faceTable;
+    }
+
+    /**
+     * Returns an array for the edges around a vertex. The current content is
+     * kept when the array grows.
+     */
+    public int[] getVertexEdges(int size) {
+        if (vertexEdges.length < size)
+            vertexEdges = Arrays.copyOf(vertexEdges, grow(vertexEdges.length, size));
+        return vertexEdges;
+    }
+
+    /**
+     * Returns an array for a smoothness value per edge
+     */
+    public float[] getEdgeSmoothness(int size) {
+        if (edgeSmoothness.length < size)
+            edgeSmoothness = new float[grow(edgeSmoothness.length, size)];
+        return edgeSmoothness;
+    }
+
+    /**
+     * Returns one of the two arrays for the rows updated by a stencil level
+     * (see SubdivisionStencils.update()). A level reads one while filling the
+     * other.
+     */
+    public int[] getDirtyRows(int buffer, int size) {
+        if (dirtyRows[buffer].length < size)
+            dirtyRows[buffer] = new int[grow(dirtyRows[buffer].length, size)];
+        return dirtyRows[buffer];
+    }
+
+    /**
+     * Returns an array of flags for the rows of a stencil level. All flags are
+     * false: callers must clear the flags they set before returning.
+     */
+    public boolean[] getMarkedRows(int size) {
+        if (markedRows.length < size)
+            markedRows = new boolean[grow(markedRows.length, size)];
+        return markedRows;
+    }
+}
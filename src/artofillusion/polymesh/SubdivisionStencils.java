@@ -0,0 +1,377 @@
+/*
+ *  Copyright (C) 2026 by the Art of Illusion PolyMesh contributors
+ *  This program is free software; you can redistribute it and/or modify it under the
+ *  terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 2 of the License, or (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ *  PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package artofillusion.polymesh;
+
+import java.util.ArrayList;
+
+/**
+ * Stencil table of a subdivision. Each subdivided vertex is a weighted sum of the
+ * vertices of the previous level, so once the topology and the smoothness values
+ * are known the subdivided positions can be computed from the control positions
+ * by sparse matrix products, without running the subdivision again.
+ *
+ * The table holds one sparse matrix per subdivision level, in compressed sparse
+ * row form. The levels are recorded by QuadMesh.smoothMesh(). The refinement
+ * pattern chosen by the tolerance test at recording time is kept as is.
+ *
+ * update() keeps the positions of every level from one call to the next, so
+ * that after a local edit only the vertices which depend on the moved control
+ * vertices are computed again.
+ */
+public class SubdivisionStencils {
+
+    /**
+     * A weighted sum of vertices, used while recording a level
+     */
+    public static class Row {
+        private int[] index = new int[16];
+        private double[] weight = new double[16];
+        private int size;
+
+        /**
+         * Empties the row
+         */
+        public void clear() {
+            size = 0;
+        }
+
+        /**
+         * Adds a weighted vertex to the row
+         *
+         * @param v Vertex index
+         * @param w Weight
+         */
+        public void add(int v, double w) {
+            for (int i = 0; i < size; i++) {
+                if (index[i] == v) {
+                    weight[i] += w;
+                    return;
+                }
+            }
+            if (size == index.length) {
+                int[] newIndex = new int[size * 2];
+                double[] newWeight = new double[size * 2];
+                System.arraycopy(index, 0, newIndex, 0, size);
+                System.arraycopy(weight, 0, newWeight, 0, size);
+                index = newIndex;
+                weight = newWeight;
+            }
+            index[size] = v;
+            weight[size] = w;
+            ++size;
+        }
+
+        /**
+         * Adds another row multiplied by a factor
+         */
+        public void add(Row row, double w) {
+            for (int i = 0; i < row.size; i++)
+                add(row.index[i], row.weight[i] * w);
+        }
+
+        /**
+         * Multiplies all weights by a factor
+         */
+        public void scale(double s) {
+            for (int i = 0; i < size; i++)
+                weight[i] *= s;
+        }
+
+        /**
+         * Makes this row a copy of another one
+         */
+        public void set(Row row) {
+            size = 0;
+            add(row, 1.0);
+        }
+    }
+
+    private final int controlCount;
+    private final double tol;
+    private final int maxNs;
+    private final ArrayList<int[]> levelStart = new ArrayList<int[]>();
+    private final ArrayList<int[]> levelIndex = new ArrayList<int[]>();
+    private final ArrayList<double[]> levelWeight = new ArrayList<double[]>();
+
+    // positions of each level kept by update(), control positions first,
+    // and for each level the rows using each vertex of the previous level
+
+    private double[][] levelCoords;
+    private int[][] usedByStart;
+    private int[][] usedBy;
+
+    // level being recorded
+
+    private int[][] rowIndex;
+    private double[][] rowWeight;
+
+    /**
+     * Creates an empty stencil table
+     *
+     * @param controlCount Number of control vertices
+     * @param tol          Subdivision tolerance the table is recorded for
+     * @param maxNs        Maximum subdivision level the table is recorded for
+     */
+    public SubdivisionStencils(int controlCount, double tol, int maxNs) {
+        this.controlCount = controlCount;
+        this.tol = tol;
+        this.maxNs = maxNs;
+    }
+
+    /**
+     * Tells if this table can be used for a given number of control vertices
+     * and subdivision settings
+     */
+    public boolean isBuiltFor(int controlCount, double tol, int maxNs) {
+        return controlCount == this.controlCount && tol == this.tol && maxNs == this.maxNs && rowIndex == null;
+    }
+
+    public int getControlVertexCount() {
+        return controlCount;
+    }
+
+    /**
+     * Returns the number of vertices of the subdivided mesh
+     */
+    public int getSubdividedVertexCount() {
+        if (levelStart.size() == 0)
+            return controlCount;
+        return levelStart.get(levelStart.size() - 1).length - 1;
+    }
+
+    public int getLevelCount() {
+        return levelStart.size();
+    }
+
+    /**
+     * Starts recording a new level. All rows are set to zero.
+     *
+     * @param count Number of vertices of the new level
+     */
+    public void beginLevel(int count) {
+        rowIndex = new int[count][];
+        rowWeight = new double[count][];
+    }
+
+    /**
+     * Sets the row of a vertex of the level being recorded
+     */
+    public void setRow(int v, Row row) {
+        int[] index = new int[row.size];
+        double[] weight = new double[row.size];
+        System.arraycopy(row.index, 0, index, 0, row.size);
+        System.arraycopy(row.weight, 0, weight, 0, row.size);
+        rowIndex[v] = index;
+        rowWeight[v] = weight;
+    }
+
+    /**
+     * Sets the row of a vertex which is a copy of a previous level vertex
+     */
+    public void setRow(int v, int previous) {
+        rowIndex[v] = new int[] { previous };
+        rowWeight[v] = new double[] { 1.0 };
+    }
+
+    /**
+     * Ends recording the current level and packs it
+     */
+    public void endLevel() {
+        int[] start = new int[rowIndex.length + 1];
+        for (int i = 0; i < rowIndex.length; i++)
+            start[i + 1] = start[i] + (rowIndex[i] == null ? 0 : rowIndex[i].length);
+        int[] index = new int[start[rowIndex.length]];
+        double[] weight = new double[index.length];
+        for (int i = 0; i < rowIndex.length; i++) {
+            if (rowIndex[i] == null)
+                continue;
+            System.arraycopy(rowIndex[i], 0, index, start[i], rowIndex[i].length);
+            System.arraycopy(rowWeight[i], 0, weight, start[i], rowWeight[i].length);
+        }
+        levelStart.add(start);
+        levelIndex.add(index);
+        levelWeight.add(weight);
+        rowIndex = null;
+        rowWeight = null;
+    }
+
+    /**
+     * Updates the subdivided vertex positions after the control vertices moved.
+     * All the control vertices are checked for a change of position.
+     *
+     * @param coords Control vertex positions, x y z for each vertex
+     * @return       The indices of the subdivided vertices which moved, or null
+     *               if all positions were computed (first call)
+     */
+    public int[] update(double[] coords) {
+        return update(coords, null, 0);
+    }
+
+    /**
+     * Updates the subdivided vertex positions after some control vertices moved.
+     * Only the candidate vertices are checked for a change of position, and only
+     * the rows depending on those which moved since the previous call are computed
+     * again, so the cost does not depend on the size of the mesh.
+     *
+     * @param coords         Control vertex positions, x y z for each vertex. Only
+     *                       the candidates are read, except on the first call.
+     * @param candidates     Indices of the control vertices which may have moved,
+     *                       or null to check all of them
+     * @param candidateCount Number of candidates
+     * @return               The indices of the subdivided vertices which moved, or
+     *                       null if all positions were computed (first call)
+     */
+    public synchronized int[] update(double[] coords, int[] candidates, int candidateCount) {
+        int levels = levelStart.size();
+        if (levelCoords == null) {
+            levelCoords = new double[levels + 1][];
+            levelCoords[0] = coords.clone();
+            for (int l = 0; l < levels; l++)
+                levelCoords[l + 1] = applyLevel(l, levelCoords[l]);
+            return null;
+        }
+        if (usedBy == null)
+            buildUsedBy();
+        SubdivisionScratch scratch = SubdivisionScratch.get();
+
+        // changed control vertices
+
+        if (candidates == null)
+            candidateCount = controlCount;
+        double[] old = levelCoords[0];
+        int[] dirty = scratch.getDirtyRows(0, candidateCount);
+        int dirtyCount = 0;
+        for (int c = 0; c < candidateCount; c++) {
+            int i = (candidates == null ? c : candidates[c]);
+            int k = 3 * i;
+            if (coords[k] != old[k] || coords[k + 1] != old[k + 1] || coords[k + 2] != old[k + 2]) {
+                old[k] = coords[k];
+                old[k + 1] = coords[k + 1];
+                old[k + 2] = coords[k + 2];
+                dirty[dirtyCount++] = i;
+            }
+        }
+
+        // rows depending on them, level after level
+
+        for (int l = 0; l < levels && dirtyCount > 0; l++) {
+            int[] start = levelStart.get(l);
+            int[] index = levelIndex.get(l);
+            double[] weight = levelWeight.get(l);
+            int[] ubStart = usedByStart[l];
+            int[] ub = usedBy[l];
+            double[] src = levelCoords[l];
+            double[] dst = levelCoords[l + 1];
+            boolean[] marked = scratch.getMarkedRows(start.length - 1);
+            int[] nextDirty = scratch.getDirtyRows((l + 1) % 2, start.length - 1);
+            int nextCount = 0;
+            for (int d = 0; d < dirtyCount; d++) {
+                int v = dirty[d];
+                for (int j = ubStart[v]; j < ubStart[v + 1]; j++) {
+                    int row = ub[j];
+                    if (!marked[row]) {
+                        marked[row] = true;
+                        nextDirty[nextCount++] = row;
+                    }
+                }
+            }
+            for (int d = 0; d < nextCount; d++) {
+                int i = nextDirty[d];
+                marked[i] = false;
+                double x = 0, y = 0, z = 0;
+                for (int j = start[i]; j < start[i + 1]; j++) {
+                    int k = index[j] * 3;
+                    double w = weight[j];
+                    x += src[k] * w;
+                    y += src[k + 1] * w;
+                    z += src[k + 2] * w;
+                }
+                dst[i * 3] = x;
+                dst[i * 3 + 1] = y;
+                dst[i * 3 + 2] = z;
+            }
+            dirty = nextDirty;
+            dirtyCount = nextCount;
+        }
+        int[] moved = new int[dirtyCount];
+        System.arraycopy(dirty, 0, moved, 0, dirtyCount);
+        return moved;
+    }
+
+    /**
+     * Returns the subdivided vertex positions computed by the last call to update()
+     */
+    public synchronized double[] getPositions() {
+        if (levelCoords == null)
+            return null;
+        return levelCoords[levelCoords.length - 1];
+    }
+
+    private void buildUsedBy() {
+        int levels = levelStart.size();
+        usedByStart = new int[levels][];
+        usedBy = new int[levels][];
+        for (int l = 0; l < levels; l++) {
+            int[] start = levelStart.get(l);
+            int[] index = levelIndex.get(l);
+            int sources = levelCoords[l].length / 3;
+            int[] ubStart = new int[sources + 1];
+            for (int j = 0; j < index.length; j++)
+                ubStart[index[j] + 1]++;
+            for (int i = 0; i < sources; i++)
+                ubStart[i + 1] += ubStart[i];
+            int[] fill = new int[sources];
+            int[] ub = new int[index.length];
+            for (int i = 0; i < start.length - 1; i++) {
+                for (int j = start[i]; j < start[i + 1]; j++) {
+                    int v = index[j];
+                    ub[ubStart[v] + fill[v]++] = i;
+                }
+            }
+            usedByStart[l] = ubStart;
+            usedBy[l] = ub;
+        }
+    }
+
+    /**
+     * Computes the subdivided vertex positions
+     *
+     * @param coords Control vertex positions, x y z for each vertex
+     * @return       Subdivided vertex positions, x y z for each vertex
+     */
+    public double[] apply(double[] coords) {
+        double[] src = coords;
+        for (int l = 0; l < levelStart.size(); l++)
+            src = applyLevel(l, src);
+        return src;
+    }
+
+    private double[] applyLevel(int l, double[] src) {
+        int[] start = levelStart.get(l);
+        int[] index = levelIndex.get(l);
+        double[] weight = levelWeight.get(l);
+        double[] dst = new double[(start.length - 1) * 3];
+        for (int i = 0, k = 0; i < start.length - 1; i++, k += 3) {
+            double x = 0, y = 0, z = 0;
+            for (int j = start[i]; j < start[i + 1]; j++) {
+                int s = index[j] * 3;
+                double w = weight[j];
+                x += src[s] * w;
+                y += src[s + 1] * w;
+                z += src[s + 2] * w;
+            }
+            dst[k] = x;
+            dst[k + 1] = y;
+            dst[k + 2] = z;
+        }
+        return dst;
+    }
+}
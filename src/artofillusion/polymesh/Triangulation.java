@@ -0,0 +1,178 @@
+/*
+ *  Copyright (C) 2026 by the Art of Illusion PolyMesh contributors
+ *  This program is free software; you can redistribute it and/or modify it under the
+ *  terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 2 of the License, or (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ *  PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package artofillusion.polymesh;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import artofillusion.math.Vec3;
+
+/**
+ * Triangles of a triangulated PolyMesh (see PolyMesh.triangulate()). The
+ * triangle vertices and the face each triangle comes from are stored in int
+ * arrays which grow as needed.
+ *
+ * The vertices of the triangles are the mesh vertices, followed by the
+ * vertices added at the center of large faces. Each added vertex is a weighted
+ * sum of mesh vertices, which is used to interpolate texture parameters.
+ *
+ * A triangulation belongs to the call which builds it, so several threads can
+ * triangulate the same mesh at the same time.
+ */
+public class Triangulation {
+
+    private final int meshVertexCount;
+    private int[] corners = new int[48];
+    private int[] faces = new int[16];
+    private int count;
+    private final ArrayList<Vec3> addedPositions = new ArrayList<Vec3>();
+    private final ArrayList<int[]> addedVertices = new ArrayList<int[]>();
+    private final ArrayList<double[]> addedWeights = new ArrayList<double[]>();
+
+    /**
+     * Creates an empty triangulation
+     *
+     * @param meshVertexCount Number of vertices of the triangulated mesh
+     */
+    public Triangulation(int meshVertexCount) {
+        this.meshVertexCount = meshVertexCount;
+    }
+
+    /**
+     * Adds a triangle
+     *
+     * @param v1   First vertex
+     * @param v2   Second vertex
+     * @param v3   Third vertex
+     * @param face Mesh face the triangle comes from
+     */
+    public void addTriangle(int v1, int v2, int v3, int face) {
+        if (count == faces.length) {
+            faces = Arrays.copyOf(faces, count * 2);
+            corners = Arrays.copyOf(corners, count * 6);
+        }
+        corners[3 * count] = v1;
+        corners[3 * count + 1] = v2;
+        corners[3 * count + 2] = v3;
+        faces[count] = face;
+        count++;
+    }
+
+    /**
+     * Adds a vertex
+     *
+     * @param r       Vertex position
+     * @param vert    Mesh vertices the vertex is a weighted sum of
+     * @param weights Weight of each mesh vertex
+     * @return        The index of the new vertex
+     */
+    public int addVertex(Vec3 r, int[] vert, double[] weights) {
+        addedPositions.add(r);
+        addedVertices.add(vert);
+        addedWeights.add(weights);
+        return meshVertexCount + addedPositions.size() - 1;
+    }
+
+    public int getTriangleCount() {
+        return count;
+    }
+
+    /**
+     * Returns a vertex of a triangle
+     *
+     * @param corner 0, 1 or 2
+     */
+    public int getVertex(int triangle, int corner) {
+        return corners[3 * triangle + corner];
+    }
+
+    /**
+     * Returns the mesh face a triangle comes from
+     */
+    public int getFace(int triangle) {
+        return faces[triangle];
+    }
+
+    /**
+     * Returns the number of vertices, mesh vertices included
+     */
+    public int getVertexCount() {
+        return meshVertexCount + addedPositions.size();
+    }
+
+    public int getMeshVertexCount() {
+        return meshVertexCount;
+    }
+
+    /**
+     * Returns the position of a vertex added by the triangulation
+     *
+     * @param v Vertex index, at least the number of mesh vertices
+     */
+    public Vec3 getAddedPosition(int v) {
+        return addedPositions.get(v - meshVertexCount);
+    }
+
+    /**
+     * Returns the mesh vertices a vertex is a weighted sum of
+     */
+    public int[] getSourceVertices(int v) {
+        if (v < meshVertexCount)
+            return new int[] { v };
+        return addedVertices.get(v - meshVertexCount);
+    }
+
+    /**
+     * Returns the weights of the mesh vertices a vertex is a weighted sum of
+     */
+    public double[] getSourceWeights(int v) {
+        if (v < meshVertexCount)
+            return new double[] { 1.0 };
+        return addedWeights.get(v - meshVertexCount);
+    }
+
+    /**
+     * Returns the vertices of all triangles, one array of three vertices per
+     * triangle
+     */
+    public int[][] getTriangles() {
+        int[][] tri = new int[count][];
+        for (int i = 0; i < count; i++)
+            tri[i] = Arrays.copyOfRange(corners, 3 * i, 3 * i + 3);
+        return tri;
+    }
+
+    /**
+     * Returns the face each triangle comes from
+     */
+    public int[] getFaces() {
+        return Arrays.copyOf(faces, count);
+    }
+
+    /**
+     * Interpolates a per vertex value of the mesh at each vertex
+     *
+     * @param meshValues Value at each mesh vertex
+     */
+    public double[] interpolate(double[] meshValues) {
+        double[] values = new double[getVertexCount()];
+        System.arraycopy(meshValues, 0, values, 0, meshVertexCount);
+        for (int i = 0; i < addedPositions.size(); i++) {
+            int[] vert = addedVertices.get(i);
+            double[] weights = addedWeights.get(i);
+            double value = 0.0;
+            for (int j = 0; j < vert.length; j++)
+                value += weights[j] * meshValues[vert[j]];
+            values[meshVertexCount + i] = value;
+        }
+        return values;
+    }
+}
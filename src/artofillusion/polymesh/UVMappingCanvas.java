@@ -1238,6 +1238,11 @@ public class UVMappingCanvas extends CustomWidget {
             manipulator.selectionUpdated();
             repaint();
         }
+
+        @Override
+        public long getMemorySize() {
+            return PMUndoRedoStack.getMemorySize(oldPos) + PMUndoRedoStack.getMemorySize(newPos);
+        }
     }
 
     /**
@@ -1352,6 +1357,11 @@ public class UVMappingCanvas extends CustomWidget {
             manipulator.selectionUpdated();
             repaint();
         }
+
+        @Override
+        public long getMemorySize() {
+            return vertIndices.length * (4L + 2 * PMUndoRedoStack.VEC2_BYTES);
+        }
     }
 
     public class Range {
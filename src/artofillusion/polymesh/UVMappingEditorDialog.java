@@ -1188,6 +1188,11 @@ public class UVMappingEditorDialog extends BDialog {
             updateState();
             mappingCanvas.repaint();
         }
+
+        @Override
+        public long getMemorySize() {
+            return PMUndoRedoStack.getMemorySize(mapping.v);
+        }
     }
 
     /**
@@ -1232,6 +1237,11 @@ public class UVMappingEditorDialog extends BDialog {
             updateMappingMenu();
             updateState();
         }
+
+        @Override
+        public long getMemorySize() {
+            return PMUndoRedoStack.getMemorySize(mapping.v);
+        }
     }
 
     /**
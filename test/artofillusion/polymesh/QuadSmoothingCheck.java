@@ -0,0 +1,289 @@
+/*
+ *  Copyright (C) 2026 by the Art of Illusion PolyMesh contributors
+ *  This program is free software; you can redistribute it and/or modify it under the
+ *  terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 2 of the License, or (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ *  PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package artofillusion.polymesh;
+
+import artofillusion.math.Vec3;
+import artofillusion.object.MeshVertex;
+import artofillusion.polymesh.PolyMesh.Wedge;
+import artofillusion.polymesh.PolyMesh.Wface;
+import artofillusion.polymesh.PolyMesh.Wvertex;
+import artofillusion.polymesh.QuadMesh.QuadEdge;
+import artofillusion.polymesh.QuadMesh.QuadFace;
+import artofillusion.texture.ConstantParameterValue;
+import artofillusion.texture.FaceParameterValue;
+import artofillusion.texture.FaceVertexParameterValue;
+import artofillusion.texture.ParameterValue;
+import artofillusion.texture.VertexParameterValue;
+import java.util.HashMap;
+
+/**
+ * Checks that all-quad meshes smoothed directly as a QuadMesh give the same
+ * result as the general path, which runs the first level on a PolyMesh copy
+ * (see PolyMesh.smoothGeneralMesh()). A cube, a mirrored mesh, a mesh with
+ * creases and corners and a mesh with per vertex, per face and per face per
+ * vertex texture parameters are smoothed at several levels by both paths, and
+ * the vertex positions, faces, edge smoothness, projected edges and texture
+ * parameter values are compared.
+ *
+ * Run with "ant check", or with the plugin classes, ArtOfIllusion.jar and
+ * mtj.jar on the class path. The exit status is 1 when any comparison fails.
+ */
+public class QuadSmoothingCheck {
+
+    private static final double TOL = 1e-9;
+    private static final double CELL = 1e-6; //grid used to match vertices by position
+
+    private static int failures;
+
+    public static void main(String[] args) {
+        check("cube", new PolyMesh(0, 2, 2, 1.0, 1.0, 1.0));
+        check("mirrored", mirrored(false));
+        check("mirrored, closed", mirrored(true));
+        check("creased", creased());
+        check("textured", textured());
+        if (failures > 0) {
+            System.out.println(failures + " comparison(s) failed");
+            System.exit(1);
+        }
+        System.out.println("All comparisons passed");
+    }
+
+    /**
+     * Half a cube open on the YZ plane, mirrored on that plane. When closed is
+     * set, the face lying on the plane is kept.
+     */
+    private static PolyMesh mirrored(boolean closed) {
+        PolyMesh mesh = new PolyMesh(0, 2, 2, 1.0, 1.0, 1.0);
+        MeshVertex[] v = mesh.getVertices();
+        Vec3[] pos = new Vec3[v.length];
+        for (int i = 0; i < v.length; i++)
+            pos[i] = v[i].r.plus(new Vec3(0.5, 0.0, 0.0));
+        mesh.setVertexPositions(pos);
+        if (!closed) {
+            Wface[] f = mesh.getFaces();
+            for (int i = 0; i < f.length; i++) {
+                int[] fv = mesh.getFaceVertices(f[i]);
+                boolean onPlane = true;
+                for (int j = 0; j < fv.length; j++)
+                    onPlane &= (pos[fv[j]].x == 0.0);
+                if (onPlane) {
+                    mesh.deleteFaces(new int[] { i });
+                    break;
+                }
+            }
+        }
+        mesh.setMirrorState(PolyMesh.MIRROR_ON_YZ);
+        return mesh;
+    }
+
+    /**
+     * A cube with hard and semi smooth edges, a corner and a crease vertex
+     */
+    private static PolyMesh creased() {
+        PolyMesh mesh = new PolyMesh(0, 2, 2, 1.0, 1.0, 1.0);
+        Wvertex[] v = (Wvertex[]) mesh.getVertices();
+        Wedge[] e = mesh.getEdges();
+        v[0].type = Wvertex.CORNER;
+        v[6].type = Wvertex.CREASE;
+        for (int i = 0; i < e.length / 2; i += 3)
+            e[i].smoothness = e[e[i].hedge].smoothness = (i % 2 == 0 ? 0.0f : 0.6f);
+        mesh.resetMesh();
+        return mesh;
+    }
+
+    /**
+     * A creased cube with a per vertex, a per face and a per face per vertex
+     * texture parameter, each with a different value on each element, and a
+     * constant one
+     */
+    private static PolyMesh textured() {
+        PolyMesh mesh = creased();
+        MeshVertex[] v = mesh.getVertices();
+        Wface[] f = mesh.getFaces();
+        double[] vertexValues = new double[v.length];
+        for (int i = 0; i < v.length; i++)
+            vertexValues[i] = v[i].r.x + 2.0 * v[i].r.y + 4.0 * v[i].r.z;
+        double[] faceValues = new double[f.length];
+        double[][] cornerValues = new double[f.length][];
+        for (int i = 0; i < f.length; i++) {
+            faceValues[i] = i;
+            int[] fv = mesh.getFaceVertices(f[i]);
+            cornerValues[i] = new double[fv.length];
+            for (int j = 0; j < fv.length; j++)
+                cornerValues[i][j] = 10.0 * i + fv[j];
+        }
+        mesh.setParameterValues(new ParameterValue[] { new VertexParameterValue(vertexValues),
+                new FaceParameterValue(faceValues), new FaceVertexParameterValue(cornerValues),
+                new ConstantParameterValue(0.5) });
+        return mesh;
+    }
+
+    private static void check(String name, PolyMesh mesh) {
+        for (int level = 1; level <= 3; level++) {
+            QuadMesh quad = ((PolyMesh) mesh.duplicate()).smoothWholeMesh(0.001, true, level, false);
+            QuadMesh general = ((PolyMesh) mesh.duplicate()).smoothGeneralMesh(0.001, true, level, null, 0);
+            String error = compare(quad, general);
+            if (error == null)
+                System.out.println(name + ", level " + level + ": same");
+            else {
+                System.out.println(name + ", level " + level + ": " + error);
+                ++failures;
+            }
+        }
+    }
+
+    /**
+     * Compares two smoothed meshes. The two paths number the new vertices,
+     * edges and faces in a different order, so vertices are matched by
+     * position and faces and edges by the vertices they join.
+     */
+    private static String compare(QuadMesh a, QuadMesh b) {
+        MeshVertex[] va = a.getVertices();
+        MeshVertex[] vb = b.getVertices();
+        if (va.length != vb.length)
+            return "vertex count " + va.length + " != " + vb.length;
+        HashMap<String, Integer> positions = new HashMap<String, Integer>();
+        for (int i = 0; i < vb.length; i++)
+            positions.put(key(vb[i].r, 0, 0, 0), i);
+        int[] map = new int[va.length];
+        for (int i = 0; i < va.length; i++) {
+            map[i] = find(va[i].r, positions, vb);
+            if (map[i] == -1)
+                return "no vertex at " + va[i].r;
+        }
+        QuadFace[] fa = a.getFaces();
+        QuadFace[] fb = b.getFaces();
+        if (fa.length != fb.length)
+            return "face count " + fa.length + " != " + fb.length;
+        HashMap<String, Integer> faces = new HashMap<String, Integer>();
+        for (int i = 0; i < fb.length; i++)
+            faces.put(key(new int[] { fb[i].v1, fb[i].v2, fb[i].v3, fb[i].v4 }), i);
+        int[] faceMap = new int[fa.length];
+        for (int i = 0; i < fa.length; i++) {
+            Integer j = faces.get(key(new int[] { map[fa[i].v1], map[fa[i].v2], map[fa[i].v3], map[fa[i].v4] }));
+            if (j == null)
+                return "face " + i + " is missing";
+            faceMap[i] = j;
+        }
+        QuadEdge[] ea = a.getEdges();
+        QuadEdge[] eb = b.getEdges();
+        if (ea.length != eb.length)
+            return "edge count " + ea.length + " != " + eb.length;
+        int[] pa = a.getProjectedEdges();
+        int[] pb = b.getProjectedEdges();
+        HashMap<String, Integer> edges = new HashMap<String, Integer>();
+        for (int i = 0; i < eb.length; i++)
+            edges.put(key(eb[i].v1, eb[i].v2), i);
+        for (int i = 0; i < ea.length; i++) {
+            Integer j = edges.get(key(map[ea[i].v1], map[ea[i].v2]));
+            if (j == null)
+                return "edge " + i + " is missing";
+            if (ea[i].smoothness != eb[j].smoothness)
+                return "edge " + i + " smoothness " + ea[i].smoothness + " != " + eb[j].smoothness;
+            if (pa[i] != pb[j])
+                return "edge " + i + " projects on " + pa[i] + " != " + pb[j];
+        }
+        return compareParameters(a, b, map, faceMap);
+    }
+
+    /**
+     * Compares the texture parameter values of two smoothed meshes, with the
+     * vertices and faces matched by compare()
+     */
+    private static String compareParameters(QuadMesh a, QuadMesh b, int[] map, int[] faceMap) {
+        ParameterValue[] pa = a.getParameterValues();
+        ParameterValue[] pb = b.getParameterValues();
+        if (pa == null || pb == null)
+            return (pa == pb ? null : "parameter values missing");
+        if (pa.length != pb.length)
+            return "parameter count " + pa.length + " != " + pb.length;
+        QuadFace[] fa = a.getFaces();
+        QuadFace[] fb = b.getFaces();
+        for (int k = 0; k < pa.length; k++) {
+            if (pa[k].getClass() != pb[k].getClass())
+                return "parameter " + k + " is a " + pa[k].getClass().getSimpleName() + " and a "
+                        + pb[k].getClass().getSimpleName();
+            if (pa[k] instanceof VertexParameterValue) {
+                double[] va = ((VertexParameterValue) pa[k]).getValue();
+                double[] vb = ((VertexParameterValue) pb[k]).getValue();
+                if (va.length != map.length || vb.length != map.length)
+                    return "parameter " + k + " has " + va.length + " and " + vb.length + " vertex values";
+                for (int i = 0; i < va.length; i++)
+                    if (Math.abs(va[i] - vb[map[i]]) > TOL)
+                        return "parameter " + k + " at vertex " + i + ": " + va[i] + " != " + vb[map[i]];
+            } else if (pa[k] instanceof FaceParameterValue) {
+                double[] va = ((FaceParameterValue) pa[k]).getValue();
+                double[] vb = ((FaceParameterValue) pb[k]).getValue();
+                if (va.length != faceMap.length || vb.length != faceMap.length)
+                    return "parameter " + k + " has " + va.length + " and " + vb.length + " face values";
+                for (int i = 0; i < va.length; i++)
+                    if (Math.abs(va[i] - vb[faceMap[i]]) > TOL)
+                        return "parameter " + k + " at face " + i + ": " + va[i] + " != " + vb[faceMap[i]];
+            } else if (pa[k] instanceof FaceVertexParameterValue) {
+                FaceVertexParameterValue va = (FaceVertexParameterValue) pa[k];
+                FaceVertexParameterValue vb = (FaceVertexParameterValue) pb[k];
+                if (va.getFaceCount() != faceMap.length || vb.getFaceCount() != faceMap.length)
+                    return "parameter " + k + " has " + va.getFaceCount() + " and " + vb.getFaceCount() + " faces";
+                for (int i = 0; i < faceMap.length; i++) {
+                    int[] ca = new int[] { fa[i].v1, fa[i].v2, fa[i].v3, fa[i].v4 };
+                    QuadFace f = fb[faceMap[i]];
+                    int[] cb = new int[] { f.v1, f.v2, f.v3, f.v4 };
+                    for (int j = 0; j < 4; j++) {
+                        int c = 0;
+                        while (cb[c] != map[ca[j]])
+                            c++;
+                        double x = va.getValue(i, j), y = vb.getValue(faceMap[i], c);
+                        if (Math.abs(x - y) > TOL)
+                            return "parameter " + k + " at face " + i + " corner " + j + ": " + x + " != " + y;
+                    }
+                }
+            } else if (Math.abs(pa[k].getAverageValue() - pb[k].getAverageValue()) > TOL)
+                return "parameter " + k + ": " + pa[k].getAverageValue() + " != " + pb[k].getAverageValue();
+        }
+        return null;
+    }
+
+    /**
+     * Finds the vertex at a position, looking in the grid cells around it
+     */
+    private static int find(Vec3 r, HashMap<String, Integer> positions, MeshVertex[] v) {
+        for (int i = -1; i <= 1; i++)
+            for (int j = -1; j <= 1; j++)
+                for (int k = -1; k <= 1; k++) {
+                    Integer index = positions.get(key(r, i, j, k));
+                    if (index != null && v[index].r.distance(r) <= TOL)
+                        return index;
+                }
+        return -1;
+    }
+
+    private static String key(Vec3 r, int dx, int dy, int dz) {
+        return (Math.round(r.x / CELL) + dx) + " " + (Math.round(r.y / CELL) + dy) + " " + (Math.round(r.z / CELL) + dz);
+    }
+
+    /**
+     * Face key, independent of the first vertex
+     */
+    private static String key(int[] v) {
+        int first = 0;
+        for (int i = 1; i < v.length; i++)
+            if (v[i] < v[first])
+                first = i;
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < v.length; i++)
+            key.append(v[(first + i) % v.length]).append(' ');
+        return key.toString();
+    }
+
+    private static String key(int v1, int v2) {
+        return Math.min(v1, v2) + " " + Math.max(v1, v2);
+    }
+}
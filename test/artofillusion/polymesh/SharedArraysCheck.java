@@ -0,0 +1,123 @@
+/*
+ *  Copyright (C) 2026 by the Art of Illusion PolyMesh contributors
+ *  This program is free software; you can redistribute it and/or modify it under the
+ *  terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 2 of the License, or (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ *  PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package artofillusion.polymesh;
+
+import artofillusion.math.Vec3;
+import artofillusion.object.MeshVertex;
+import artofillusion.polymesh.PolyMesh.Wedge;
+import artofillusion.polymesh.PolyMesh.Wface;
+
+/**
+ * Checks that a duplicate of a PolyMesh, which shares the vertices, edges and
+ * faces arrays of the original (see PolyMesh.shareArrays()), is not changed by
+ * writes to the original, whether the arrays were handed out before or after
+ * the duplicate was made, and the other way round.
+ *
+ * Run with "ant check", or with the plugin classes, ArtOfIllusion.jar and
+ * mtj.jar on the class path. The exit status is 1 when any comparison fails.
+ */
+public class SharedArraysCheck {
+
+    private static int failures;
+
+    public static void main(String[] args) {
+        // arrays taken after the duplicate is made
+        PolyMesh mesh = cube();
+        PolyMesh copy = (PolyMesh) mesh.duplicate();
+        write(mesh.getVertices(), mesh.getEdges(), mesh.getFaces());
+        check("write to the original after duplicate()", copy);
+
+        // arrays taken before the duplicate is made, as the editing commands do
+        mesh = cube();
+        MeshVertex[] v = mesh.getVertices();
+        Wedge[] e = mesh.getEdges();
+        Wface[] f = mesh.getFaces();
+        copy = (PolyMesh) mesh.duplicate();
+        write(v, e, f);
+        check("write to arrays taken before duplicate()", copy);
+
+        // the duplicate written to, the original kept
+        mesh = cube();
+        copy = (PolyMesh) mesh.duplicate();
+        write(copy.getVertices(), copy.getEdges(), copy.getFaces());
+        check("write to the duplicate", mesh);
+
+        // a copy of a copy, the middle one written to
+        mesh = cube();
+        copy = (PolyMesh) mesh.duplicate();
+        PolyMesh second = (PolyMesh) copy.duplicate();
+        write(copy.getVertices(), copy.getEdges(), copy.getFaces());
+        check("write to a duplicate, original", mesh);
+        check("write to a duplicate, its duplicate", second);
+
+        // arrays set by setMeshTopology(), written to by the caller
+        mesh = cube();
+        PolyMesh source = cube();
+        v = source.getVertices();
+        e = source.getEdges();
+        f = source.getFaces();
+        mesh.setMeshTopology((PolyMesh.Wvertex[]) v, e, f);
+        copy = (PolyMesh) mesh.duplicate();
+        write(v, e, f);
+        check("write to arrays given to setMeshTopology()", copy);
+
+        if (failures > 0) {
+            System.out.println(failures + " comparison(s) failed");
+            System.exit(1);
+        }
+        System.out.println("All comparisons passed");
+    }
+
+    private static PolyMesh cube() {
+        return new PolyMesh(0, 2, 2, 1.0, 1.0, 1.0);
+    }
+
+    /**
+     * Moves every vertex, and changes the smoothness of every edge and the
+     * edge of every face
+     */
+    private static void write(MeshVertex[] v, Wedge[] e, Wface[] f) {
+        for (int i = 0; i < v.length; i++)
+            v[i].r.add(new Vec3(1.0, 2.0, 3.0));
+        for (int i = 0; i < e.length; i++)
+            e[i].smoothness = 0.5f;
+        for (int i = 0; i < f.length; i++)
+            f[i].edge = -1;
+    }
+
+    /**
+     * Compares a mesh which should not have been changed with a new cube
+     */
+    private static void check(String name, PolyMesh mesh) {
+        PolyMesh cube = cube();
+        MeshVertex[] v = mesh.getSharedVertices(), cv = cube.getSharedVertices();
+        Wedge[] e = mesh.getSharedEdges(), ce = cube.getSharedEdges();
+        Wface[] f = mesh.getSharedFaces(), cf = cube.getSharedFaces();
+        String error = null;
+        if (v.length != cv.length || e.length != ce.length || f.length != cf.length)
+            error = "element counts differ";
+        for (int i = 0; error == null && i < v.length; i++)
+            if (v[i].r.distance(cv[i].r) != 0.0)
+                error = "vertex " + i + " moved";
+        for (int i = 0; error == null && i < e.length; i++)
+            if (e[i].smoothness != ce[i].smoothness)
+                error = "edge " + i + " smoothness changed";
+        for (int i = 0; error == null && i < f.length; i++)
+            if (f[i].edge != cf[i].edge)
+                error = "face " + i + " edge changed";
+        if (error == null)
+            System.out.println(name + ": unchanged");
+        else {
+            System.out.println(name + ": " + error);
+            failures++;
+        }
+    }
+}